@@ -0,0 +1,47 @@
+package ie.atu.sw.benchmarks;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.EmbeddingsCache;
+import ie.atu.sw.embeddings.EmbeddingsLoader;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to load an embeddings file, both by parsing the text and from the compiled binary copy.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class EmbeddingsLoadBenchmark {
+
+    @Param({"50", "100", "300"})
+    public int dimensions;
+
+    @Param({"50000"})
+    public int words;
+
+    private Path embeddings;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        embeddings = SyntheticData.temporaryDirectory().resolve("embeddings.txt");
+        SyntheticData.writeEmbeddings(embeddings, words, dimensions, 42);
+        EmbeddingsCache cache = new EmbeddingsCache(embeddings);
+        cache.save(new EmbeddingsLoader(embeddings).load());
+    }
+
+    @Benchmark
+    public EmbeddingMatrix parseText() throws Exception {
+        return new EmbeddingsLoader(embeddings).load();
+    }
+
+    @Benchmark
+    public EmbeddingMatrix loadCompiled() throws Exception {
+        return new EmbeddingsCache(embeddings).load();
+    }
+}
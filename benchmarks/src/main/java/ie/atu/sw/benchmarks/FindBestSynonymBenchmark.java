@@ -0,0 +1,63 @@
+package ie.atu.sw.benchmarks;
+
+import ie.atu.sw.files.EmbeddingsFile;
+import ie.atu.sw.utils.Methods;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a synonym lookup scanning the whole vocabulary, for several vocabulary sizes,
+ * both one word at a time and per word within a batch, and of a top-10 lookup with a minimum similarity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class FindBestSynonymBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"50", "100", "300"})
+    public int dimensions;
+
+    @Param({"1000", "10000", "100000"})
+    public int vocabulary;
+
+    private int next;
+    private String[] batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path embeddings = SyntheticData.temporaryDirectory().resolve("embeddings.txt");
+        SyntheticData.writeEmbeddings(embeddings, vocabulary, dimensions, 42);
+        new EmbeddingsFile(embeddings.toString()).process();
+        Methods.setCandidates(null);
+
+        batch = new String[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = SyntheticData.word((i * 7919) % vocabulary);
+        }
+    }
+
+    @Benchmark
+    public String findBestSynonym() {
+        next = (next + 7919) % vocabulary;
+        return Methods.findBestSynonym(SyntheticData.word(next));
+    }
+
+    @Benchmark
+    public Methods.Synonym[] findTopSynonyms() {
+        next = (next + 7919) % vocabulary;
+        return Methods.findTopSynonyms(SyntheticData.word(next), 10, 0.5f);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String[][] findBatchSynonyms() {
+        return Methods.findBatchSynonyms(batch, 1);
+    }
+}
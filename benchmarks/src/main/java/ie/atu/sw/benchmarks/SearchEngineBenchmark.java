@@ -0,0 +1,72 @@
+package ie.atu.sw.benchmarks;
+
+import ie.atu.sw.embeddings.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a top-10 search over a Google 1000 sized candidate matrix with each search engine:
+ * the exact scan, the HNSW index and the projected scan with its exact re-rank.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class SearchEngineBenchmark {
+
+    private static final int QUERIES = 256;
+
+    @Param({"50", "100", "300"})
+    public int dimensions;
+
+    @Param({"1000"})
+    public int candidates;
+
+    @Param({"EXACT", "HNSW", "PROJECTED"})
+    public SearchEngine.Type engine;
+
+    private SearchEngine search;
+    private float[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        EmbeddingMatrix.Builder builder = new EmbeddingMatrix.Builder();
+        for (int i = 0; i < candidates; i++) {
+            builder.add(SyntheticData.word(i), gaussian(random));
+        }
+        EmbeddingMatrix matrix = builder.build();
+
+        EmbeddingMatrix.Builder queryBuilder = new EmbeddingMatrix.Builder();
+        for (int i = 0; i < QUERIES; i++) {
+            queryBuilder.add(SyntheticData.word(i), gaussian(random));
+        }
+        queries = queryBuilder.build().data();
+
+        search = switch (engine) {
+            case EXACT -> new ExactSearch(matrix);
+            case HNSW -> HnswIndex.build(matrix, HnswIndex.Parameters.fromSystemProperties());
+            case PROJECTED -> ProjectedSearch.build(matrix, ProjectedSearch.Parameters.fromSystemProperties());
+            case SHARDED -> throw new IllegalArgumentException("A sharded search needs worker processes loading an embeddings file");
+        };
+    }
+
+    private float[] gaussian(Random random) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    @Benchmark
+    public TopK search() {
+        next = (next + 1) % QUERIES;
+        return search.search(queries, next * dimensions, 10, -1);
+    }
+}
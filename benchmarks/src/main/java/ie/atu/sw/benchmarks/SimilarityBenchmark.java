@@ -0,0 +1,95 @@
+package ie.atu.sw.benchmarks;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.SimilarityKernel;
+import ie.atu.sw.embeddings.SimilarityKernels;
+import ie.atu.sw.utils.Methods;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of comparing two vectors: the original cosine similarity, the dot product of normalized rows
+ * through the kernel chosen at startup, and each {@code SimilarityKernel} on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class SimilarityBenchmark {
+
+    @Param({"50", "100", "300"})
+    public int dimensions;
+
+    private double[] first;
+    private double[] second;
+    private float[] query;
+    private EmbeddingMatrix matrix;
+    private byte[] codes;
+    private SimilarityKernel scalar;
+    private SimilarityKernel unrolled;
+    private SimilarityKernel vector;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        first = new double[dimensions];
+        second = new double[dimensions];
+        float[] rows = new float[dimensions * 2];
+        for (int i = 0; i < dimensions; i++) {
+            first[i] = random.nextGaussian();
+            second[i] = random.nextGaussian();
+            rows[i] = (float) first[i];
+            rows[dimensions + i] = (float) second[i];
+        }
+        EmbeddingMatrix.normalize(rows, dimensions);
+        matrix = new EmbeddingMatrix(new String[]{"first", "second"}, rows, dimensions);
+        query = matrix.vector(0);
+        codes = new byte[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            codes[i] = (byte) random.nextInt(-127, 128);
+        }
+
+        scalar = SimilarityKernels.choose("scalar");
+        unrolled = SimilarityKernels.choose("unrolled");
+        vector = SimilarityKernels.choose("vector");
+    }
+
+    @Benchmark
+    public double cosineSimilarity() {
+        return Methods.computeCosineSimilarity(first, second);
+    }
+
+    @Benchmark
+    public float normalizedDot() {
+        return matrix.dot(query, 1);
+    }
+
+    @Benchmark
+    public float scalarKernel() {
+        return scalar.dot(query, 0, matrix.data(), dimensions, dimensions);
+    }
+
+    @Benchmark
+    public float unrolledKernel() {
+        return unrolled.dot(query, 0, matrix.data(), dimensions, dimensions);
+    }
+
+    @Benchmark
+    public float vectorKernel() {
+        return vector.dot(query, 0, matrix.data(), dimensions, dimensions);
+    }
+
+    @Benchmark
+    public float unrolledInt8Kernel() {
+        return unrolled.dot(query, 0, codes, 0, dimensions);
+    }
+
+    @Benchmark
+    public float vectorInt8Kernel() {
+        return vector.dot(query, 0, codes, 0, dimensions);
+    }
+}
@@ -0,0 +1,66 @@
+package ie.atu.sw.benchmarks;
+
+import ie.atu.sw.Runner;
+import ie.atu.sw.files.EmbeddingsFile;
+import ie.atu.sw.files.Google1000File;
+import ie.atu.sw.files.OutputFile;
+import ie.atu.sw.files.SelectedFile;
+import ie.atu.sw.utils.Methods;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end simplification of a text file in words per second, with and without the precomputed table.
+ * The synonym cache is emptied before every run, so runs without the table search for every word again
+ * rather than being answered from what earlier runs found.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class SimplifyBenchmark {
+
+    private static final int TEXT_WORDS = 200_000;
+
+    @Param({"50", "100", "300"})
+    public int dimensions;
+
+    @Param({"true", "false"})
+    public boolean precompute;
+
+    private SelectedFile selectedFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path directory = SyntheticData.temporaryDirectory();
+        Path embeddings = directory.resolve("embeddings.txt");
+        Path candidates = directory.resolve("google-1000.txt");
+        Path text = directory.resolve("text.txt");
+        SyntheticData.writeEmbeddings(embeddings, 20_000, dimensions, 42);
+        SyntheticData.writeWordList(candidates, 1000);
+        SyntheticData.writeText(text, TEXT_WORDS, 20_000, 7);
+
+        Runner.isPrecomputing = precompute;
+        OutputFile outputFile = new OutputFile(directory.resolve("out.txt").toString());
+        EmbeddingsFile embeddingsFile = new EmbeddingsFile(embeddings.toString());
+        embeddingsFile.process();
+        Google1000File google1000File = new Google1000File(candidates.toString(), embeddingsFile);
+        google1000File.process();
+        selectedFile = new SelectedFile(text.toString(), embeddingsFile, google1000File, outputFile);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        Methods.getSynonymCache().clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TEXT_WORDS)
+    public SelectedFile.Summary simplify() throws Exception {
+        return selectedFile.simplify(false);
+    }
+}
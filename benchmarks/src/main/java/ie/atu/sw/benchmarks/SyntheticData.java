@@ -0,0 +1,104 @@
+package ie.atu.sw.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The {@code SyntheticData} class writes made-up embeddings, word lists and text files, so the benchmarks need no external data.
+ * Every word is called {@code w<n>}, and the embeddings file uses the same "word, v1, v2, ..." layout as the real ones.
+ */
+public class SyntheticData {
+
+    /**
+     * Writes an embeddings file of random Gaussian vectors.
+     *
+     * @param path       the file to write.
+     * @param words      the number of words.
+     * @param dimensions the number of values per vector.
+     * @param seed       the random seed, so every run writes the same file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeEmbeddings(Path path, int words, int dimensions, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter out = Files.newBufferedWriter(path)) {
+            for (int word = 0; word < words; word++) {
+                out.write(word(word));
+                for (int i = 0; i < dimensions; i++) {
+                    out.write(", ");
+                    out.write(String.format(Locale.ROOT, "%.5f", random.nextGaussian()));
+                }
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes a candidate list holding the first words of the vocabulary, one per line.
+     *
+     * @param path  the file to write.
+     * @param words the number of words.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeWordList(Path path, int words) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path)) {
+            for (int word = 0; word < words; word++) {
+                out.write(word(word));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes a text of words drawn from the vocabulary with a roughly Zipfian distribution, as in natural text,
+     * with some capitals, punctuation and line breaks.
+     *
+     * @param path       the file to write.
+     * @param words      the number of words in the text.
+     * @param vocabulary the number of different words to draw from.
+     * @param seed       the random seed, so every run writes the same file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeText(Path path, int words, int vocabulary, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter out = Files.newBufferedWriter(path)) {
+            for (int i = 0; i < words; i++) {
+                int rank = (int) Math.min(vocabulary - 1, Math.floor(Math.pow(vocabulary, random.nextDouble())) - 1);
+                String word = word(rank);
+                out.write(random.nextInt(20) == 0 ? "W" + word.substring(1) : word);
+                if (random.nextInt(12) == 0) out.write(',');
+                out.write(random.nextInt(15) == 0 ? '\n' : ' ');
+            }
+        }
+    }
+
+    /**
+     * Returns the name of a synthetic word.
+     *
+     * @param index the index of the word.
+     * @return the word.
+     */
+    public static String word(int index) {
+        return "w" + index;
+    }
+
+    /**
+     * Creates a temporary directory which is deleted when the JVM exits.
+     *
+     * @return the new directory.
+     * @throws IOException if the directory cannot be created.
+     */
+    public static Path temporaryDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("simplifier-bench");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try (var files = Files.walk(directory)) {
+                files.sorted((a, b) -> b.compareTo(a)).forEach(file -> file.toFile().delete());
+            } catch (IOException ignored) {
+            }
+        }));
+        return directory;
+    }
+}
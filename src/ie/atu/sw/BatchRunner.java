@@ -0,0 +1,491 @@
+package ie.atu.sw;
+
+import ie.atu.sw.embeddings.ModelRegistry;
+import ie.atu.sw.embeddings.SearchEngine;
+import ie.atu.sw.embeddings.VectorFormat;
+import ie.atu.sw.files.EmbeddingsFile;
+import ie.atu.sw.files.Google1000File;
+import ie.atu.sw.files.OutputFile;
+import ie.atu.sw.files.OutputSink;
+import ie.atu.sw.files.SelectedFile;
+import ie.atu.sw.metrics.Metrics;
+import ie.atu.sw.server.SimplifierServer;
+import ie.atu.sw.shards.ShardWorker;
+import ie.atu.sw.shards.ShardedSearch;
+import ie.atu.sw.utils.Methods;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * The {@code BatchRunner} class runs the simplifier from the command line without the menu.
+ * The embeddings and the Google 1000 File are loaded once, then every input file is simplified
+ * concurrently into its own output file, and a summary of the throughput of each file is printed.
+ * With {@code --serve} the loaded model is instead kept resident behind a {@link SimplifierServer}, and with
+ * {@code --shard-worker} the process serves some shards of the candidates to the {@link ShardedSearch} which started it.
+ */
+public class BatchRunner {
+
+	/**
+	 * The name of the summary written to the output directory.
+	 */
+	private static final String SUMMARY_FILE = "batch-summary.txt";
+
+	/**
+	 * The name, less its extension, of the metrics report written to the output directory.
+	 */
+	private static final String METRICS_FILE = "batch-metrics";
+
+	private static final String USAGE = """
+			Usage: java -jar virtual-threaded-text-simplifier.jar --embeddings <file> --google <file> [options] <input>...
+			       java -jar virtual-threaded-text-simplifier.jar --embeddings <file> --google <file> [options] --serve <port>
+
+			Inputs are files, directories (every file beneath them) or globs such as 'books/**/*.txt'.
+			With --serve, POST /simplify, GET /synonym?word=&k=&min= and GET /health are served on the port instead.
+
+			Options:
+			  --output <dir>        where the simplified files are written (default: ./simplified)
+			  --parallel <n>        how many files are simplified at once (default: the number of cores)
+			  --format <format>     vector storage: FLOAT32, FLOAT16, INT8_PER_VECTOR or INT8_PER_DIMENSION
+			  --engine <engine>     synonym search: EXACT, HNSW, PROJECTED or SHARDED
+			  --shards <n>          search the candidates in n shards, each in its own worker process (sets --engine SHARDED)
+			  --threads <mode>      VIRTUAL or FORK_JOIN
+			  --no-precompute       look words up on demand instead of precomputing every simplification
+			  --compress <type>     compress the simplified files: NONE or GZIP (adds .gz)
+			  --min-similarity <s>  keep words whose closest candidate is less similar than s, from -1 to 1 (default: -1)
+			  --chunk-cache <dir>   keep simplified segments in dir, and only simplify the parts of a file which changed
+			  --serve <port>        serve over HTTP on the port (0 picks a free one)
+			  --max-requests <n>    with --serve, how many requests are served at once (default: 64)
+			  --max-body <bytes>    with --serve, the largest request body accepted (default: 67108864)
+			  --metrics <format>    time each stage and report it as TEXT or JSON at the end (and at GET /metrics)
+			  --metrics-every <s>   also print the metrics report every so many seconds
+			  --help                print this message
+
+			Internal:
+			  --shard-worker <s>/<n>  serve shards s (such as 0,3) of n to the process which started this one
+			""";
+
+	/**
+	 * The settings of a batch run.
+	 *
+	 * @param embeddings the embeddings file.
+	 * @param google     the Google 1000 file.
+	 * @param output     the directory the simplified files are written to.
+	 * @param parallel   the number of files simplified at once.
+	 * @param inputs     the input files, directories and globs.
+	 * @param port       the port to serve on, or {@code -1} to simplify the inputs instead.
+	 * @param maxRequests the most requests served at once.
+	 * @param maxBody    the largest request body accepted, in bytes.
+	 * @param metrics    the format of the metrics report, or {@code null} if metrics are off.
+	 * @param metricsEvery the seconds between periodic metrics reports, or 0 for none.
+	 * @param shardWorker the shards to serve as a shard worker, such as {@code 0,3/4}, or {@code null}.
+	 */
+	private record Options(String embeddings, String google, Path output, int parallel, List<String> inputs,
+						   int port, int maxRequests, long maxBody, Metrics.Format metrics, long metricsEvery,
+						   String shardWorker) {
+	}
+
+	/**
+	 * Runs a batch from the command line arguments.
+	 *
+	 * @param args the command line arguments.
+	 * @return the exit status: 0 if every file was simplified, 1 if any failed, and 2 if the arguments were wrong.
+	 * @throws Exception if the embeddings or the Google 1000 File cannot be loaded.
+	 */
+	public static int run(String[] args) throws Exception {
+		Options options;
+		try {
+			options = parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			return 2;
+		}
+		if (options == null) {
+			System.out.print(USAGE);
+			return 0;
+		}
+		if (options.metrics() != null) {
+			Metrics.setEnabled(true);
+		}
+		AutoCloseable reporting = options.metricsEvery() > 0
+				? Metrics.startReporting(Duration.ofSeconds(options.metricsEvery()), System.err, options.metrics())
+				: null;
+		try {
+			if (options.shardWorker() != null) return serveShards(options);
+			return options.port() >= 0 ? serve(options) : simplifyAll(options);
+		} finally {
+			if (reporting != null) reporting.close();
+
+			// Stops the shard workers, if any were started
+			Methods.setSearchEngine(null);
+		}
+	}
+
+	/**
+	 * Simplifies every input file, each into its own output file.
+	 *
+	 * @param options the settings of the run.
+	 * @return the exit status: 0 if every file was simplified, 1 if any failed, and 2 if no inputs were found or an output would overwrite an input or another output.
+	 * @throws Exception if the embeddings or the Google 1000 File cannot be loaded.
+	 */
+	private static int simplifyAll(Options options) throws Exception {
+
+		// Find every input first, so a typo fails the run before the model is loaded
+		Map<Path, Path> jobs;
+		try {
+			jobs = expandInputs(options.inputs(), options.output());
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return 2;
+		}
+		if (Runner.chunkCacheDirectory != null) {
+			Path cacheDirectory = Runner.chunkCacheDirectory.toAbsolutePath().normalize();
+			jobs.keySet().removeIf(file -> file.toAbsolutePath().normalize().startsWith(cacheDirectory));
+		}
+		if (jobs.isEmpty()) {
+			System.err.println("No input files matched " + options.inputs());
+			return 2;
+		}
+		Files.createDirectories(options.output());
+
+		// Load the model and candidates once for every file
+		EmbeddingsFile embeddingsFile = new EmbeddingsFile(options.embeddings());
+		embeddingsFile.process();
+		Google1000File google1000File = new Google1000File(options.google(), embeddingsFile);
+		google1000File.process();
+
+		// Simplify the files side by side; the cores are shared out between them by SelectedFile
+		System.out.printf("Simplifying %,d files, %d at a time...%n", jobs.size(), options.parallel());
+		long start = System.nanoTime();
+		Semaphore slots = new Semaphore(options.parallel());
+		Map<Path, Future<SelectedFile.Summary>> results = new LinkedHashMap<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (Map.Entry<Path, Path> job : jobs.entrySet()) {
+				results.put(job.getKey(), executor.submit(() -> {
+					slots.acquire();
+					try {
+						Files.createDirectories(job.getValue().toAbsolutePath().getParent());
+						SelectedFile selectedFile = new SelectedFile(job.getKey().toString(), embeddingsFile, google1000File,
+								new OutputFile(job.getValue().toString()));
+						return selectedFile.simplify(false);
+					} finally {
+						slots.release();
+					}
+				}));
+			}
+		}
+		long wallNanos = System.nanoTime() - start;
+
+		String report = report(results, wallNanos);
+		System.out.print(report);
+		Files.writeString(options.output().resolve(SUMMARY_FILE), report);
+		if (options.metrics() != null) {
+			String metrics = Metrics.report(options.metrics());
+			System.out.println(metrics);
+			Files.writeString(options.output().resolve(METRICS_FILE + (options.metrics() == Metrics.Format.JSON ? ".json" : ".txt")), metrics);
+		}
+
+		boolean failed = results.values().stream().anyMatch(result -> result.state() == Future.State.FAILED);
+		return failed ? 1 : 0;
+	}
+
+	/**
+	 * Loads the model once and serves it over HTTP until the JVM is stopped.
+	 *
+	 * @param options the settings of the run.
+	 * @return the exit status, 0 once the server has stopped.
+	 * @throws Exception if the embeddings or the Google 1000 File cannot be loaded, or the port cannot be bound.
+	 */
+	private static int serve(Options options) throws Exception {
+		EmbeddingsFile embeddingsFile = new EmbeddingsFile(options.embeddings());
+		embeddingsFile.process();
+		Google1000File google1000File = new Google1000File(options.google(), embeddingsFile);
+		google1000File.process();
+
+		SimplifierServer server = new SimplifierServer(google1000File, options.port(), options.maxRequests(), options.maxBody());
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+		System.out.printf("Serving on http://localhost:%d (at most %d requests at once)%n", server.getPort(), options.maxRequests());
+		server.awaitStop();
+		return 0;
+	}
+
+	/**
+	 * Loads the model and the candidates, keeps the shards this worker was given, and answers searches of them
+	 * until the process which started the worker exits.
+	 *
+	 * @param options the settings of the run.
+	 * @return the exit status, which is never reached while the worker serves.
+	 * @throws Exception if the embeddings or the Google 1000 File cannot be loaded, or the shards are not valid.
+	 */
+	private static int serveShards(Options options) throws Exception {
+		loadShards(options).serve();
+		return 0;
+	}
+
+	/**
+	 * Builds the worker from a freshly loaded model, which is dropped again once the shards are copied out of it.
+	 */
+	private static ShardWorker loadShards(Options options) throws Exception {
+		String[] parts = options.shardWorker().split("/");
+		int[] held;
+		int shards;
+		try {
+			if (parts.length != 2) throw new NumberFormatException();
+			held = Arrays.stream(parts[0].split(",")).mapToInt(Integer::parseInt).toArray();
+			shards = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("--shard-worker expects shards like 0,3/4 but got '" + options.shardWorker() + "'");
+		}
+
+		// A worker scans its shards exactly and never precomputes, whatever the coordinator does
+		Runner.searchEngineType = SearchEngine.Type.EXACT;
+		Runner.isPrecomputing = false;
+		EmbeddingsFile embeddingsFile = new EmbeddingsFile(options.embeddings());
+		embeddingsFile.process();
+		Google1000File google1000File = new Google1000File(options.google(), embeddingsFile);
+		google1000File.process();
+
+		ShardWorker worker = new ShardWorker(google1000File.getCandidates().getMatrix(), shards, held);
+		ModelRegistry.global().remove(google1000File.getModel().getName());
+		Methods.setCandidates(null);
+		return worker;
+	}
+
+	/**
+	 * Reads the command line arguments into the batch settings and the static settings in {@link Runner}.
+	 *
+	 * @param args the command line arguments.
+	 * @return the settings, or {@code null} if help was asked for.
+	 * @throws IllegalArgumentException if an argument is missing or not recognised.
+	 */
+	private static Options parse(String[] args) {
+		String embeddings = null, google = null;
+		Path output = Path.of("simplified");
+		int parallel = Runtime.getRuntime().availableProcessors();
+		List<String> inputs = new ArrayList<>();
+		int port = -1, maxRequests = 64;
+		long maxBody = 64L * 1024 * 1024;
+		Metrics.Format metrics = null;
+		long metricsEvery = 0;
+		String shardWorker = null;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+				case "--help", "-h" -> {
+					return null;
+				}
+				case "--embeddings" -> embeddings = value(args, ++i, arg);
+				case "--google" -> google = value(args, ++i, arg);
+				case "--output" -> output = Path.of(value(args, ++i, arg));
+				case "--parallel" -> parallel = (int) Math.max(1, number(args, ++i, arg));
+				case "--serve" -> port = (int) Math.min(65535, number(args, ++i, arg));
+				case "--max-requests" -> maxRequests = (int) Math.max(1, number(args, ++i, arg));
+				case "--max-body" -> maxBody = Math.max(1, number(args, ++i, arg));
+				case "--metrics" -> metrics = choice(Metrics.Format.class, value(args, ++i, arg), arg);
+				case "--metrics-every" -> metricsEvery = number(args, ++i, arg);
+				case "--format" -> Runner.vectorFormat = choice(VectorFormat.class, value(args, ++i, arg), arg);
+				case "--engine" -> Runner.searchEngineType = choice(SearchEngine.Type.class, value(args, ++i, arg), arg);
+				case "--shards" -> {
+					Runner.shardWorkers = (int) Math.max(1, number(args, ++i, arg));
+					Runner.searchEngineType = SearchEngine.Type.SHARDED;
+				}
+				case "--shard-worker" -> shardWorker = value(args, ++i, arg);
+				case "--threads" -> Runner.threadingMode = choice(SelectedFile.ThreadingMode.class, value(args, ++i, arg), arg);
+				case "--no-precompute" -> Runner.isPrecomputing = false;
+				case "--min-similarity" -> Methods.setMinSimilarity(similarity(args, ++i, arg));
+				case "--chunk-cache" -> Runner.chunkCacheDirectory = Path.of(value(args, ++i, arg));
+				case "--compress" -> Runner.outputCompression = choice(OutputSink.Compression.class, value(args, ++i, arg), arg);
+				default -> {
+					if (arg.startsWith("--")) throw new IllegalArgumentException("Unknown option " + arg);
+					inputs.add(arg);
+				}
+			}
+		}
+
+		if (embeddings == null) throw new IllegalArgumentException("Missing --embeddings");
+		if (google == null) throw new IllegalArgumentException("Missing --google");
+		if (inputs.isEmpty() && port < 0 && shardWorker == null) throw new IllegalArgumentException("No input files given");
+		if (metricsEvery > 0 && metrics == null) metrics = Metrics.Format.TEXT;
+		return new Options(embeddings, google, output, parallel, inputs, port, maxRequests, maxBody, metrics, metricsEvery, shardWorker);
+	}
+
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) throw new IllegalArgumentException(option + " expects a value");
+		return args[i];
+	}
+
+	private static long number(String[] args, int i, String option) {
+		String value = value(args, i, option);
+		try {
+			long number = Long.parseLong(value);
+			if (number < 0) throw new NumberFormatException();
+			return number;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " expects a number but got '" + value + "'");
+		}
+	}
+
+	private static float similarity(String[] args, int i, String option) {
+		String value = value(args, i, option);
+		try {
+			float similarity = Float.parseFloat(value);
+			if (!(similarity >= -1f && similarity <= 1f)) throw new NumberFormatException();
+			return similarity;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " expects a similarity from -1 to 1 but got '" + value + "'");
+		}
+	}
+
+	private static <E extends Enum<E>> E choice(Class<E> type, String value, String option) {
+		try {
+			return Enum.valueOf(type, value.toUpperCase(Locale.ROOT).replace('-', '_'));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(option + " expects one of " + Arrays.toString(type.getEnumConstants()) + " but got '" + value + "'");
+		}
+	}
+
+	/**
+	 * Expands the inputs into the files to simplify and where each one is written. A file keeps its name,
+	 * and a file found in a directory or by a glob keeps its path below the directory or the fixed part of the glob.
+	 * Files found inside the output directory are skipped, and a file named more than once, however it was
+	 * spelled, is simplified only once. As the files are simplified concurrently, two different files which
+	 * would be written to the same output, or a file whose output would replace an input, are rejected rather
+	 * than left to overwrite each other; so is a file named on its own which is inside the output directory.
+	 *
+	 * @param inputs the input files, directories and globs.
+	 * @param output the output directory.
+	 * @return the output path of every input file, in the order they were found.
+	 * @throws IOException if a directory cannot be listed.
+	 * @throws IllegalArgumentException if an input does not exist, is inside the output directory, or would be
+	 *                                  overwritten by an output, or two inputs would be written to the same output.
+	 */
+	private static Map<Path, Path> expandInputs(List<String> inputs, Path output) throws IOException {
+		Jobs jobs = new Jobs();
+		Path outputDirectory = output.toAbsolutePath().normalize();
+		for (String input : inputs) {
+			int glob = firstGlobCharacter(input);
+			if (glob >= 0) {
+
+				// Walk from the directory before the first glob character and match the rest of the pattern
+				int cut = input.lastIndexOf('/', glob) + 1;
+				Path base = Path.of(cut == 0 ? "." : input.substring(0, cut));
+				String pattern = input.substring(cut);
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+				// A leading '**/' should also match files directly inside the base directory
+				PathMatcher topLevel = pattern.startsWith("**/")
+						? FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(3))
+						: matcher;
+				if (!Files.isDirectory(base)) throw new IllegalArgumentException("No such directory: " + base);
+				try (Stream<Path> files = Files.walk(base)) {
+					files.filter(Files::isRegularFile)
+							.filter(file -> !file.toAbsolutePath().normalize().startsWith(outputDirectory))
+							.filter(file -> matcher.matches(base.relativize(file)) || topLevel.matches(base.relativize(file)))
+							.sorted()
+							.forEach(file -> jobs.add(file, output.resolve(base.relativize(file))));
+				}
+			} else if (Files.isDirectory(Path.of(input))) {
+				Path base = Path.of(input);
+				try (Stream<Path> files = Files.walk(base)) {
+					files.filter(Files::isRegularFile)
+							.filter(file -> !file.toAbsolutePath().normalize().startsWith(outputDirectory))
+							.sorted()
+							.forEach(file -> jobs.add(file, output.resolve(base.relativize(file))));
+				}
+			} else if (Files.isRegularFile(Path.of(input))) {
+				if (Path.of(input).toAbsolutePath().normalize().startsWith(outputDirectory)) {
+					throw new IllegalArgumentException(input + " is inside the output directory " + output);
+				}
+				jobs.add(Path.of(input), output.resolve(Path.of(input).getFileName()));
+			} else {
+				throw new IllegalArgumentException("No such file: " + input);
+			}
+		}
+		return jobs.targets;
+	}
+
+	/**
+	 * The files found so far by {@link #expandInputs}, keyed by their normalized paths so that the same file
+	 * reached twice is only added once.
+	 */
+	private static final class Jobs {
+		private final Map<Path, Path> targets = new LinkedHashMap<>();
+		private final Set<Path> seen = new HashSet<>();
+		private final Map<Path, Path> claimed = new HashMap<>();
+
+		void add(Path file, Path target) {
+			Path source = file.toAbsolutePath().normalize();
+			if (seen.contains(source)) return;
+
+			Path destination = target.toAbsolutePath().normalize();
+			if (destination.equals(source) || seen.contains(destination)) {
+				throw new IllegalArgumentException("Simplifying " + file + " would overwrite the input " + target);
+			}
+			if (claimed.containsKey(source)) {
+				throw new IllegalArgumentException("Simplifying " + claimed.get(source) + " would overwrite the input " + file);
+			}
+			Path other = claimed.putIfAbsent(destination, file);
+			if (other != null) {
+				throw new IllegalArgumentException(other + " and " + file + " would both be written to " + target);
+			}
+			seen.add(source);
+			targets.put(file, target);
+		}
+	}
+
+	private static int firstGlobCharacter(String input) {
+		for (int i = 0; i < input.length(); i++) {
+			if ("*?[{".indexOf(input.charAt(i)) >= 0) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Builds the summary of a batch: the throughput of every file, then the totals across all of them.
+	 *
+	 * @param results   the result of every file, by input path.
+	 * @param wallNanos the time the whole batch took.
+	 * @return the summary text.
+	 */
+	private static String report(Map<Path, Future<SelectedFile.Summary>> results, long wallNanos) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%n%-40s %12s %10s %12s %8s%n", "File", "Words", "ms", "Words/s", "MB/s"));
+		long words = 0, chars = 0;
+		int succeeded = 0, reused = 0, segments = 0;
+
+		for (Map.Entry<Path, Future<SelectedFile.Summary>> result : results.entrySet()) {
+			String name = result.getKey().toString();
+			if (name.length() > 40) name = "..." + name.substring(name.length() - 37);
+			if (result.getValue().state() == Future.State.FAILED) {
+				sb.append(String.format("%-40s FAILED: %s%n", name, result.getValue().exceptionNow()));
+				continue;
+			}
+			SelectedFile.Summary summary = result.getValue().resultNow();
+			sb.append(String.format("%-40s %,12d %,10.0f %,12.0f %8.1f%n", name, summary.words(), summary.nanos() / 1e6,
+					summary.wordsPerSecond(), summary.chars() / 1e6 / Math.max(1e-9, summary.nanos() / 1e9)));
+			words += summary.words();
+			chars += summary.chars();
+			reused += summary.reused();
+			segments += summary.segments();
+			succeeded++;
+		}
+
+		double seconds = Math.max(1e-9, wallNanos / 1e9);
+		sb.append(String.format("%-40s %,12d %,10.0f %,12.0f %8.1f%n", "Total (" + succeeded + " of " + results.size() + " files)",
+				words, wallNanos / 1e6, words / seconds, chars / 1e6 / seconds));
+		if (Methods.getSearchEngine() instanceof ShardedSearch shards) {
+			sb.append(shards).append(System.lineSeparator());
+		}
+		if (Runner.chunkCacheDirectory != null) {
+			sb.append(String.format("Reused %,d of %,d segments from the chunk cache in %s%n", reused, segments, Runner.chunkCacheDirectory));
+		}
+		return sb.toString();
+	}
+}
@@ -1,12 +1,20 @@
 package ie.atu.sw;
 
+import ie.atu.sw.embeddings.ModelRegistry;
+import ie.atu.sw.embeddings.SearchEngine;
+import ie.atu.sw.embeddings.VectorFormat;
 import ie.atu.sw.files.EmbeddingsFile;
 import ie.atu.sw.files.Google1000File;
 import ie.atu.sw.files.OutputFile;
+import ie.atu.sw.files.OutputSink;
 import ie.atu.sw.files.SelectedFile;
+import ie.atu.sw.metrics.Metrics;
+import ie.atu.sw.metrics.SimplifierMetricsMXBean;
 import ie.atu.sw.utils.ConsoleColour;
+import ie.atu.sw.utils.Methods;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -25,14 +33,53 @@ public class Runner {
 	 */
 	public static Boolean isDebugging = false;
 
+	/**
+	 * A {@code isPrecomputing} instance for whether to work out the simplification of every word when the Google 1000 File is loaded
+	 */
+	public static Boolean isPrecomputing = true;
+
+	/**
+	 * A {@code threadingMode} instance for which threads the words of the Selected Text File are resolved on
+	 */
+	public static SelectedFile.ThreadingMode threadingMode = SelectedFile.ThreadingMode.VIRTUAL;
+
+	/**
+	 * A {@code searchEngineType} instance for how synonyms are searched for when the Google 1000 File is loaded
+	 */
+	public static SearchEngine.Type searchEngineType = SearchEngine.Type.EXACT;
+
+	/**
+	 * A {@code shardWorkers} instance for how many worker processes share the candidates when the search engine is sharded
+	 */
+	public static int shardWorkers = 2;
+
+	/**
+	 * A {@code vectorFormat} instance for how the vectors of the Embeddings File are stored once loaded
+	 */
+	public static VectorFormat vectorFormat = VectorFormat.FLOAT32;
+
+	/**
+	 * A {@code outputCompression} instance for how the simplified text is compressed when it is written
+	 */
+	public static OutputSink.Compression outputCompression = OutputSink.Compression.NONE;
+
+	/**
+	 * A {@code chunkCacheDirectory} instance for where simplified segments are kept between runs, or {@code null} to simplify everything every time
+	 */
+	public static Path chunkCacheDirectory = null;
+
 	/**
 	 * The main method that runs the application.
 	 *
-	 * @param args command-line arguments
+	 * @param args command-line arguments. When any are given the simplifier runs headless as a {@link BatchRunner}.
 	 * @throws Exception if an error occurs during file processing.
 	 */
 	public static void main(String[] args) throws Exception {
 
+		if (args.length > 0) {
+			System.exit(BatchRunner.run(args));
+		}
+
 		EmbeddingsFile embeddingsFile = null;
 		Google1000File google1000File = null;
 		SelectedFile selectedFile = null;
@@ -61,7 +108,7 @@ public class Runner {
 					System.out.print("Enter the path for the Google 1000 File: ");
 					String googlePath = scanner.nextLine();
 					if (new File(googlePath).exists()) {
-						google1000File = new Google1000File(googlePath, embeddingsFile, outputFile);
+						google1000File = new Google1000File(googlePath, embeddingsFile);
 						google1000File.process();
 					} else {
 						System.out.println("File does not exist. Please try again.");
@@ -85,6 +132,9 @@ public class Runner {
 				case "5":
 					if (embeddingsFile != null && google1000File != null && selectedFile != null) {
 						selectedFile.process();
+						if (Metrics.isEnabled()) {
+							System.out.print(Metrics.report(Metrics.Format.TEXT));
+						}
 					} else {
 						System.out.println("Please specify all required files before proceeding.");
 					}
@@ -98,6 +148,73 @@ public class Runner {
 						System.out.println("Debugging is set to true.");
 					}
 					break;
+				case "7":
+					if (isPrecomputing) {
+						isPrecomputing = false;
+						System.out.println("Precomputing is set to false.");
+					} else {
+						isPrecomputing = true;
+						System.out.println("Precomputing is set to true.");
+					}
+					break;
+				case "8":
+					if (threadingMode == SelectedFile.ThreadingMode.VIRTUAL) {
+						threadingMode = SelectedFile.ThreadingMode.FORK_JOIN;
+					} else {
+						threadingMode = SelectedFile.ThreadingMode.VIRTUAL;
+					}
+					System.out.println("Threading mode is set to " + threadingMode + ".");
+					break;
+				case "9":
+					searchEngineType = SearchEngine.Type.values()[(searchEngineType.ordinal() + 1) % SearchEngine.Type.values().length];
+					System.out.println("Search engine is set to " + searchEngineType + ". Reload the Google 1000 File to apply it.");
+					break;
+				case "10":
+					vectorFormat = VectorFormat.values()[(vectorFormat.ordinal() + 1) % VectorFormat.values().length];
+					System.out.println("Vector storage is set to " + vectorFormat + ". Reload the Embeddings File to apply it.");
+					break;
+				case "11":
+					if (ModelRegistry.global().names().isEmpty()) {
+						System.out.println("No models loaded. Please specify an Embeddings File first.");
+						break;
+					}
+					System.out.print("Enter the model to activate " + ModelRegistry.global().names() + ": ");
+					try {
+						ModelRegistry.global().activate(scanner.nextLine().trim());
+						System.out.println("Active model is set to " + ModelRegistry.global().active() + ". Reload the Google 1000 File to take its candidates from it.");
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage() + ". Please try again.");
+					}
+					break;
+				case "12":
+					if (Metrics.isEnabled()) {
+						Metrics.setEnabled(false);
+						System.out.println("Metrics are set to false.");
+					} else {
+						Metrics.reset();
+						Metrics.setEnabled(true);
+						System.out.println("Metrics are set to true. They are also available over JMX as " + SimplifierMetricsMXBean.OBJECT_NAME + ".");
+					}
+					break;
+				case "13":
+					outputCompression = OutputSink.Compression.values()[(outputCompression.ordinal() + 1) % OutputSink.Compression.values().length];
+					System.out.println("Output compression is set to " + outputCompression + ".");
+					break;
+				case "14":
+					System.out.print("Enter the minimum similarity a synonym needs to replace a word, from -1 (any) to 1: ");
+					try {
+						Methods.setMinSimilarity(Float.parseFloat(scanner.nextLine().trim()));
+						System.out.println("Minimum similarity is set to " + Methods.getMinSimilarity() + ".");
+					} catch (IllegalArgumentException e) {
+						System.out.println("Please enter a number from -1 to 1.");
+					}
+					break;
+				case "15":
+					chunkCacheDirectory = chunkCacheDirectory == null ? Path.of(".simplifier-cache") : null;
+					System.out.println(chunkCacheDirectory != null
+							? "Incremental simplification is set to true. Segments are cached in " + chunkCacheDirectory.toAbsolutePath() + "."
+							: "Incremental simplification is set to false.");
+					break;
 				case "?":
 					exit = true;
 					System.out.println("Exiting...");
@@ -177,6 +294,105 @@ public class Runner {
 			System.out.println(ConsoleColour.RESET);
 		}
 
+		if (isPrecomputing) {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(7) Precompute Simplifications ");
+			System.out.print(ConsoleColour.GREEN_UNDERLINED);
+			System.out.print("Enabled");
+			System.out.println(ConsoleColour.RESET);
+		} else {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(7) Precompute Simplifications ");
+			System.out.print(ConsoleColour.RED_UNDERLINED);
+			System.out.print("Disabled");
+			System.out.println(ConsoleColour.RESET);
+		}
+
+		System.out.print(ConsoleColour.WHITE_BOLD);
+		System.out.print("(8) Threading Mode ");
+		System.out.print(ConsoleColour.GREEN_UNDERLINED);
+		System.out.print(threadingMode == SelectedFile.ThreadingMode.VIRTUAL ? "Virtual Threads" : "Fork/Join Pool");
+		System.out.println(ConsoleColour.RESET);
+
+		System.out.print(ConsoleColour.WHITE_BOLD);
+		System.out.print("(9) Search Engine ");
+		System.out.print(ConsoleColour.GREEN_UNDERLINED);
+		System.out.print(switch (searchEngineType) {
+			case EXACT -> "Exact Scan";
+			case HNSW -> "HNSW Index";
+			case PROJECTED -> "Projected Scan";
+			case SHARDED -> "Sharded Scan (" + shardWorkers + " workers)";
+		});
+		System.out.println(ConsoleColour.RESET);
+
+		System.out.print(ConsoleColour.WHITE_BOLD);
+		System.out.print("(10) Vector Storage ");
+		System.out.print(ConsoleColour.GREEN_UNDERLINED);
+		System.out.print(vectorFormat);
+		System.out.println(ConsoleColour.RESET);
+
+		if (ModelRegistry.global().names().isEmpty()) {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(11) Active Model ");
+			System.out.print(ConsoleColour.RED_UNDERLINED);
+			System.out.print("None");
+			System.out.println(ConsoleColour.RESET);
+		} else {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(11) Active Model ");
+			System.out.print(ConsoleColour.GREEN_UNDERLINED);
+			System.out.print(ModelRegistry.global().active().getName());
+			System.out.println(ConsoleColour.RESET);
+		}
+
+		if (Metrics.isEnabled()) {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(12) Metrics ");
+			System.out.print(ConsoleColour.GREEN_UNDERLINED);
+			System.out.print("Enabled");
+			System.out.println(ConsoleColour.RESET);
+		} else {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(12) Metrics ");
+			System.out.print(ConsoleColour.RED_UNDERLINED);
+			System.out.print("Disabled");
+			System.out.println(ConsoleColour.RESET);
+		}
+
+		System.out.print(ConsoleColour.WHITE_BOLD);
+		System.out.print("(13) Output Compression ");
+		System.out.print(ConsoleColour.GREEN_UNDERLINED);
+		System.out.print(outputCompression == OutputSink.Compression.NONE ? "None" : "Gzip");
+		System.out.println(ConsoleColour.RESET);
+
+		if (Methods.getMinSimilarity() > -1f) {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(14) Minimum Similarity ");
+			System.out.print(ConsoleColour.GREEN_UNDERLINED);
+			System.out.print(Methods.getMinSimilarity());
+			System.out.println(ConsoleColour.RESET);
+		} else {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(14) Minimum Similarity ");
+			System.out.print(ConsoleColour.RED_UNDERLINED);
+			System.out.print("Off");
+			System.out.println(ConsoleColour.RESET);
+		}
+
+		if (chunkCacheDirectory != null) {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(15) Incremental Simplification ");
+			System.out.print(ConsoleColour.GREEN_UNDERLINED);
+			System.out.print("Enabled");
+			System.out.println(ConsoleColour.RESET);
+		} else {
+			System.out.print(ConsoleColour.WHITE_BOLD);
+			System.out.print("(15) Incremental Simplification ");
+			System.out.print(ConsoleColour.RED_UNDERLINED);
+			System.out.print("Disabled");
+			System.out.println(ConsoleColour.RESET);
+		}
+
 		System.out.print(ConsoleColour.WHITE_BOLD);
 		System.out.println("(?) Quit");
 		System.out.print(ConsoleColour.RESET);
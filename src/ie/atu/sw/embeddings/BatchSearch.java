@@ -0,0 +1,77 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code BatchSearch} class finds the top candidates for a whole block of query vectors at once.
+ * The similarities form a matrix product of the queries and the candidates, which is worked through in tiles:
+ * a tile of candidate rows small enough to stay in the L1/L2 cache is compared against every query of a block
+ * before moving on, so each candidate row is fetched from memory once per block rather than once per query.
+ */
+public class BatchSearch {
+
+    /**
+     * The number of queries compared against each candidate tile.
+     */
+    private static final int QUERY_BLOCK = 64;
+
+    /**
+     * The most bytes of candidate vectors held in one tile.
+     */
+    private static final int TILE_BYTES = 128 * 1024;
+
+    /**
+     * Finds the top k candidates of every query.
+     *
+     * @param queries      the array holding the normalized query vectors, one after another.
+     * @param queryOffset  the offset of the first query in that array.
+     * @param queryCount   the number of queries.
+     * @param excludedRows for each query, a candidate row which may not be chosen, or {@code -1}; may be {@code null}.
+     * @param candidates   the matrix of candidate vectors.
+     * @param k            the number of candidates to keep per query.
+     * @return the best candidates of each query, in query order.
+     *
+     * @runtimeNotation O(q * c * m), where q is the number of queries, c is the number of candidates and m is the vector size.
+     * @runtimeExplanation Every query is compared with every candidate once; the tiling changes the memory traffic, not the work.
+     */
+    public static TopK[] search(float[] queries, int queryOffset, int queryCount, int[] excludedRows, EmbeddingMatrix candidates, int k) {
+        int dimensions = candidates.dimensions();
+
+        // Quantized candidates have to be re-ranked per query, which the exact search already does
+        if (candidates.isQuantized()) {
+            ExactSearch exact = new ExactSearch(candidates);
+            TopK[] results = new TopK[queryCount];
+            for (int q = 0; q < queryCount; q++) {
+                results[q] = exact.search(queries, queryOffset + q * dimensions, k, excludedRows != null ? excludedRows[q] : -1);
+            }
+            return results;
+        }
+
+        float[] data = candidates.data();
+        SimilarityKernel kernel = SimilarityKernels.get();
+        int tileRows = Math.max(16, TILE_BYTES / Math.max(1, dimensions * Float.BYTES));
+
+        TopK[] results = new TopK[queryCount];
+        for (int q = 0; q < queryCount; q++) {
+            results[q] = new TopK(k);
+        }
+
+        for (int blockStart = 0; blockStart < queryCount; blockStart += QUERY_BLOCK) {
+            int blockEnd = Math.min(blockStart + QUERY_BLOCK, queryCount);
+
+            for (int tileStart = 0; tileStart < candidates.size(); tileStart += tileRows) {
+                int tileEnd = Math.min(tileStart + tileRows, candidates.size());
+
+                // Every query of the block against every row of the tile, while both are still in cache
+                for (int q = blockStart; q < blockEnd; q++) {
+                    int qOffset = queryOffset + q * dimensions;
+                    int excluded = excludedRows != null ? excludedRows[q] : -1;
+                    TopK top = results[q];
+                    for (int row = tileStart; row < tileEnd; row++) {
+                        if (row == excluded) continue;
+                        top.offer(row, kernel.dot(queries, qOffset, data, row * dimensions, dimensions));
+                    }
+                }
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,103 @@
+package ie.atu.sw.embeddings;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code CandidateSet} class holds the words a synonym may be chosen from, such as the Google 1000 list.
+ * The vectors of those words are copied into their own compact, normalized matrix so that a synonym
+ * search only walks the candidate rows rather than the whole vocabulary.
+ */
+public class CandidateSet {
+
+    /**
+     * Hands out a new version number to every candidate set that is created.
+     */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /**
+     * A readable name for the candidate set, such as the file it was read from.
+     */
+    private final String name;
+
+    /**
+     * The normalized vectors of the candidate words.
+     */
+    private final EmbeddingMatrix matrix;
+
+    /**
+     * A number which is different for every candidate set, so results computed against one set are never reused for another.
+     */
+    private final long version;
+
+    /**
+     * Constructs a {@code CandidateSet} over a matrix of candidate words.
+     *
+     * @param name   a readable name for the candidate set.
+     * @param matrix the normalized vectors of the candidate words.
+     */
+    public CandidateSet(String name, EmbeddingMatrix matrix) {
+        this.name = name;
+        this.matrix = matrix;
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Builds a candidate set from a list of words, copying their vectors out of the full embeddings matrix.
+     * Words without an embedding are left out.
+     *
+     * @param name       a readable name for the candidate set.
+     * @param embeddings the full embeddings matrix.
+     * @param words      the candidate words.
+     * @return the new candidate set.
+     */
+    public static CandidateSet fromWords(String name, EmbeddingMatrix embeddings, Collection<String> words) {
+        return new CandidateSet(name, embeddings.subset(words));
+    }
+
+    /**
+     * Returns the name of the candidate set.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the matrix of candidate vectors.
+     *
+     * @return the candidate matrix.
+     */
+    public EmbeddingMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Returns the version of the candidate set.
+     *
+     * @return a number unique to this candidate set.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of candidate words.
+     *
+     * @return the number of candidates.
+     */
+    public int size() {
+        return matrix.size();
+    }
+
+    /**
+     * Checks whether a word is one of the candidates.
+     *
+     * @param word the word to check.
+     * @return {@code true} if the word is a candidate.
+     */
+    public boolean contains(CharSequence word) {
+        return matrix.contains(word);
+    }
+}
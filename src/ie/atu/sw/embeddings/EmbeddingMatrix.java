@@ -0,0 +1,528 @@
+package ie.atu.sw.embeddings;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The {@code EmbeddingMatrix} class stores word embeddings in one contiguous, row-major {@code float[]}.
+ * Every row is L2-normalized once when the matrix is built, so the cosine similarity between two
+ * rows is simply their dot product.
+ *
+ * <p>A matrix can instead hold its rows in a compact {@link VectorFormat} (see {@link #quantize}). Its
+ * similarities are then approximate, {@link #data()} is unavailable, and the full precision rows are read
+ * on demand from a {@link RowSource}, such as the memory-mapped embeddings cache.</p>
+ */
+public class EmbeddingMatrix {
+
+    /**
+     * Supplies the full precision vector of a row.
+     */
+    @FunctionalInterface
+    public interface RowSource {
+
+        /**
+         * Copies the normalized vector of a row into an array.
+         *
+         * @param row    the row index.
+         * @param dest   the array to copy into.
+         * @param offset the offset in that array where the row is written.
+         */
+        void copyRow(int row, float[] dest, int offset);
+    }
+
+    /**
+     * The words of the matrix, where {@code words[row]} is the word stored in that row.
+     */
+    private final String[] words;
+
+    /**
+     * Maps each word to the row that holds its vector, without boxing rows or making strings to look them up.
+     */
+    private final Vocabulary vocabulary;
+
+    /**
+     * The vectors of every word laid out one after another, {@code dimensions} floats per row,
+     * or {@code null} if the rows are quantized.
+     */
+    private final float[] data;
+
+    /**
+     * The quantized rows, or {@code null} if the rows are held as floats.
+     */
+    private final QuantizedVectors quantized;
+
+    /**
+     * Where the full precision rows of a quantized matrix are read from, or {@code null} to decode the quantized rows.
+     */
+    private final RowSource fullPrecision;
+
+    /**
+     * The number of dimensions of each vector.
+     */
+    private final int dimensions;
+
+    /**
+     * The fingerprint of the matrix, worked out the first time it is asked for; zero until then.
+     */
+    private volatile long fingerprint;
+
+    /**
+     * Constructs an {@code EmbeddingMatrix} over rows which have already been L2-normalized.
+     *
+     * @param words      the word stored in each row.
+     * @param data       the row-major vector data, {@code words.length * dimensions} floats long.
+     * @param dimensions the number of dimensions of each vector.
+     */
+    public EmbeddingMatrix(String[] words, float[] data, int dimensions) {
+        if (data.length != words.length * dimensions) {
+            throw new IllegalArgumentException("Expected " + (words.length * dimensions) + " floats but got " + data.length);
+        }
+        this.words = words;
+        this.data = data;
+        this.dimensions = dimensions;
+        this.quantized = null;
+        this.fullPrecision = null;
+        this.vocabulary = new Vocabulary(words);
+    }
+
+    private EmbeddingMatrix(String[] words, Vocabulary vocabulary, int dimensions, QuantizedVectors quantized, RowSource fullPrecision) {
+        this.words = words;
+        this.vocabulary = vocabulary;
+        this.dimensions = dimensions;
+        this.data = null;
+        this.quantized = quantized;
+        this.fullPrecision = fullPrecision;
+    }
+
+    /**
+     * Builds a matrix whose rows are read one at a time from a source of full precision, normalized rows.
+     *
+     * @param words      the word stored in each row.
+     * @param dimensions the number of dimensions of each vector.
+     * @param format     the format to store the rows in.
+     * @param source     where the rows are read from. A quantized matrix keeps it for re-ranking.
+     * @return the new matrix.
+     *
+     * @runtimeNotation O(n * m), where n is the number of rows and m is the vector size.
+     * @runtimeExplanation Every row is read once from the source and stored or encoded once.
+     */
+    public static EmbeddingMatrix fromRows(String[] words, int dimensions, VectorFormat format, RowSource source) {
+        if (format == VectorFormat.FLOAT32) {
+            float[] decoded = new float[Math.multiplyExact(words.length, dimensions)];
+            for (int row = 0; row < words.length; row++) {
+                source.copyRow(row, decoded, row * dimensions);
+            }
+            return new EmbeddingMatrix(words, decoded, dimensions);
+        }
+        return new EmbeddingMatrix(words, new Vocabulary(words), dimensions, QuantizedVectors.quantize(source, words.length, dimensions, format), source);
+    }
+
+    /**
+     * Builds a matrix with the same words whose rows are stored in a compact format.
+     *
+     * @param format        the format to store the rows in.
+     * @param fullPrecision where the full precision rows are read from for re-ranking, or {@code null} to use
+     *                      the rows of this matrix. Passing an off-heap source lets this matrix be discarded.
+     * @return the quantized matrix, or this matrix if it is already stored in that format.
+     *
+     * @runtimeNotation O(n * m), where n is the number of rows and m is the vector size.
+     * @runtimeExplanation Every row is read once from the source and encoded once.
+     */
+    public EmbeddingMatrix quantize(VectorFormat format, RowSource fullPrecision) {
+        if (format == format()) return this;
+        RowSource source = fullPrecision != null ? fullPrecision : this::copyVector;
+        if (format == VectorFormat.FLOAT32) return fromRows(words, dimensions, format, source);
+        return new EmbeddingMatrix(words, vocabulary, dimensions, QuantizedVectors.quantize(source, words.length, dimensions, format), source);
+    }
+
+    /**
+     * Returns the format the rows are stored in.
+     *
+     * @return {@link VectorFormat#FLOAT32}, or the format of the quantized rows.
+     */
+    public VectorFormat format() {
+        return quantized != null ? quantized.format() : VectorFormat.FLOAT32;
+    }
+
+    /**
+     * Checks whether the rows are stored in a compact, approximate format.
+     *
+     * @return {@code true} if the rows are quantized.
+     */
+    public boolean isQuantized() {
+        return quantized != null;
+    }
+
+    /**
+     * Returns the memory taken by the vectors held on the heap.
+     *
+     * @return the size in bytes.
+     */
+    public long vectorBytes() {
+        return quantized != null ? quantized.bytes() : (long) data.length * Float.BYTES;
+    }
+
+    /**
+     * Scales every row of a row-major matrix to unit length in place. Rows of all zeros are left untouched.
+     *
+     * @param data       the row-major vector data.
+     * @param dimensions the number of dimensions of each vector.
+     *
+     * @runtimeNotation O(n * m), where n is the number of rows and m is the vector size.
+     * @runtimeExplanation Every element is read once to compute the magnitude and written once to scale it.
+     */
+    public static void normalize(float[] data, int dimensions) {
+        for (int offset = 0; offset < data.length; offset += dimensions) {
+            normalizeRow(data, offset, dimensions);
+        }
+    }
+
+    /**
+     * Scales a single row of a row-major matrix to unit length in place. A row of all zeros is left untouched.
+     *
+     * @param data       the row-major vector data.
+     * @param offset     the offset where the row begins.
+     * @param dimensions the number of dimensions of each vector.
+     */
+    public static void normalizeRow(float[] data, int offset, int dimensions) {
+        double magnitude = 0.0;
+        for (int i = offset; i < offset + dimensions; i++) {
+            magnitude += (double) data[i] * data[i];
+        }
+        if (magnitude == 0.0) return;
+
+        float scale = (float) (1.0 / Math.sqrt(magnitude));
+        for (int i = offset; i < offset + dimensions; i++) {
+            data[i] *= scale;
+        }
+    }
+
+    /**
+     * Returns the number of words in the matrix.
+     *
+     * @return the number of rows.
+     */
+    public int size() {
+        return words.length;
+    }
+
+    /**
+     * Returns the number of dimensions of each vector.
+     *
+     * @return the vector size.
+     */
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns the word stored in a row.
+     *
+     * @param row the row index.
+     * @return the word of that row.
+     */
+    public String word(int row) {
+        return words[row];
+    }
+
+    /**
+     * Finds the row that holds a word.
+     *
+     * @param word the word to look up, such as a {@link String} or a reused {@link StringBuilder}.
+     * @return the row of the word, or {@code -1} if it is not in the matrix.
+     */
+    public int indexOf(CharSequence word) {
+        return vocabulary.indexOf(word);
+    }
+
+    /**
+     * Finds the row that holds a word read into part of a character array, without making a {@link String} of it.
+     *
+     * @param chars  the array holding the word.
+     * @param offset where the word starts in the array.
+     * @param length the length of the word.
+     * @return the row of the word, or {@code -1} if it is not in the matrix.
+     */
+    public int indexOf(char[] chars, int offset, int length) {
+        return vocabulary.indexOf(chars, offset, length);
+    }
+
+    /**
+     * Checks whether a word is in the matrix.
+     *
+     * @param word the word to look up.
+     * @return {@code true} if the word has a vector.
+     */
+    public boolean contains(CharSequence word) {
+        return vocabulary.contains(word);
+    }
+
+    /**
+     * Returns the table the words of the matrix are looked up in.
+     *
+     * @return the vocabulary of the matrix.
+     */
+    public Vocabulary vocabulary() {
+        return vocabulary;
+    }
+
+    /**
+     * Returns the backing row-major array. Callers must not modify it.
+     *
+     * @return the vector data of every row.
+     * @throws IllegalStateException if the rows are quantized; use {@link #copyVector} instead.
+     */
+    public float[] data() {
+        if (data == null) {
+            throw new IllegalStateException("The rows are stored as " + format() + "; copy them with copyVector");
+        }
+        return data;
+    }
+
+    /**
+     * Returns the offset into {@link #data()} where a row begins.
+     *
+     * @param row the row index.
+     * @return the array offset of the row.
+     */
+    public int offset(int row) {
+        return row * dimensions;
+    }
+
+    /**
+     * Returns a copy of the normalized vector of a row.
+     *
+     * @param row the row index.
+     * @return a new array holding the vector.
+     */
+    public float[] vector(int row) {
+        float[] vector = new float[dimensions];
+        copyVector(row, vector, 0);
+        return vector;
+    }
+
+    /**
+     * Copies the full precision normalized vector of a row into an array.
+     *
+     * @param row    the row index.
+     * @param dest   the array to copy into.
+     * @param offset the offset in that array where the row is written.
+     */
+    public void copyVector(int row, float[] dest, int offset) {
+        if (data != null) {
+            System.arraycopy(data, offset(row), dest, offset, dimensions);
+        } else if (fullPrecision != null) {
+            fullPrecision.copyRow(row, dest, offset);
+        } else {
+            quantized.copyRow(row, dest, offset);
+        }
+    }
+
+    /**
+     * Computes the dot product of a query vector and a row. As both are normalized this is their cosine similarity.
+     *
+     * @param query the normalized query vector.
+     * @param row   the row index.
+     * @return the cosine similarity between the query and the row.
+     *
+     * @runtimeNotation O(m), where m is the vector size.
+     * @runtimeExplanation The two vectors are walked once side by side over adjacent memory.
+     */
+    public float dot(float[] query, int row) {
+        return dot(query, 0, row);
+    }
+
+    /**
+     * Computes the dot product of a query vector stored at an offset of an array and a row.
+     *
+     * @param query       the array holding the normalized query vector.
+     * @param queryOffset the offset of the query vector in that array.
+     * @param row         the row index.
+     * @return the cosine similarity between the query and the row.
+     *
+     * @runtimeNotation O(m), where m is the vector size.
+     * @runtimeExplanation The two vectors are walked once side by side by the {@link SimilarityKernel} chosen at startup.
+     */
+    public float dot(float[] query, int queryOffset, int row) {
+        if (quantized != null) return quantized.dot(quantized.prepare(query, queryOffset), row);
+        return SimilarityKernels.get().dot(query, queryOffset, data, offset(row), dimensions);
+    }
+
+    /**
+     * Prepares a query to be compared with many rows through {@link #preparedDot(float[], int)}.
+     * Quantized rows may need the query scaled first, which is then done once rather than per row.
+     *
+     * @param query       the array holding the normalized query vector.
+     * @param queryOffset the offset of the query vector in that array.
+     * @return a new array holding the prepared query.
+     */
+    public float[] prepareQuery(float[] query, int queryOffset) {
+        if (quantized != null) return quantized.prepare(query, queryOffset);
+        return Arrays.copyOfRange(query, queryOffset, queryOffset + dimensions);
+    }
+
+    /**
+     * Computes the dot product of a prepared query and a row, approximately if the rows are quantized.
+     *
+     * @param prepared the query returned by {@link #prepareQuery(float[], int)}.
+     * @param row      the row index.
+     * @return the cosine similarity between the query and the row.
+     *
+     * @runtimeNotation O(m), where m is the vector size.
+     * @runtimeExplanation The two vectors are walked once side by side by the {@link SimilarityKernel} chosen at startup.
+     */
+    public float preparedDot(float[] prepared, int row) {
+        if (quantized != null) return quantized.dot(prepared, row);
+        return SimilarityKernels.get().dot(prepared, 0, data, offset(row), dimensions);
+    }
+
+    /**
+     * Computes the dot product of a query vector and the full precision vector of a row. This is the same as
+     * {@link #dot(float[], int, int)} unless the rows are quantized, when it is used to re-rank their best matches.
+     *
+     * @param query       the array holding the normalized query vector.
+     * @param queryOffset the offset of the query vector in that array.
+     * @param row         the row index.
+     * @param scratch     an array of at least {@link #dimensions()} floats the row may be copied into.
+     * @return the cosine similarity between the query and the row.
+     */
+    public float exactDot(float[] query, int queryOffset, int row, float[] scratch) {
+        if (quantized == null) return dot(query, queryOffset, row);
+        copyVector(row, scratch, 0);
+        return SimilarityKernels.get().dot(query, queryOffset, scratch, 0, dimensions);
+    }
+
+    /**
+     * Builds a fingerprint from the words of the matrix and every value of every vector.
+     * Files derived from a matrix store its fingerprint, so they are only reused with the same matrix.
+     *
+     * @return a 64-bit hash of the matrix.
+     *
+     * @runtimeNotation O(n * (w + m)) the first time, where n is the number of words, w is the average word length and m is the vector size, then O(1).
+     * @runtimeExplanation Every character of every word and every component of every vector is hashed once, and the matrix never changes, so the hash is kept.
+     */
+    public long fingerprint() {
+        long hash = fingerprint;
+        if (hash == 0) {
+            hash = computeFingerprint();
+            fingerprint = hash;
+        }
+        return hash;
+    }
+
+    private long computeFingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, dimensions);
+        for (int row = 0; row < words.length; row++) {
+            for (int i = 0; i < words[row].length(); i++) {
+                hash = mix(hash, words[row].charAt(i));
+            }
+            hash = mix(hash, '\n');
+            if (data != null) {
+                int offset = offset(row);
+                for (int i = 0; i < dimensions; i++) {
+                    hash = mix(hash, Float.floatToIntBits(data[offset + i]));
+                }
+            } else {
+                for (int i = 0; i < dimensions; i++) {
+                    hash = mix(hash, Float.floatToIntBits(quantized.value(row, i)));
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Builds a smaller matrix holding only the given words. Words which are not in this matrix are skipped.
+     * The new matrix always holds full precision floats.
+     *
+     * @param subsetWords the words to keep, in the order they should appear.
+     * @return a new matrix containing the requested rows.
+     *
+     * @runtimeNotation O(k * m), where k is the number of words requested and m is the vector size.
+     * @runtimeExplanation Each requested row is found with one hash lookup and copied once.
+     */
+    public EmbeddingMatrix subset(Collection<String> subsetWords) {
+        Set<String> kept = new LinkedHashSet<>();
+        for (String word : subsetWords) {
+            if (contains(word)) kept.add(word);
+        }
+
+        float[] keptData = new float[kept.size() * dimensions];
+        int row = 0;
+        for (String word : kept) {
+            copyVector(indexOf(word), keptData, row++ * dimensions);
+        }
+        return new EmbeddingMatrix(kept.toArray(new String[0]), keptData, dimensions);
+    }
+
+    /**
+     * Builds a smaller matrix holding a run of consecutive rows, stored in the same format as this one.
+     * Row {@code from} of this matrix is row 0 of the new one.
+     *
+     * @param from the first row to keep.
+     * @param to   the row after the last row to keep.
+     * @return a new matrix containing the rows.
+     *
+     * @runtimeNotation O(r * m), where r is the number of rows kept and m is the vector size.
+     * @runtimeExplanation Each kept row is copied at full precision once and stored or encoded once.
+     */
+    public EmbeddingMatrix rows(int from, int to) {
+        return fromRows(Arrays.copyOfRange(words, from, to), dimensions, format(),
+                (row, dest, offset) -> copyVector(from + row, dest, offset));
+    }
+
+    /**
+     * The {@code Builder} class collects rows one at a time into a growing array and
+     * normalizes them all at once when the matrix is built.
+     */
+    public static class Builder {
+
+        private String[] words = new String[1024];
+        private float[] data;
+        private int dimensions = -1;
+        private int size;
+
+        /**
+         * Appends a word and its raw (unnormalized) vector.
+         *
+         * @param word   the word.
+         * @param vector the vector of the word.
+         * @return this builder.
+         */
+        public Builder add(String word, float[] vector) {
+            if (dimensions < 0) {
+                dimensions = vector.length;
+                data = new float[words.length * dimensions];
+            } else if (vector.length != dimensions) {
+                throw new IllegalArgumentException("Vector for '" + word + "' has " + vector.length + " dimensions, expected " + dimensions);
+            }
+            if (size == words.length) {
+                words = Arrays.copyOf(words, size * 2);
+                data = Arrays.copyOf(data, size * 2 * dimensions);
+            }
+            words[size] = word;
+            System.arraycopy(vector, 0, data, size * dimensions, dimensions);
+            size++;
+            return this;
+        }
+
+        /**
+         * Normalizes the collected rows and builds the matrix.
+         *
+         * @return the finished matrix.
+         */
+        public EmbeddingMatrix build() {
+            if (dimensions < 0) return new EmbeddingMatrix(new String[0], new float[0], 0);
+            float[] trimmed = Arrays.copyOf(data, size * dimensions);
+            normalize(trimmed, dimensions);
+            return new EmbeddingMatrix(Arrays.copyOf(words, size), trimmed, dimensions);
+        }
+    }
+}
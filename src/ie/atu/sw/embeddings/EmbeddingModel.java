@@ -0,0 +1,134 @@
+package ie.atu.sw.embeddings;
+
+import ie.atu.sw.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code EmbeddingModel} class is one loaded set of word embeddings under a name. It never changes once
+ * loaded, so any number of threads can search it without locking, and a job that captured a model keeps
+ * using it even if the {@link ModelRegistry} swaps in another one meanwhile.
+ */
+public final class EmbeddingModel {
+
+    /**
+     * Hands out a distinct version to every model loaded.
+     */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /**
+     * The model used before any embeddings have been loaded.
+     */
+    public static final EmbeddingModel EMPTY = new EmbeddingModel("empty", null, new EmbeddingMatrix.Builder().build());
+
+    private final String name;
+    private final Path source;
+    private final EmbeddingMatrix matrix;
+    private final long version;
+
+    /**
+     * Constructs an {@code EmbeddingModel} over a matrix that has already been loaded.
+     *
+     * @param name   the name the model is registered under.
+     * @param source the embeddings file it was loaded from, or {@code null}.
+     * @param matrix the word vectors.
+     */
+    public EmbeddingModel(String name, Path source, EmbeddingMatrix matrix) {
+        this.name = name;
+        this.source = source;
+        this.matrix = matrix;
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Loads a model from an embeddings file. A compiled binary copy of the file is memory-mapped when it
+     * is up to date; otherwise the text is split into chunks which are parsed in parallel, and the compiled
+     * copy is written for next time. Quantized vectors are re-ranked against the full precision rows of
+     * the memory-mapped compiled copy.
+     *
+     * @param name   the name to give the model.
+     * @param source the text embeddings file.
+     * @param format the format to store the vectors in.
+     * @return the loaded model.
+     * @throws IOException          if the file cannot be read.
+     * @throws InterruptedException if the thread is interrupted while loading.
+     *
+     * @runtimeNotation O(n * m / p), where n is the number of words, m is the vector size and p the number of cores.
+     * @runtimeExplanation Every value is parsed once, with the chunks of the file split between the cores.
+     */
+    public static EmbeddingModel load(String name, Path source, VectorFormat format) throws IOException, InterruptedException {
+
+        // First we try the compiled copy, which is only valid if the text file has not changed since
+        long start = System.nanoTime();
+        Metrics.Timer timer = Metrics.start(Metrics.Stage.LOAD);
+        EmbeddingsCache cache = new EmbeddingsCache(source);
+        EmbeddingMatrix cached = cache.load(format);
+        if (cached != null) {
+            System.out.printf("Embeddings loaded from %s: %,d words in %.0f ms%n",
+                    cache.getCachePath(), cached.size(), (System.nanoTime() - start) / 1e6);
+            timer.stop(cached.size());
+            return new EmbeddingModel(name, source, cached);
+        }
+
+        // Otherwise the loader splits the text on line breaks and parses each chunk on its own core
+        EmbeddingsLoader loader = new EmbeddingsLoader(source);
+        EmbeddingMatrix matrix = loader.load();
+        System.out.println("Embeddings loaded: " + loader.throughputSummary());
+
+        // Compile the matrix so the next start can skip parsing
+        try {
+            cache.save(matrix);
+        } catch (IOException e) {
+            System.err.println("Could not write embeddings cache " + cache.getCachePath() + ": " + e.getMessage());
+        }
+
+        // A quantized matrix re-ranks against the mapped copy, so the parsed floats can be let go
+        if (format != VectorFormat.FLOAT32) {
+            EmbeddingMatrix quantized = Files.exists(cache.getCachePath()) ? cache.load(format) : null;
+            matrix = quantized != null ? quantized : matrix.quantize(format, null);
+        }
+        timer.stop(matrix.size());
+        return new EmbeddingModel(name, source, matrix);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public EmbeddingMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Returns the version of the model. Every model loaded gets a new one, so results cached against
+     * a model can be told apart from results of a model loaded later under the same name.
+     *
+     * @return the model version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Describes how the vectors of the model are stored and how much heap they take.
+     *
+     * @return a one line summary.
+     */
+    public String storageSummary() {
+        long floatBytes = (long) matrix.size() * matrix.dimensions() * Float.BYTES;
+        return String.format("Vectors stored as %s: %.1f MB (%.1fx smaller than %s)", matrix.format(),
+                matrix.vectorBytes() / 1e6, floatBytes / (double) Math.max(1, matrix.vectorBytes()), VectorFormat.FLOAT32);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%,d words, %d dimensions, %s)", name, matrix.size(), matrix.dimensions(), matrix.format());
+    }
+}
@@ -0,0 +1,251 @@
+package ie.atu.sw.embeddings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The {@code EmbeddingsCache} class keeps a compiled binary copy of a text embeddings file next to it.
+ * The binary file is memory-mapped on later loads, so the text only has to be parsed again when it changes.
+ *
+ * <p>The binary layout, in little-endian order, is:</p>
+ * <pre>
+ *  header      magic, version, source size, source mtime, rows, dimensions, matrix offset
+ *  vocabulary  (rows + 1) int offsets into the word bytes, followed by the UTF-8 word bytes
+ *  matrix      rows * dimensions normalized floats, aligned to 64 bytes
+ * </pre>
+ */
+public class EmbeddingsCache {
+
+    /**
+     * Identifies a compiled embeddings file ("VTTE").
+     */
+    private static final int MAGIC = 0x56545445;
+
+    /**
+     * The version of the binary layout. Files written with any other version are recompiled.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the fixed header in bytes.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 8;
+
+    /**
+     * The extension added to the text file name to name its compiled copy.
+     */
+    public static final String EXTENSION = ".vtte";
+
+    /**
+     * The text embeddings file.
+     */
+    private final Path source;
+
+    /**
+     * The compiled binary copy of the text file.
+     */
+    private final Path cache;
+
+    /**
+     * Constructs an {@code EmbeddingsCache} for a text embeddings file.
+     *
+     * @param source the path to the text embeddings file.
+     */
+    public EmbeddingsCache(Path source) {
+        this.source = source;
+        this.cache = source.resolveSibling(source.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Returns the path of the compiled binary copy.
+     *
+     * @return the cache file path.
+     */
+    public Path getCachePath() {
+        return cache;
+    }
+
+    /**
+     * Loads the matrix from the compiled copy, as long as it exists and was compiled from the current text file.
+     *
+     * @return the cached matrix, or {@code null} if the cache is missing or out of date.
+     * @throws IOException if the cache exists but cannot be read.
+     *
+     * @runtimeNotation O(n * m), where n is the number of words and m is the vector size.
+     * @runtimeExplanation The mapped floats are bulk-copied and every word is decoded once; nothing is parsed.
+     */
+    public EmbeddingMatrix load() throws IOException {
+        return load(VectorFormat.FLOAT32);
+    }
+
+    /**
+     * Loads the matrix from the compiled copy, storing its rows in the given format. A quantized matrix is
+     * encoded straight from the mapped file, so the full precision rows are never copied onto the heap;
+     * they stay mapped and are read back only to re-rank search results.
+     *
+     * @param format the format to store the rows in.
+     * @return the cached matrix, or {@code null} if the cache is missing or out of date.
+     * @throws IOException if the cache exists but cannot be read.
+     *
+     * @runtimeNotation O(n * m), where n is the number of words and m is the vector size.
+     * @runtimeExplanation Every mapped float is copied or encoded once and every word is decoded once.
+     */
+    public EmbeddingMatrix load(VectorFormat format) throws IOException {
+        if (!Files.exists(cache)) return null;
+
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) return null;
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) return null;
+            if (header.getLong() != attributes.size() || header.getLong() != attributes.lastModifiedTime().toMillis()) {
+                return null;
+            }
+            int rows = header.getInt();
+            int dimensions = header.getInt();
+            long matrixOffset = header.getLong();
+            long matrixBytes = (long) rows * dimensions * Float.BYTES;
+            if (matrixOffset + matrixBytes != channel.size()) return null;
+
+            // Decode the vocabulary table
+            MappedByteBuffer vocabulary = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, matrixOffset - HEADER_SIZE);
+            vocabulary.order(ByteOrder.LITTLE_ENDIAN);
+            int bytesStart = (rows + 1) * Integer.BYTES;
+            byte[] wordBytes = new byte[vocabulary.getInt(rows * Integer.BYTES)];
+            vocabulary.get(bytesStart, wordBytes);
+            String[] words = new String[rows];
+            for (int row = 0; row < rows; row++) {
+                int from = vocabulary.getInt(row * Integer.BYTES);
+                int to = vocabulary.getInt((row + 1) * Integer.BYTES);
+                words[row] = new String(wordBytes, from, to - from, StandardCharsets.UTF_8);
+            }
+
+            if (format != VectorFormat.FLOAT32) {
+                return EmbeddingMatrix.fromRows(words, dimensions, format, new MappedRows(channel, matrixOffset, rows, dimensions));
+            }
+
+            // Copy the mapped matrix region into the heap array, one mapping of at most 1 GB at a time
+            float[] data = new float[Math.multiplyExact(rows, dimensions)];
+            int copied = 0;
+            while (copied < data.length) {
+                int count = Math.min(data.length - copied, (1 << 30) / Float.BYTES);
+                channel.map(FileChannel.MapMode.READ_ONLY, matrixOffset + (long) copied * Float.BYTES, (long) count * Float.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asFloatBuffer()
+                        .get(data, copied, count);
+                copied += count;
+            }
+            return new EmbeddingMatrix(words, data, dimensions);
+        }
+    }
+
+    /**
+     * Compiles a matrix into the binary cache. The file is written under a temporary name and
+     * then moved into place, so a half-written cache is never picked up by another process.
+     *
+     * @param matrix the matrix loaded from the current text file.
+     * @throws IOException if the cache cannot be written.
+     * @throws IllegalArgumentException if the rows of the matrix are quantized.
+     */
+    public void save(EmbeddingMatrix matrix) throws IOException {
+        if (matrix.isQuantized()) {
+            throw new IllegalArgumentException("Only full precision matrices can be compiled, not " + matrix.format());
+        }
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        int rows = matrix.size();
+
+        // Lay out the vocabulary as an offset table followed by the UTF-8 bytes of every word
+        byte[][] encoded = new byte[rows][];
+        int[] offsets = new int[rows + 1];
+        for (int row = 0; row < rows; row++) {
+            encoded[row] = matrix.word(row).getBytes(StandardCharsets.UTF_8);
+            offsets[row + 1] = offsets[row] + encoded[row].length;
+        }
+        long vocabularyEnd = HEADER_SIZE + (long) (rows + 1) * Integer.BYTES + offsets[rows];
+        long matrixOffset = (vocabularyEnd + 63) & ~63L;
+
+        // Not a temp file, which only its owner could read; the cache is made with the same permissions as any other file
+        Path temporary = cache.resolveSibling("." + cache.getFileName() + "." + ProcessHandle.current().pid()
+                + "." + Thread.currentThread().threadId() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION)
+                    .putLong(attributes.size()).putLong(attributes.lastModifiedTime().toMillis())
+                    .putInt(rows).putInt(matrix.dimensions()).putLong(matrixOffset);
+            for (int offset : offsets) {
+                ensureRoom(channel, buffer, Integer.BYTES);
+                buffer.putInt(offset);
+            }
+            for (byte[] word : encoded) {
+                ensureRoom(channel, buffer, word.length);
+                buffer.put(word);
+            }
+            ensureRoom(channel, buffer, 64);
+            buffer.position(buffer.position() + (int) (matrixOffset - vocabularyEnd));
+
+            float[] data = matrix.data();
+            for (float value : data) {
+                ensureRoom(channel, buffer, Float.BYTES);
+                buffer.putFloat(value);
+            }
+            flush(channel, buffer);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The full precision rows of a compiled copy, read straight from the mapped file. The matrix region is
+     * mapped in pieces of at most 1 GB that each hold a whole number of rows. The mappings stay valid after
+     * the channel is closed.
+     */
+    private static class MappedRows implements EmbeddingMatrix.RowSource {
+
+        private final FloatBuffer[] pieces;
+        private final int rowsPerPiece;
+        private final int dimensions;
+
+        MappedRows(FileChannel channel, long matrixOffset, int rows, int dimensions) throws IOException {
+            this.dimensions = dimensions;
+            this.rowsPerPiece = Math.max(1, (1 << 30) / Math.max(1, dimensions * Float.BYTES));
+            this.pieces = new FloatBuffer[(rows + rowsPerPiece - 1) / rowsPerPiece];
+            for (int piece = 0; piece < pieces.length; piece++) {
+                int pieceRows = Math.min(rowsPerPiece, rows - piece * rowsPerPiece);
+                long start = matrixOffset + (long) piece * rowsPerPiece * dimensions * Float.BYTES;
+                pieces[piece] = channel.map(FileChannel.MapMode.READ_ONLY, start, (long) pieceRows * dimensions * Float.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asFloatBuffer();
+            }
+        }
+
+        @Override
+        public void copyRow(int row, float[] dest, int offset) {
+            pieces[row / rowsPerPiece].get((row % rowsPerPiece) * dimensions, dest, offset, dimensions);
+        }
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush(channel, buffer);
+        if (buffer.remaining() < bytes) {
+            throw new IOException("Entry of " + bytes + " bytes does not fit in the write buffer");
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
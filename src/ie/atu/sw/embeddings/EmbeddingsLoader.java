@@ -0,0 +1,405 @@
+package ie.atu.sw.embeddings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The {@code EmbeddingsLoader} class loads a text embeddings file into an {@link EmbeddingMatrix}.
+ * The file is split into byte ranges aligned to line breaks and each range is parsed by one worker
+ * of a pool bounded to the number of cores. Every worker writes its rows straight into the final matrix.
+ */
+public class EmbeddingsLoader {
+
+    /**
+     * The largest number of bytes handed to one worker at a time.
+     */
+    private static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Exact powers of ten which can be represented as a {@code double}.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * The embeddings file to load.
+     */
+    private final Path path;
+
+    /**
+     * The number of worker threads used for parsing.
+     */
+    private final int threads;
+
+    private long bytesRead;
+    private long linesRead;
+    private long elapsedNanos;
+
+    /**
+     * Constructs an {@code EmbeddingsLoader} which uses one worker per available core.
+     *
+     * @param path the path to the embeddings file.
+     */
+    public EmbeddingsLoader(Path path) {
+        this(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs an {@code EmbeddingsLoader} with a fixed number of workers.
+     *
+     * @param path    the path to the embeddings file.
+     * @param threads the number of worker threads.
+     */
+    public EmbeddingsLoader(Path path, int threads) {
+        this.path = path;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Loads the embeddings file. The file is read twice: a quick pass counts the rows in every
+     * chunk so the final array can be allocated up front, then a second pass parses each chunk
+     * directly into its rows of that array.
+     *
+     * @return the loaded and normalized matrix.
+     * @throws IOException          if the file cannot be read or a line is malformed.
+     * @throws InterruptedException if the thread is interrupted while waiting on the workers.
+     *
+     * @runtimeNotation O(b / p), where b is the size of the file in bytes and p is the number of cores.
+     * @runtimeExplanation Every byte is scanned twice, and the chunks are shared evenly between the workers.
+     */
+    public EmbeddingMatrix load() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            int chunks = bounds.length - 1;
+            ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[maxChunkLength(bounds)]);
+
+            // First pass: count the rows of every chunk so that each one knows where its rows begin
+            List<Future<Integer>> counts = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                long from = bounds[c], to = bounds[c + 1];
+                counts.add(executor.submit(() -> countRows(read(channel, from, to, buffers.get()), (int) (to - from))));
+            }
+            int[] firstRow = new int[chunks + 1];
+            for (int c = 0; c < chunks; c++) {
+                firstRow[c + 1] = firstRow[c] + get(counts.get(c));
+            }
+            int rows = firstRow[chunks];
+            if (rows == 0) {
+                finish(0, 0, start);
+                return new EmbeddingMatrix(new String[0], new float[0], 0);
+            }
+
+            // The number of values on the first line decides the vector size for the whole file
+            int dimensions = firstLineDimensions(channel, bounds[1]);
+            String[] words = new String[rows];
+            float[] data = new float[Math.multiplyExact(rows, dimensions)];
+
+            // Second pass: parse every chunk straight into its rows of the final array
+            List<Future<Void>> parses = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                long from = bounds[c], to = bounds[c + 1];
+                int row = firstRow[c];
+                parses.add(executor.submit(() -> {
+                    parseRows(read(channel, from, to, buffers.get()), (int) (to - from), row, words, data, dimensions);
+                    return null;
+                }));
+            }
+            for (Future<Void> parse : parses) {
+                get(parse);
+            }
+
+            finish(channel.size(), rows, start);
+            return new EmbeddingMatrix(words, data, dimensions);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of bytes read by the last call to {@link #load()}.
+     *
+     * @return the file size in bytes.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of rows loaded by the last call to {@link #load()}.
+     *
+     * @return the number of lines parsed.
+     */
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    /**
+     * Returns how long the last call to {@link #load()} took.
+     *
+     * @return the elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns a one line summary of the load throughput.
+     *
+     * @return the rows, size, time and throughput of the last load.
+     */
+    public String throughputSummary() {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        return String.format("%,d words (%.1f MB) in %.0f ms: %.1f MB/s, %,.0f lines/s",
+                linesRead, bytesRead / 1e6, seconds * 1e3, bytesRead / 1e6 / seconds, linesRead / seconds);
+    }
+
+    private void finish(long bytes, long lines, long start) {
+        this.bytesRead = bytes;
+        this.linesRead = lines;
+        this.elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Splits the file into byte ranges of at most {@link #MAX_CHUNK_SIZE} bytes, each ending just after a line break.
+     */
+    private long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long target = Math.max(1, Math.min(MAX_CHUNK_SIZE, size / threads + 1));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+
+        long position = 0;
+        ByteBuffer window = ByteBuffer.allocate(64 * 1024);
+        while (position < size) {
+            long next = position + target;
+            if (next >= size) {
+                next = size;
+            } else {
+                next = nextLineStart(channel, next, size, window);
+            }
+            bounds.add(next);
+            position = next;
+        }
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long size, ByteBuffer window) throws IOException {
+        long position = from;
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static int maxChunkLength(long[] bounds) {
+        long max = 0;
+        for (int i = 1; i < bounds.length; i++) {
+            max = Math.max(max, bounds[i] - bounds[i - 1]);
+        }
+        return (int) max;
+    }
+
+    private static byte[] read(FileChannel channel, long from, long to, byte[] buffer) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) (to - from));
+        long position = from;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) throw new IOException("Unexpected end of file at byte " + position);
+            position += read;
+        }
+        return buffer;
+    }
+
+    /**
+     * Counts the lines of a chunk which contain at least one comma, which are the lines that hold a word and its vector.
+     */
+    private static int countRows(byte[] bytes, int length) {
+        int rows = 0;
+        boolean hasComma = false;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b == ',') {
+                hasComma = true;
+            } else if (b == '\n') {
+                if (hasComma) rows++;
+                hasComma = false;
+            }
+        }
+        return hasComma ? rows + 1 : rows;
+    }
+
+    private int firstLineDimensions(FileChannel channel, long firstChunkEnd) throws IOException {
+        byte[] bytes = read(channel, 0, firstChunkEnd, new byte[(int) firstChunkEnd]);
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = lineEnd(bytes, lineStart, bytes.length);
+            int commas = 0;
+            int lastComma = -1;
+            for (int i = lineStart; i < lineEnd; i++) {
+                if (bytes[i] == ',') {
+                    commas++;
+                    lastComma = i;
+                }
+            }
+            if (commas > 0) {
+                // A trailing comma does not start another value
+                return isBlank(bytes, lastComma + 1, lineEnd) ? commas - 1 : commas;
+            }
+            lineStart = lineEnd + 1;
+        }
+        throw new IOException("No embeddings found in " + path);
+    }
+
+    /**
+     * Parses every word line of a chunk into consecutive rows of the final arrays, normalizing each row once it is read.
+     */
+    private void parseRows(byte[] bytes, int length, int row, String[] words, float[] data, int dimensions) throws IOException {
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineEnd(bytes, lineStart, length);
+            int comma = indexOf(bytes, (byte) ',', lineStart, lineEnd);
+
+            if (comma >= 0) {
+                String word = new String(bytes, lineStart, comma - lineStart, StandardCharsets.UTF_8).trim();
+                int offset = row * dimensions;
+                int values = 0;
+                int position = comma + 1;
+
+                // Read each value after the word, skipping the commas and whitespace in between
+                while (true) {
+                    while (position < lineEnd && isSeparator(bytes[position])) position++;
+                    if (position >= lineEnd) break;
+                    if (values == dimensions) {
+                        throw new IOException("Vector for '" + word + "' has more than " + dimensions + " values");
+                    }
+                    int end = position;
+                    while (end < lineEnd && !isSeparator(bytes[end])) end++;
+                    data[offset + values++] = parseFloat(bytes, position, end);
+                    position = end;
+                }
+                if (values != dimensions) {
+                    throw new IOException("Vector for '" + word + "' has " + values + " values, expected " + dimensions);
+                }
+
+                words[row] = word;
+                EmbeddingMatrix.normalizeRow(data, offset, dimensions);
+                row++;
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Parses a decimal number such as {@code -0.0123} or {@code 4.5e-3} without creating a {@code String}.
+     * Numbers with too many digits or too large an exponent for the fast path fall back to {@link Float#parseFloat}.
+     *
+     * @param bytes the bytes holding the number.
+     * @param from  the index of the first character.
+     * @param to    the index after the last character.
+     * @return the parsed value.
+     */
+    static float parseFloat(byte[] bytes, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        for (; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+            mantissa = mantissa * 10 + (bytes[i] - '0');
+            seenDigit = true;
+            if (mantissa != 0) digits++;
+        }
+        if (i < to && bytes[i] == '.') {
+            for (i++; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                mantissa = mantissa * 10 + (bytes[i] - '0');
+                exponent--;
+                seenDigit = true;
+                if (mantissa != 0) digits++;
+            }
+        }
+        if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < to && (bytes[j] == '-' || bytes[j] == '+')) {
+                negativeExponent = bytes[j] == '-';
+                j++;
+            }
+            int value = 0;
+            int start = j;
+            for (; j < to && bytes[j] >= '0' && bytes[j] <= '9' && value < 10_000; j++) {
+                value = value * 10 + (bytes[j] - '0');
+            }
+            if (j > start) {
+                exponent += negativeExponent ? -value : value;
+                i = j;
+            }
+        }
+
+        if (!seenDigit || i != to || digits > 15 || exponent < -22 || exponent > 22) {
+            return Float.parseFloat(new String(bytes, from, to - from, StandardCharsets.US_ASCII));
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return (float) (negative ? -value : value);
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ',' || b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isBlank(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isSeparator(bytes[i])) return false;
+        }
+        return true;
+    }
+
+    private static int lineEnd(byte[] bytes, int from, int length) {
+        int end = indexOf(bytes, (byte) '\n', from, length);
+        return end >= 0 ? end : length;
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code ExactSearch} class is the brute-force {@link SearchEngine}: it compares the query with every candidate row.
+ * Each similarity is offered to a {@link TopK}, which turns away a row that cannot beat the k-th best, or the
+ * minimum similarity, with a single comparison.
+ * Over a quantized matrix the scan uses the approximate similarities, and its best few rows are then re-ranked
+ * against their full precision vectors.
+ */
+public class ExactSearch implements SearchEngine {
+
+    /**
+     * The number of rows a scan over quantized vectors keeps for re-ranking, set with {@code -Dsimplifier.rerank}.
+     */
+    private static final int RERANK_CANDIDATES = Integer.getInteger("simplifier.rerank", 32);
+
+    /**
+     * The candidate matrix to scan.
+     */
+    private final EmbeddingMatrix matrix;
+
+    /**
+     * Constructs an {@code ExactSearch} over a candidate matrix.
+     *
+     * @param matrix the candidate matrix.
+     */
+    public ExactSearch(EmbeddingMatrix matrix) {
+        this.matrix = matrix;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(n * m), where n is the number of candidates and m is the vector size.
+     * @runtimeExplanation Every candidate row is compared with the query once; re-ranking adds a fixed number of rows.
+     */
+    @Override
+    public TopK search(float[] query, int queryOffset, int k, int excludedRow, float minSimilarity) {
+        if (!matrix.isQuantized()) {
+            TopK top = new TopK(k, minSimilarity);
+            for (int row = 0; row < matrix.size(); row++) {
+                if (row != excludedRow) {
+                    top.offer(row, matrix.dot(query, queryOffset, row));
+                }
+            }
+            return top;
+        }
+
+        // Shortlist the best rows by their quantized vectors
+        TopK top = new TopK(Math.max(k, RERANK_CANDIDATES));
+        float[] prepared = matrix.prepareQuery(query, queryOffset);
+        for (int row = 0; row < matrix.size(); row++) {
+            if (row != excludedRow) {
+                top.offer(row, matrix.preparedDot(prepared, row));
+            }
+        }
+
+        // Score the shortlist again at full precision and keep the best k of it
+        TopK reranked = new TopK(k, minSimilarity);
+        float[] scratch = new float[matrix.dimensions()];
+        for (int row : top.rows()) {
+            reranked.offer(row, matrix.exactDot(query, queryOffset, row, scratch));
+        }
+        return reranked;
+    }
+
+    @Override
+    public EmbeddingMatrix getMatrix() {
+        return matrix;
+    }
+
+    @Override
+    public String name() {
+        return "exact";
+    }
+}
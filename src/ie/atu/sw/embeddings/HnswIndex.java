@@ -0,0 +1,664 @@
+package ie.atu.sw.embeddings;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@code HnswIndex} class is an approximate nearest neighbour {@link SearchEngine} built as a
+ * hierarchical navigable small world graph. Every row is a node linked to its closest rows; a few nodes
+ * also appear on sparser upper layers. A search starts at the top layer, walks greedily towards the query,
+ * and drops a layer at a time until it explores the bottom layer, touching only a small part of the matrix.
+ *
+ * <p>{@code m} sets how many links each node keeps (twice as many on the bottom layer), {@code efConstruction}
+ * how widely the graph is explored while it is built, and {@code efSearch} how widely it is explored per query.
+ * Larger values find more of the true neighbours at the cost of speed.</p>
+ */
+public class HnswIndex implements SearchEngine {
+
+    /**
+     * The settings of an index.
+     *
+     * @param m              the number of links kept per node on the upper layers.
+     * @param efConstruction the number of candidates explored when linking a new node.
+     * @param efSearch       the number of candidates explored per query.
+     * @param seed           the random seed used to pick node levels.
+     */
+    public record Parameters(int m, int efConstruction, int efSearch, long seed) {
+
+        /**
+         * Reads the settings from the {@code simplifier.hnsw.m}, {@code simplifier.hnsw.efConstruction} and
+         * {@code simplifier.hnsw.efSearch} system properties, defaulting to 16, 200 and 64.
+         *
+         * @return the settings.
+         */
+        public static Parameters fromSystemProperties() {
+            return new Parameters(
+                    Integer.getInteger("simplifier.hnsw.m", 16),
+                    Integer.getInteger("simplifier.hnsw.efConstruction", 200),
+                    Integer.getInteger("simplifier.hnsw.efSearch", 64),
+                    42);
+        }
+    }
+
+    /**
+     * Identifies a saved index ("VTTH").
+     */
+    private static final int MAGIC = 0x56545448;
+
+    /**
+     * The version of the saved layout.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The highest layer a node can be placed on.
+     */
+    private static final int MAX_LEVEL = 16;
+
+    /**
+     * The number of locks shared between the nodes while the graph is built.
+     */
+    private static final int LOCK_STRIPES = 4096;
+
+    private final EmbeddingMatrix matrix;
+    private final SimilarityKernel kernel = SimilarityKernels.get();
+    private final int m;
+    private final int m0;
+    private final int efConstruction;
+    private volatile int efSearch;
+
+    /**
+     * The top layer of each node.
+     */
+    private final int[] levels;
+
+    /**
+     * The bottom layer links of every node, {@code m0 + 1} ints per node: the number of links followed by the links.
+     */
+    private final int[] layer0;
+
+    /**
+     * The upper layer links, {@code upper[node][level - 1]} laid out like a node's entry in {@link #layer0}.
+     */
+    private final int[][][] upper;
+
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * Whether the graph is finished. Until then, links are read and written under the node locks.
+     */
+    private volatile boolean built;
+
+    private final ReentrantLock[] locks;
+    private final ReentrantLock entryLock = new ReentrantLock();
+
+    /**
+     * Visited sets left over from finished searches. Each set is as large as the matrix, so they are borrowed
+     * and handed back rather than made per search; a thread-local set would be made again for every virtual
+     * thread. At most a couple per core are kept, and a search finding none free makes its own.
+     */
+    private final BlockingQueue<VisitedSet> visited = new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+
+    private HnswIndex(EmbeddingMatrix matrix, int m, int efConstruction, int efSearch, int[] levels) {
+        this.matrix = matrix;
+        this.m = m;
+        this.m0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levels = levels;
+        this.layer0 = new int[Math.multiplyExact(matrix.size(), m0 + 1)];
+        this.upper = new int[matrix.size()][][];
+        for (int node = 0; node < levels.length; node++) {
+            if (levels[node] > 0) {
+                upper[node] = new int[levels[node]][m + 1];
+            }
+        }
+        this.locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Builds an index over a matrix, inserting the rows in parallel on one worker per core.
+     *
+     * @param matrix     the candidate matrix to index.
+     * @param parameters the index settings.
+     * @return the finished index.
+     * @throws IllegalArgumentException if the rows of the matrix are quantized.
+     * @throws InterruptedException if the thread is interrupted while waiting on the workers.
+     *
+     * @runtimeNotation O(n * log(n) * efConstruction * m / p), where n is the number of rows, m the vector size and p the number of cores.
+     * @runtimeExplanation Each insertion is a search through a graph whose depth grows with log(n), exploring efConstruction candidates.
+     */
+    public static HnswIndex build(EmbeddingMatrix matrix, Parameters parameters) throws InterruptedException {
+        if (matrix.isQuantized()) {
+            throw new IllegalArgumentException("An HNSW index needs full precision rows, not " + matrix.format());
+        }
+        int m = Math.max(2, parameters.m());
+        double levelScale = 1.0 / Math.log(m);
+        Random random = new Random(parameters.seed());
+        int[] levels = new int[matrix.size()];
+        for (int node = 0; node < levels.length; node++) {
+            levels[node] = Math.min(MAX_LEVEL, (int) (-Math.log(1.0 - random.nextDouble()) * levelScale));
+        }
+
+        HnswIndex index = new HnswIndex(matrix, m, Math.max(m, parameters.efConstruction()), parameters.efSearch(), levels);
+        if (matrix.size() == 0) {
+            index.built = true;
+            return index;
+        }
+
+        index.entryPoint = 0;
+        index.maxLevel = levels[0];
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Void>> blocks = new ArrayList<>();
+            for (int from = 1; from < matrix.size(); from += 1024) {
+                int start = from, end = Math.min(from + 1024, matrix.size());
+                blocks.add(executor.submit(() -> {
+                    for (int node = start; node < end; node++) {
+                        index.insert(node);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> block : blocks) {
+                block.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        index.built = true;
+        return index;
+    }
+
+    /**
+     * Changes how many candidates each query explores.
+     *
+     * @param efSearch the new search width.
+     */
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(1, efSearch);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(log(n) * efSearch * m), where n is the number of rows and m is the vector size.
+     * @runtimeExplanation The search descends through about log(n) layers and explores efSearch candidates on the bottom one.
+     */
+    @Override
+    public TopK search(float[] query, int queryOffset, int k, int excludedRow, float minSimilarity) {
+        TopK top = new TopK(k, minSimilarity);
+        if (entryPoint < 0) return top;
+
+        int current = greedyDescent(query, queryOffset, entryPoint, maxLevel, 0);
+        TopK found = searchLayer(query, queryOffset, current, Math.max(efSearch, k + 1), 0);
+        int[] rows = found.rows();
+        float[] scores = found.scores();
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] != excludedRow) top.offer(rows[i], scores[i]);
+        }
+        return top;
+    }
+
+    @Override
+    public EmbeddingMatrix getMatrix() {
+        return matrix;
+    }
+
+    @Override
+    public String name() {
+        return "hnsw(m=" + m + ", efConstruction=" + efConstruction + ", efSearch=" + efSearch + ")";
+    }
+
+    /**
+     * Compares the index with an exact search on a sample of rows, each used as a query with itself excluded.
+     *
+     * @param samples the number of sample queries.
+     * @param k       the number of neighbours compared per query.
+     * @return a one line summary of the recall and the time per query of both searches.
+     */
+    public String recallReport(int samples, int k) {
+        ExactSearch exact = new ExactSearch(matrix);
+        Random random = new Random(7);
+        samples = Math.min(samples, matrix.size());
+        long exactNanos = 0, approximateNanos = 0;
+        double recall = 0;
+
+        for (int i = 0; i < samples; i++) {
+            int row = random.nextInt(matrix.size());
+            long start = System.nanoTime();
+            int[] expected = exact.search(matrix.data(), matrix.offset(row), k, row).rows();
+            long middle = System.nanoTime();
+            int[] actual = search(matrix.data(), matrix.offset(row), k, row).rows();
+            long end = System.nanoTime();
+
+            exactNanos += middle - start;
+            approximateNanos += end - middle;
+            int matches = 0;
+            for (int expectedRow : expected) {
+                for (int actualRow : actual) {
+                    if (expectedRow == actualRow) {
+                        matches++;
+                        break;
+                    }
+                }
+            }
+            recall += expected.length == 0 ? 1.0 : (double) matches / expected.length;
+        }
+
+        double exactMicros = exactNanos / 1e3 / Math.max(1, samples);
+        double approximateMicros = approximateNanos / 1e3 / Math.max(1, samples);
+        return String.format("%s recall@%d over %d queries: %.3f, %.1f us/query vs %.1f us/query exact (%.1fx faster)",
+                name(), k, samples, recall / Math.max(1, samples), approximateMicros, exactMicros,
+                exactMicros / Math.max(approximateMicros, 1e-3));
+    }
+
+    /**
+     * Writes the graph to disk, tagged with the fingerprint of the matrix it was built over.
+     *
+     * @param path the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        Path temporary = path.resolveSibling("." + path.getFileName() + "." + ProcessHandle.current().pid()
+                + "." + Thread.currentThread().threadId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(matrix.fingerprint());
+            out.writeInt(matrix.size());
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(efSearch);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int level : levels) {
+                out.writeInt(level);
+            }
+            for (int link : layer0) {
+                out.writeInt(link);
+            }
+            for (int[][] layers : upper) {
+                if (layers == null) continue;
+                for (int[] links : layers) {
+                    for (int link : links) {
+                        out.writeInt(link);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a saved graph, as long as it was built over the same matrix.
+     *
+     * @param path   the file to read.
+     * @param matrix the candidate matrix the index searches.
+     * @return the saved index, or {@code null} if it is missing or was built over a different matrix.
+     * @throws IOException if the file exists but cannot be read.
+     */
+    public static HnswIndex load(Path path, EmbeddingMatrix matrix) throws IOException {
+        if (!Files.exists(path)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            if (in.readLong() != matrix.fingerprint() || in.readInt() != matrix.size()) return null;
+
+            int m = in.readInt();
+            int efConstruction = in.readInt();
+            int efSearch = in.readInt();
+            int entryPoint = in.readInt();
+            int maxLevel = in.readInt();
+            int[] levels = new int[matrix.size()];
+            for (int node = 0; node < levels.length; node++) {
+                levels[node] = in.readInt();
+            }
+
+            HnswIndex index = new HnswIndex(matrix, m, efConstruction, efSearch, levels);
+            for (int i = 0; i < index.layer0.length; i++) {
+                index.layer0[i] = in.readInt();
+            }
+            for (int[][] layers : index.upper) {
+                if (layers == null) continue;
+                for (int[] links : layers) {
+                    for (int i = 0; i < links.length; i++) {
+                        links[i] = in.readInt();
+                    }
+                }
+            }
+            index.entryPoint = entryPoint;
+            index.maxLevel = maxLevel;
+            index.built = true;
+            return index;
+        }
+    }
+
+    /**
+     * Links a new node into the graph on every layer up to its own level.
+     */
+    private void insert(int node) {
+        float[] data = matrix.data();
+        int offset = matrix.offset(node);
+        int level = levels[node];
+
+        int entry, topLevel;
+        entryLock.lock();
+        try {
+            entry = entryPoint;
+            topLevel = maxLevel;
+        } finally {
+            entryLock.unlock();
+        }
+
+        // Walk greedily down the layers above the node's own level
+        int current = greedyDescent(data, offset, entry, topLevel, level + 1);
+
+        // Then search each layer the node lives on for its neighbours
+        for (int layer = Math.min(level, topLevel); layer >= 0; layer--) {
+            TopK found = searchLayer(data, offset, current, efConstruction, layer);
+            int[] neighbours = selectNeighbours(offset, found.rows(), found.scores(), layer == 0 ? m0 : m);
+            setLinks(node, layer, neighbours, neighbours.length);
+            for (int neighbour : neighbours) {
+                addLink(neighbour, node, layer);
+            }
+            current = found.best();
+        }
+
+        if (level > topLevel) {
+            entryLock.lock();
+            try {
+                if (level > maxLevel) {
+                    maxLevel = level;
+                    entryPoint = node;
+                }
+            } finally {
+                entryLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves greedily towards the query on each layer from {@code fromLevel} down to {@code toLevel}.
+     *
+     * @return the closest node found on the last layer walked.
+     */
+    private int greedyDescent(float[] query, int queryOffset, int entry, int fromLevel, int toLevel) {
+        int current = entry;
+        float currentScore = similarity(query, queryOffset, current);
+        int[] buffer = new int[m0];
+        for (int layer = fromLevel; layer >= toLevel; layer--) {
+            boolean moved = true;
+            while (moved) {
+                moved = false;
+                int count = links(current, layer, buffer);
+                for (int i = 0; i < count; i++) {
+                    int neighbour = buffer[i];
+                    float score = similarity(query, queryOffset, neighbour);
+                    if (score > currentScore) {
+                        currentScore = score;
+                        current = neighbour;
+                        moved = true;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Explores one layer outwards from an entry node, always expanding the best candidate not yet expanded,
+     * until no candidate left can improve on the {@code ef} best nodes found.
+     */
+    private TopK searchLayer(float[] query, int queryOffset, int entry, int ef, int layer) {
+        VisitedSet seen = visited.poll();
+        if (seen == null) seen = new VisitedSet(matrix.size());
+        try {
+            return searchLayer(query, queryOffset, entry, ef, layer, seen);
+        } finally {
+            visited.offer(seen);
+        }
+    }
+
+    private TopK searchLayer(float[] query, int queryOffset, int entry, int ef, int layer, VisitedSet seen) {
+        seen.clear();
+        CandidateHeap candidates = new CandidateHeap();
+        TopK found = new TopK(ef);
+        int[] buffer = new int[m0];
+
+        float entryScore = similarity(query, queryOffset, entry);
+        seen.add(entry);
+        candidates.push(entry, entryScore);
+        found.offer(entry, entryScore);
+
+        while (!candidates.isEmpty()) {
+            float score = candidates.peekScore();
+            if (found.size() == ef && score < found.threshold()) break;
+            int node = candidates.pop();
+
+            int count = links(node, layer, buffer);
+            for (int i = 0; i < count; i++) {
+                int neighbour = buffer[i];
+                if (!seen.add(neighbour)) continue;
+                float neighbourScore = similarity(query, queryOffset, neighbour);
+                if (found.size() < ef || neighbourScore > found.threshold()) {
+                    candidates.push(neighbour, neighbourScore);
+                    found.offer(neighbour, neighbourScore);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Chooses up to {@code max} links from candidates sorted best first. A candidate is preferred if it is closer
+     * to the base node than to any link already chosen, which spreads the links out in different directions;
+     * the remaining places are then filled with the closest of the candidates passed over.
+     */
+    private int[] selectNeighbours(int baseOffset, int[] rows, float[] scores, int max) {
+        float[] data = matrix.data();
+        int[] chosen = new int[Math.min(max, rows.length)];
+        int count = 0;
+        int[] passed = new int[rows.length];
+        int passedCount = 0;
+
+        for (int i = 0; i < rows.length && count < chosen.length; i++) {
+            if (matrix.offset(rows[i]) == baseOffset) continue;
+            boolean diverse = true;
+            for (int j = 0; j < count && diverse; j++) {
+                float toChosen = kernel.dot(data, matrix.offset(rows[i]), data, matrix.offset(chosen[j]), matrix.dimensions());
+                if (toChosen > scores[i]) diverse = false;
+            }
+            if (diverse) {
+                chosen[count++] = rows[i];
+            } else {
+                passed[passedCount++] = rows[i];
+            }
+        }
+        for (int i = 0; i < passedCount && count < chosen.length; i++) {
+            chosen[count++] = passed[i];
+        }
+        return Arrays.copyOf(chosen, count);
+    }
+
+    /**
+     * Adds a link from {@code node} to {@code neighbour}. If the node already has all the links it may keep,
+     * the best set is chosen again from its current links and the new one.
+     */
+    private void addLink(int node, int neighbour, int layer) {
+        int max = layer == 0 ? m0 : m;
+        ReentrantLock lock = lockFor(node);
+        lock.lock();
+        try {
+            int[] list = layer == 0 ? layer0 : upper[node][layer - 1];
+            int base = layer == 0 ? node * (m0 + 1) : 0;
+            int count = list[base];
+            for (int i = 1; i <= count; i++) {
+                if (list[base + i] == neighbour) return;
+            }
+            if (count < max) {
+                list[base + count + 1] = neighbour;
+                list[base] = count + 1;
+                return;
+            }
+
+            // Rank the current links and the new one by their similarity to the node and choose again
+            float[] data = matrix.data();
+            int nodeOffset = matrix.offset(node);
+            TopK ranked = new TopK(count + 1);
+            for (int i = 1; i <= count; i++) {
+                ranked.offer(list[base + i], similarity(data, nodeOffset, list[base + i]));
+            }
+            ranked.offer(neighbour, similarity(data, nodeOffset, neighbour));
+            int[] kept = selectNeighbours(nodeOffset, ranked.rows(), ranked.scores(), max);
+            System.arraycopy(kept, 0, list, base + 1, kept.length);
+            list[base] = kept.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setLinks(int node, int layer, int[] neighbours, int count) {
+        ReentrantLock lock = lockFor(node);
+        lock.lock();
+        try {
+            int[] list = layer == 0 ? layer0 : upper[node][layer - 1];
+            int base = layer == 0 ? node * (m0 + 1) : 0;
+            System.arraycopy(neighbours, 0, list, base + 1, count);
+            list[base] = count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the links of a node on a layer into a buffer. While the graph is being built the links are copied
+     * under the node's lock; once it is finished they are only ever read, so they are copied without one.
+     *
+     * @return the number of links copied.
+     */
+    private int links(int node, int layer, int[] buffer) {
+        if (layer > levels[node]) return 0;
+        int[] list = layer == 0 ? layer0 : upper[node][layer - 1];
+        int base = layer == 0 ? node * (m0 + 1) : 0;
+        if (built) {
+            int count = list[base];
+            System.arraycopy(list, base + 1, buffer, 0, count);
+            return count;
+        }
+        ReentrantLock lock = lockFor(node);
+        lock.lock();
+        try {
+            int count = list[base];
+            System.arraycopy(list, base + 1, buffer, 0, count);
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private float similarity(float[] query, int queryOffset, int node) {
+        return kernel.dot(query, queryOffset, matrix.data(), matrix.offset(node), matrix.dimensions());
+    }
+
+    private ReentrantLock lockFor(int node) {
+        return locks[node & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * A max-heap of nodes by score, holding the candidates still to be expanded by a layer search.
+     */
+    private static class CandidateHeap {
+
+        private int[] nodes = new int[64];
+        private float[] scores = new float[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] >= score) break;
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            int lastNode = nodes[--size];
+            float lastScore = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && scores[child + 1] > scores[child]) child++;
+                if (scores[child] <= lastScore) break;
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            scores[i] = lastScore;
+            return top;
+        }
+    }
+
+    /**
+     * The nodes visited by a search. Each search bumps a generation number instead of clearing the array.
+     */
+    private static class VisitedSet {
+
+        private final int[] marks;
+        private int generation;
+
+        VisitedSet(int size) {
+            this.marks = new int[size];
+        }
+
+        void clear() {
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean add(int node) {
+            if (marks[node] == generation) return false;
+            marks[node] = generation;
+            return true;
+        }
+    }
+}
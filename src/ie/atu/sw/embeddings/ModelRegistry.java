@@ -0,0 +1,162 @@
+package ie.atu.sw.embeddings;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@code ModelRegistry} class holds every loaded {@link EmbeddingModel} by name, and which of them is active.
+ * Both are kept in one immutable snapshot that is replaced with a single atomic swap, so readers never lock and
+ * never see a half-made change: a simplification job that has already taken the active model finishes with it,
+ * while the next job picks up whatever was swapped in.
+ */
+public class ModelRegistry {
+
+    /**
+     * The registry used by the application.
+     */
+    private static final ModelRegistry GLOBAL = new ModelRegistry();
+
+    /**
+     * The registered models and the name of the active one, replaced as a whole on every change.
+     *
+     * @param models the models by name.
+     * @param active the name of the active model, or {@code null} if none is active.
+     */
+    private record State(Map<String, EmbeddingModel> models, String active) {
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(new State(Map.of(), null));
+
+    /**
+     * Retrieves the registry used by the application.
+     *
+     * @return the shared registry.
+     */
+    public static ModelRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Adds a model, replacing any model of the same name. If the replaced model was active, the new one is active from now on.
+     *
+     * @param model the model to add.
+     * @return the model it replaced, or {@code null}.
+     */
+    public EmbeddingModel register(EmbeddingModel model) {
+        State previous = state.getAndUpdate(current -> {
+            Map<String, EmbeddingModel> models = new LinkedHashMap<>(current.models());
+            models.put(model.getName(), model);
+            return new State(Collections.unmodifiableMap(models), current.active());
+        });
+        return previous.models().get(model.getName());
+    }
+
+    /**
+     * Adds a model and makes it the active one in the same swap.
+     *
+     * @param model the model to add.
+     * @return the model that was active before, or {@code null}.
+     */
+    public EmbeddingModel registerActive(EmbeddingModel model) {
+        State previous = state.getAndUpdate(current -> {
+            Map<String, EmbeddingModel> models = new LinkedHashMap<>(current.models());
+            models.put(model.getName(), model);
+            return new State(Collections.unmodifiableMap(models), model.getName());
+        });
+        return previous.active() != null ? previous.models().get(previous.active()) : null;
+    }
+
+    /**
+     * Makes a registered model the active one.
+     *
+     * @param name the name of the model.
+     * @throws IllegalArgumentException if no model of that name is registered.
+     */
+    public void activate(String name) {
+        state.updateAndGet(current -> {
+            if (!current.models().containsKey(name)) {
+                throw new IllegalArgumentException("No model named '" + name + "' is loaded");
+            }
+            return new State(current.models(), name);
+        });
+    }
+
+    /**
+     * Removes a model. If it was active, no model is active afterwards.
+     *
+     * @param name the name of the model.
+     * @return the removed model, or {@code null} if none was registered under that name.
+     */
+    public EmbeddingModel remove(String name) {
+        State previous = state.getAndUpdate(current -> {
+            Map<String, EmbeddingModel> models = new LinkedHashMap<>(current.models());
+            models.remove(name);
+            return new State(Collections.unmodifiableMap(models), name.equals(current.active()) ? null : current.active());
+        });
+        return previous.models().get(name);
+    }
+
+    /**
+     * Retrieves a model by name.
+     *
+     * @param name the name of the model.
+     * @return the model, or {@code null} if none is registered under that name.
+     */
+    public EmbeddingModel get(String name) {
+        return state.get().models().get(name);
+    }
+
+    /**
+     * Retrieves the active model.
+     *
+     * @return the active model, or {@link EmbeddingModel#EMPTY} if none is active.
+     */
+    public EmbeddingModel active() {
+        State current = state.get();
+        EmbeddingModel model = current.active() != null ? current.models().get(current.active()) : null;
+        return model != null ? model : EmbeddingModel.EMPTY;
+    }
+
+    /**
+     * Lists the registered models.
+     *
+     * @return the names of every model, in the order they were first registered.
+     */
+    public Set<String> names() {
+        return state.get().models().keySet();
+    }
+
+    /**
+     * Loads several models at once, one virtual thread each, and registers every one that loads.
+     * The active model is not changed.
+     *
+     * @param sources the embeddings file of each model, by name.
+     * @param format  the format to store the vectors in.
+     * @return the loaded models, by name.
+     * @throws InterruptedException if the thread is interrupted while waiting on the loads.
+     * @throws ExecutionException   if any model fails to load; the others are still registered.
+     *
+     * @runtimeNotation O(max(n * m)), where n is the number of words and m the vector size of the largest model.
+     * @runtimeExplanation The models load side by side, each using the loader's own parallelism.
+     */
+    public Map<String, EmbeddingModel> loadAll(Map<String, Path> sources, VectorFormat format) throws InterruptedException, ExecutionException {
+        Map<String, Future<EmbeddingModel>> loads = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Map.Entry<String, Path> source : sources.entrySet()) {
+                loads.put(source.getKey(), executor.submit(() -> {
+                    EmbeddingModel model = EmbeddingModel.load(source.getKey(), source.getValue(), format);
+                    register(model);
+                    return model;
+                }));
+            }
+        }
+
+        Map<String, EmbeddingModel> loaded = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<EmbeddingModel>> load : loads.entrySet()) {
+            loaded.put(load.getKey(), load.getValue().get());
+        }
+        return loaded;
+    }
+}
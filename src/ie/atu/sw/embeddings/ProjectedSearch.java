@@ -0,0 +1,380 @@
+package ie.atu.sw.embeddings;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * The {@code ProjectedSearch} class is a two-stage {@link SearchEngine}. When it is built, the candidate rows
+ * are projected onto their main directions, found by principal component analysis, leaving a few dozen
+ * dimensions rather than hundreds. A search projects the query the same way, scans every candidate in the
+ * reduced space to shortlist the most similar, and re-ranks only the shortlist against the full vectors.
+ *
+ * <p>The reduced similarities are only used to choose the shortlist, so every similarity returned is exact;
+ * a true neighbour is missed only if the projection ranks it below the shortlist. {@code dimensions} sets the
+ * size of the reduced space and {@code shortlist} how many rows are re-ranked per query.</p>
+ */
+public class ProjectedSearch implements SearchEngine {
+
+    /**
+     * The settings of a projected search.
+     *
+     * @param dimensions the number of dimensions the candidates are projected onto.
+     * @param shortlist  the number of rows re-ranked at full precision per query.
+     * @param seed       the random seed of the starting projection.
+     */
+    public record Parameters(int dimensions, int shortlist, long seed) {
+
+        /**
+         * Reads the settings from the {@code simplifier.projection.dims} and {@code simplifier.projection.shortlist}
+         * system properties, defaulting to 64 and 64.
+         *
+         * @return the settings.
+         */
+        public static Parameters fromSystemProperties() {
+            return new Parameters(
+                    Math.max(1, Integer.getInteger("simplifier.projection.dims", 64)),
+                    Math.max(1, Integer.getInteger("simplifier.projection.shortlist", 64)),
+                    42);
+        }
+    }
+
+    /**
+     * Identifies a saved projection ("VTTP").
+     */
+    private static final int MAGIC = 0x56545450;
+
+    /**
+     * The version of the saved layout.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The number of rounds of subspace iteration used to find the main directions.
+     */
+    private static final int ITERATIONS = 30;
+
+    /**
+     * The number of times the recall report times each search.
+     */
+    private static final int TIMING_ROUNDS = 3;
+
+    /**
+     * The number of buckets the reduced scores are counted into to find the shortlist.
+     */
+    private static final int BUCKETS = 1024;
+
+    private final EmbeddingMatrix matrix;
+    private final SimilarityKernel kernel = SimilarityKernels.get();
+    private final int dimensions;
+    private final int shortlist;
+
+    /**
+     * The orthonormal directions projected onto, one row of {@code matrix.dimensions()} values per direction.
+     */
+    private final float[] basis;
+
+    /**
+     * The projected candidate rows, {@link #dimensions} values per row.
+     */
+    private final float[] projected;
+
+    private ProjectedSearch(EmbeddingMatrix matrix, int shortlist, float[] basis, float[] projected) {
+        this.matrix = matrix;
+        this.dimensions = basis.length / matrix.dimensions();
+        this.shortlist = shortlist;
+        this.basis = basis;
+        this.projected = projected;
+    }
+
+    /**
+     * Builds a projected search over a matrix. The main directions of the rows are found by subspace
+     * iteration: a random projection is repeatedly multiplied by the rows' second moment matrix and
+     * orthonormalized, which turns it towards the directions the rows vary along most.
+     *
+     * @param matrix     the candidate matrix to search.
+     * @param parameters the search settings; the dimensions are capped at those of the matrix.
+     * @return the projected search.
+     * @throws IllegalArgumentException if the rows of the matrix are quantized.
+     *
+     * @runtimeNotation O(n * m^2 + i * r * m^2), where n is the number of rows, m the vector size, r the reduced size and i the iterations.
+     * @runtimeExplanation The second moment matrix sums one m by m outer product per row, and each iteration multiplies it by r directions.
+     */
+    public static ProjectedSearch build(EmbeddingMatrix matrix, Parameters parameters) {
+        if (matrix.isQuantized()) {
+            throw new IllegalArgumentException("A projected search needs full precision rows, not " + matrix.format());
+        }
+        int m = matrix.dimensions();
+        int r = Math.min(parameters.dimensions(), m);
+        float[] data = matrix.data();
+
+        // First we sum the outer products of the rows; only the upper triangle, as the matrix is symmetric
+        double[] moments = new double[m * m];
+        for (int row = 0; row < matrix.size(); row++) {
+            int offset = matrix.offset(row);
+            for (int i = 0; i < m; i++) {
+                double xi = data[offset + i];
+                for (int j = i; j < m; j++) {
+                    moments[i * m + j] += xi * data[offset + j];
+                }
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < i; j++) {
+                moments[i * m + j] = moments[j * m + i];
+            }
+        }
+
+        // Then start from a random projection and turn it towards the main directions
+        Random random = new Random(parameters.seed());
+        double[] directions = new double[r * m];
+        for (int i = 0; i < directions.length; i++) {
+            directions[i] = random.nextGaussian();
+        }
+        orthonormalize(directions, r, m);
+        double[] next = new double[r * m];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int d = 0; d < r; d++) {
+                for (int i = 0; i < m; i++) {
+                    double sum = 0;
+                    for (int j = 0; j < m; j++) {
+                        sum += moments[i * m + j] * directions[d * m + j];
+                    }
+                    next[d * m + i] = sum;
+                }
+            }
+            orthonormalize(next, r, m);
+            double[] swap = directions;
+            directions = next;
+            next = swap;
+        }
+
+        float[] basis = new float[r * m];
+        for (int i = 0; i < basis.length; i++) {
+            basis[i] = (float) directions[i];
+        }
+        ProjectedSearch search = new ProjectedSearch(matrix, parameters.shortlist(), basis, new float[matrix.size() * r]);
+        for (int row = 0; row < matrix.size(); row++) {
+            search.project(data, matrix.offset(row), search.projected, row * r);
+        }
+        return search;
+    }
+
+    /**
+     * Makes the rows of a matrix orthonormal by modified Gram-Schmidt. A row which turns out to depend on the
+     * rows before it, as happens when there are fewer candidates than directions, is left as zeros.
+     */
+    private static void orthonormalize(double[] rows, int count, int length) {
+        for (int a = 0; a < count; a++) {
+            for (int b = 0; b < a; b++) {
+                double dot = 0;
+                for (int i = 0; i < length; i++) {
+                    dot += rows[a * length + i] * rows[b * length + i];
+                }
+                for (int i = 0; i < length; i++) {
+                    rows[a * length + i] -= dot * rows[b * length + i];
+                }
+            }
+            double norm = 0;
+            for (int i = 0; i < length; i++) {
+                norm += rows[a * length + i] * rows[a * length + i];
+            }
+            double scale = norm > 1e-20 ? 1 / Math.sqrt(norm) : 0;
+            for (int i = 0; i < length; i++) {
+                rows[a * length + i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Projects a full vector onto the basis.
+     */
+    private void project(float[] vector, int offset, float[] dest, int destOffset) {
+        int m = matrix.dimensions();
+        for (int d = 0; d < dimensions; d++) {
+            dest[destOffset + d] = kernel.dot(vector, offset, basis, d * m, m);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(r * m + n * r + s * m), where n is the number of rows, m the vector size, r the reduced size and s the shortlist.
+     * @runtimeExplanation The query is projected once, every row is compared in the reduced space and counted once, and only the shortlist at full size.
+     */
+    @Override
+    public TopK search(float[] query, int queryOffset, int k, int excludedRow, float minSimilarity) {
+        int n = matrix.size();
+        float[] reduced = new float[dimensions];
+        project(query, queryOffset, reduced, 0);
+
+        // Score every row in the reduced space
+        float[] scores = new float[n];
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        for (int row = 0; row < n; row++) {
+            float score = kernel.dot(reduced, 0, projected, row * dimensions, dimensions);
+            scores[row] = score;
+            min = Math.min(min, score);
+            max = Math.max(max, score);
+        }
+
+        // Shortlist the rows in the top buckets of a histogram of the scores, enough to hold the s best. Unlike
+        // a heap or a selection, counting has no branch that depends on the scores, so it is rarely mispredicted.
+        int wanted = Math.max(k, shortlist) + (excludedRow >= 0 ? 1 : 0);
+        float scale = (BUCKETS - 1) / Math.max(max - min, Float.MIN_NORMAL);
+        int[] histogram = new int[BUCKETS];
+        for (int row = 0; row < n; row++) {
+            histogram[(int) ((scores[row] - min) * scale)]++;
+        }
+        int cutoff = BUCKETS - 1;
+        for (int count = histogram[cutoff]; count < wanted && cutoff > 0; ) {
+            count += histogram[--cutoff];
+        }
+
+        // Score the shortlist again against the full vectors and keep the best k of it
+        TopK top = new TopK(k, minSimilarity);
+        for (int row = 0; row < n; row++) {
+            if ((int) ((scores[row] - min) * scale) >= cutoff && row != excludedRow) {
+                top.offer(row, matrix.dot(query, queryOffset, row));
+            }
+        }
+        return top;
+    }
+
+    @Override
+    public EmbeddingMatrix getMatrix() {
+        return matrix;
+    }
+
+    @Override
+    public String name() {
+        return "projected(dims=" + dimensions + ", shortlist=" + shortlist + ")";
+    }
+
+    /**
+     * Compares the search with an exact search on a sample of vocabulary words, each used as a query with
+     * itself excluded, as a synonym search would.
+     *
+     * @param queries the vocabulary the sample queries are drawn from.
+     * @param samples the number of sample queries.
+     * @param k       the number of neighbours compared per query.
+     * @return a one line summary of the recall and the time per query of both searches.
+     */
+    public String recallReport(EmbeddingMatrix queries, int samples, int k) {
+        ExactSearch exact = new ExactSearch(matrix);
+        Random random = new Random(7);
+        samples = Math.min(samples, queries.size());
+        int m = queries.dimensions();
+        float[] vectors = new float[samples * m];
+        int[] excluded = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            int row = random.nextInt(queries.size());
+            queries.copyVector(row, vectors, i * m);
+            excluded[i] = matrix.indexOf(queries.word(row));
+        }
+
+        // First compare the answers, which also warms up both searches before they are timed
+        double recall = 0;
+        for (int i = 0; i < samples; i++) {
+            int[] expected = exact.search(vectors, i * m, k, excluded[i]).rows();
+            int[] actual = search(vectors, i * m, k, excluded[i]).rows();
+            int matches = 0;
+            for (int expectedRow : expected) {
+                for (int actualRow : actual) {
+                    if (expectedRow == actualRow) {
+                        matches++;
+                        break;
+                    }
+                }
+            }
+            recall += expected.length == 0 ? 1.0 : (double) matches / expected.length;
+        }
+
+        // Then time each search on its own over the same queries
+        double exactMicros = time(exact, vectors, excluded, k) / 1e3 / Math.max(1, samples);
+        double projectedMicros = time(this, vectors, excluded, k) / 1e3 / Math.max(1, samples);
+        return String.format("%s recall@%d over %d queries: %.3f, %.1f us/query vs %.1f us/query exact (%.1fx faster)",
+                name(), k, samples, recall / Math.max(1, samples), projectedMicros, exactMicros,
+                exactMicros / Math.max(projectedMicros, 1e-3));
+    }
+
+    /**
+     * Times a search engine over a set of queries, taking the fastest of a few rounds so that a pause for
+     * the JIT or the collector does not count against either engine.
+     *
+     * @return the time taken, in nanoseconds.
+     */
+    private static long time(SearchEngine engine, float[] vectors, int[] excluded, int k) {
+        int m = engine.getMatrix().dimensions();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < TIMING_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < excluded.length; i++) {
+                engine.search(vectors, i * m, k, excluded[i]);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Writes the basis and the projected rows to disk, tagged with the fingerprint of the matrix they were built from.
+     *
+     * @param path the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        Path temporary = path.resolveSibling("." + path.getFileName() + "." + ProcessHandle.current().pid()
+                + "." + Thread.currentThread().threadId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(matrix.fingerprint());
+            out.writeInt(matrix.size());
+            out.writeInt(matrix.dimensions());
+            out.writeInt(dimensions);
+            for (float value : basis) {
+                out.writeFloat(value);
+            }
+            for (float value : projected) {
+                out.writeFloat(value);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a saved projection, as long as it was built from the same matrix with the same number of dimensions.
+     *
+     * @param path       the file to read.
+     * @param matrix     the candidate matrix to search.
+     * @param parameters the search settings.
+     * @return the saved search, or {@code null} if it is missing or was built differently.
+     * @throws IOException if the file exists but cannot be read.
+     */
+    public static ProjectedSearch load(Path path, EmbeddingMatrix matrix, Parameters parameters) throws IOException {
+        if (!Files.exists(path)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            if (in.readLong() != matrix.fingerprint() || in.readInt() != matrix.size()) return null;
+            int m = in.readInt();
+            int r = in.readInt();
+            if (m != matrix.dimensions() || r != Math.min(parameters.dimensions(), m)) return null;
+
+            float[] basis = new float[r * m];
+            for (int i = 0; i < basis.length; i++) {
+                basis[i] = in.readFloat();
+            }
+            float[] projected = new float[matrix.size() * r];
+            for (int i = 0; i < projected.length; i++) {
+                projected[i] = in.readFloat();
+            }
+            return new ProjectedSearch(matrix, parameters.shortlist(), basis, projected);
+        }
+    }
+}
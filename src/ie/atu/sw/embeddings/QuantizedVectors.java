@@ -0,0 +1,213 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code QuantizedVectors} class stores normalized vectors in one of the compact {@link VectorFormat}s:
+ * half precision floats, or bytes scaled either per vector or per dimension. The vectors of a matrix take
+ * two or four times less memory, and more of them fit in each cache line when they are scanned.
+ */
+public class QuantizedVectors {
+
+    private final VectorFormat format;
+    private final int rows;
+    private final int dimensions;
+
+    /**
+     * The byte codes of every row, one after another, for the int8 formats.
+     */
+    private final byte[] codes;
+
+    /**
+     * The scale of each row for {@link VectorFormat#INT8_PER_VECTOR}, or of each dimension for
+     * {@link VectorFormat#INT8_PER_DIMENSION}. A code times its scale gives back the element.
+     */
+    private final float[] scales;
+
+    /**
+     * The half precision elements of every row, one after another, for {@link VectorFormat#FLOAT16}.
+     */
+    private final short[] halves;
+
+    private QuantizedVectors(VectorFormat format, int rows, int dimensions) {
+        int elements = Math.multiplyExact(rows, dimensions);
+        this.format = format;
+        this.rows = rows;
+        this.dimensions = dimensions;
+        this.codes = format == VectorFormat.INT8_PER_VECTOR || format == VectorFormat.INT8_PER_DIMENSION ? new byte[elements] : null;
+        this.halves = format == VectorFormat.FLOAT16 ? new short[elements] : null;
+        this.scales = switch (format) {
+            case INT8_PER_VECTOR -> new float[rows];
+            case INT8_PER_DIMENSION -> new float[dimensions];
+            default -> null;
+        };
+    }
+
+    /**
+     * Quantizes the rows of a matrix one at a time, so the full precision rows never have to be held at once.
+     *
+     * @param source     the full precision rows.
+     * @param rows       the number of rows.
+     * @param dimensions the number of dimensions of each row.
+     * @param format     the compact format to store them in; not {@link VectorFormat#FLOAT32}.
+     * @return the quantized rows.
+     *
+     * @runtimeNotation O(n * m), where n is the number of rows and m is the vector size.
+     * @runtimeExplanation Every element is read once, or twice for per-dimension scales, and encoded once.
+     */
+    public static QuantizedVectors quantize(EmbeddingMatrix.RowSource source, int rows, int dimensions, VectorFormat format) {
+        if (format == VectorFormat.FLOAT32) {
+            throw new IllegalArgumentException("FLOAT32 is not a quantized format");
+        }
+        QuantizedVectors vectors = new QuantizedVectors(format, rows, dimensions);
+        float[] row = new float[dimensions];
+
+        // Per-dimension scales need the largest value of each dimension before any row can be encoded
+        if (format == VectorFormat.INT8_PER_DIMENSION) {
+            for (int r = 0; r < rows; r++) {
+                source.copyRow(r, row, 0);
+                for (int i = 0; i < dimensions; i++) {
+                    vectors.scales[i] = Math.max(vectors.scales[i], Math.abs(row[i]));
+                }
+            }
+            for (int i = 0; i < dimensions; i++) {
+                vectors.scales[i] = vectors.scales[i] == 0f ? 1f : vectors.scales[i] / 127f;
+            }
+        }
+
+        for (int r = 0; r < rows; r++) {
+            source.copyRow(r, row, 0);
+            vectors.encode(r, row);
+        }
+        return vectors;
+    }
+
+    private void encode(int row, float[] vector) {
+        int offset = row * dimensions;
+        switch (format) {
+            case FLOAT16 -> {
+                for (int i = 0; i < dimensions; i++) {
+                    halves[offset + i] = Float.floatToFloat16(vector[i]);
+                }
+            }
+            case INT8_PER_VECTOR -> {
+                float max = 0f;
+                for (float value : vector) max = Math.max(max, Math.abs(value));
+                float scale = max == 0f ? 1f : max / 127f;
+                scales[row] = scale;
+                for (int i = 0; i < dimensions; i++) {
+                    codes[offset + i] = (byte) Math.round(vector[i] / scale);
+                }
+            }
+            case INT8_PER_DIMENSION -> {
+                for (int i = 0; i < dimensions; i++) {
+                    codes[offset + i] = (byte) Math.max(-127, Math.min(127, Math.round(vector[i] / scales[i])));
+                }
+            }
+            default -> throw new IllegalStateException("Unexpected format " + format);
+        }
+    }
+
+    /**
+     * Returns the format the vectors are stored in.
+     *
+     * @return the vector format.
+     */
+    public VectorFormat format() {
+        return format;
+    }
+
+    /**
+     * Prepares a query for {@link #dot(float[], int)}. For per-dimension scales the query is multiplied by
+     * the scales once here, so each row only needs a plain dot product with its codes.
+     *
+     * @param query       the array holding the normalized query vector.
+     * @param queryOffset the offset of the query vector in that array.
+     * @return a new array holding the prepared query.
+     */
+    public float[] prepare(float[] query, int queryOffset) {
+        float[] prepared = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            prepared[i] = format == VectorFormat.INT8_PER_DIMENSION ? query[queryOffset + i] * scales[i] : query[queryOffset + i];
+        }
+        return prepared;
+    }
+
+    /**
+     * Computes the approximate dot product of a prepared query and a quantized row.
+     *
+     * @param prepared the query returned by {@link #prepare(float[], int)}.
+     * @param row      the row index.
+     * @return the approximate cosine similarity between the query and the row.
+     *
+     * @runtimeNotation O(m), where m is the vector size.
+     * @runtimeExplanation Each element is decoded and multiplied once; int8 rows go through the {@link SimilarityKernel}.
+     */
+    public float dot(float[] prepared, int row) {
+        int offset = row * dimensions;
+        switch (format) {
+            case FLOAT16 -> {
+                float sum0 = 0f, sum1 = 0f, sum2 = 0f, sum3 = 0f;
+                int i = 0;
+                for (int bound = dimensions & ~3; i < bound; i += 4) {
+                    sum0 += prepared[i] * Float.float16ToFloat(halves[offset + i]);
+                    sum1 += prepared[i + 1] * Float.float16ToFloat(halves[offset + i + 1]);
+                    sum2 += prepared[i + 2] * Float.float16ToFloat(halves[offset + i + 2]);
+                    sum3 += prepared[i + 3] * Float.float16ToFloat(halves[offset + i + 3]);
+                }
+                for (; i < dimensions; i++) {
+                    sum0 += prepared[i] * Float.float16ToFloat(halves[offset + i]);
+                }
+                return (sum0 + sum1) + (sum2 + sum3);
+            }
+            case INT8_PER_VECTOR -> {
+                return SimilarityKernels.get().dot(prepared, 0, codes, offset, dimensions) * scales[row];
+            }
+            case INT8_PER_DIMENSION -> {
+                return SimilarityKernels.get().dot(prepared, 0, codes, offset, dimensions);
+            }
+            default -> throw new IllegalStateException("Unexpected format " + format);
+        }
+    }
+
+    /**
+     * Decodes a row back into floats.
+     *
+     * @param row    the row index.
+     * @param dest   the array to decode into.
+     * @param offset the offset in that array where the row is written.
+     */
+    public void copyRow(int row, float[] dest, int offset) {
+        int from = row * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            dest[offset + i] = value(from, i, row);
+        }
+    }
+
+    /**
+     * Decodes a single element of a row.
+     *
+     * @param row the row index.
+     * @param i   the dimension.
+     * @return the approximate value of the element.
+     */
+    public float value(int row, int i) {
+        return value(row * dimensions, i, row);
+    }
+
+    private float value(int rowOffset, int i, int row) {
+        return switch (format) {
+            case FLOAT16 -> Float.float16ToFloat(halves[rowOffset + i]);
+            case INT8_PER_VECTOR -> codes[rowOffset + i] * scales[row];
+            case INT8_PER_DIMENSION -> codes[rowOffset + i] * scales[i];
+            default -> throw new IllegalStateException("Unexpected format " + format);
+        };
+    }
+
+    /**
+     * Returns the memory taken by the quantized vectors and their scales.
+     *
+     * @return the size in bytes.
+     */
+    public long bytes() {
+        return (long) rows * dimensions * format.bytesPerElement() + (scales != null ? (long) scales.length * Float.BYTES : 0);
+    }
+}
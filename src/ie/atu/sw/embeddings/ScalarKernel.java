@@ -0,0 +1,28 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code ScalarKernel} class is the reference dot product: one multiply-add per element into a single sum.
+ * Every other kernel should give the same answer as this one, up to floating point rounding.
+ */
+public class ScalarKernel implements SimilarityKernel {
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(m), where m is the vector size.
+     * @runtimeExplanation Each pair of elements is multiplied and added once.
+     */
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,102 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code SearchEngine} interface finds the candidate rows most similar to a query vector.
+ * An engine is built over one candidate matrix and answers every synonym search made against it.
+ */
+public interface SearchEngine {
+
+    /**
+     * The kinds of search engine that can be selected.
+     */
+    enum Type {
+        /**
+         * A linear scan over every candidate, which always finds the true nearest neighbours.
+         */
+        EXACT,
+        /**
+         * A hierarchical navigable small world graph, which finds nearly all of them in a fraction of the time.
+         */
+        HNSW,
+        /**
+         * A coarse scan over the candidates projected onto their main directions, with the best few re-ranked exactly.
+         */
+        PROJECTED,
+        /**
+         * An exact scan split into shards, which worker processes search side by side.
+         */
+        SHARDED
+    }
+
+    /**
+     * Finds the candidates most similar to a query vector.
+     *
+     * @param query       the array holding the normalized query vector.
+     * @param queryOffset the offset of the query vector in that array.
+     * @param k           the number of candidates to return.
+     * @param excludedRow a candidate row which may not be returned, or {@code -1}.
+     * @return the best candidates found.
+     */
+    default TopK search(float[] query, int queryOffset, int k, int excludedRow) {
+        return search(query, queryOffset, k, excludedRow, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Finds the candidates most similar to a query vector, leaving out any less similar than a minimum.
+     *
+     * @param query         the array holding the normalized query vector.
+     * @param queryOffset   the offset of the query vector in that array.
+     * @param k             the number of candidates to return.
+     * @param excludedRow   a candidate row which may not be returned, or {@code -1}.
+     * @param minSimilarity the lowest similarity a candidate may have to be returned.
+     * @return the best candidates found, possibly fewer than k.
+     */
+    TopK search(float[] query, int queryOffset, int k, int excludedRow, float minSimilarity);
+
+    /**
+     * Finds the candidates most similar to each of a block of query vectors, leaving out any less similar
+     * than a minimum. An engine which can answer a whole batch more cheaply than one query at a time
+     * overrides this; by default each query is searched on its own.
+     *
+     * @param queries       the array holding the normalized query vectors, one after another.
+     * @param queryOffset   the offset of the first query vector in that array.
+     * @param count         the number of queries.
+     * @param excludedRows  for each query, a candidate row which may not be returned, or {@code -1}.
+     * @param k             the number of candidates to return per query.
+     * @param minSimilarity the lowest similarity a candidate may have to be returned.
+     * @return the best candidates found for each query.
+     */
+    default TopK[] searchBatch(float[] queries, int queryOffset, int count, int[] excludedRows, int k, float minSimilarity) {
+        int dimensions = getMatrix().dimensions();
+        TopK[] results = new TopK[count];
+        for (int q = 0; q < count; q++) {
+            results[q] = search(queries, queryOffset + q * dimensions, k, excludedRows[q], minSimilarity);
+        }
+        return results;
+    }
+
+    /**
+     * Checks whether a batch of queries costs the engine much less than searching them one at a time, as it
+     * does when every search is a round trip to other processes. Callers then gather what queries they can
+     * into batches before they are needed.
+     *
+     * @return {@code true} if the engine should be given batches.
+     */
+    default boolean prefersBatches() {
+        return false;
+    }
+
+    /**
+     * Returns the candidate matrix the engine searches.
+     *
+     * @return the candidate matrix.
+     */
+    EmbeddingMatrix getMatrix();
+
+    /**
+     * Returns a short description of the engine and its settings.
+     *
+     * @return the engine name.
+     */
+    String name();
+}
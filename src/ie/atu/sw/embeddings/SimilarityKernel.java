@@ -0,0 +1,57 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code SimilarityKernel} interface computes the dot product of two vectors stored inside float arrays.
+ * Rows are normalized when they are loaded, so this dot product is the cosine similarity used by every synonym search.
+ * The implementation in use is chosen once at startup by {@link SimilarityKernels}.
+ */
+public interface SimilarityKernel {
+
+    /**
+     * Computes the dot product of two vectors.
+     *
+     * @param a       the array holding the first vector.
+     * @param aOffset the offset of the first vector in its array.
+     * @param b       the array holding the second vector.
+     * @param bOffset the offset of the second vector in its array.
+     * @param length  the number of dimensions.
+     * @return the dot product.
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Computes the dot product of a float vector and a vector of int8 codes, as used by quantized rows.
+     * The caller multiplies the result by the scale of the codes.
+     *
+     * @param a       the array holding the float vector.
+     * @param aOffset the offset of the float vector in its array.
+     * @param b       the array holding the codes.
+     * @param bOffset the offset of the codes in their array.
+     * @param length  the number of dimensions.
+     * @return the unscaled dot product.
+     *
+     * @runtimeNotation O(m), where m is the vector size.
+     * @runtimeExplanation Each code is widened to a float and multiplied once, four at a time into separate sums.
+     */
+    default float dot(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        float sum0 = 0f, sum1 = 0f, sum2 = 0f, sum3 = 0f;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * Returns a short name for the kernel, used when reporting which one is in use.
+     *
+     * @return the kernel name.
+     */
+    String name();
+}
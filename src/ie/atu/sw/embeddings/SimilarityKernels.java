@@ -0,0 +1,61 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code SimilarityKernels} class chooses the {@link SimilarityKernel} used by every synonym search.
+ * The choice is made once when the class is loaded, so the JIT compiler can inline the kernel into the search loops.
+ *
+ * <p>The kernel can be forced with {@code -Dsimplifier.kernel=scalar|unrolled|vector}. Otherwise the
+ * Vector API kernel is used when the {@code jdk.incubator.vector} module is available, and the unrolled
+ * scalar kernel when it is not.</p>
+ */
+public class SimilarityKernels {
+
+    /**
+     * The kernel chosen at startup.
+     */
+    private static final SimilarityKernel KERNEL = choose(System.getProperty("simplifier.kernel", ""));
+
+    /**
+     * Returns the kernel chosen at startup.
+     *
+     * @return the kernel in use.
+     */
+    public static SimilarityKernel get() {
+        return KERNEL;
+    }
+
+    /**
+     * Returns a kernel by name.
+     *
+     * @param name {@code scalar}, {@code unrolled} or {@code vector}; anything else picks the fastest available.
+     * @return the kernel, or the unrolled kernel if the Vector API was asked for but is not available.
+     */
+    public static SimilarityKernel choose(String name) {
+        return switch (name) {
+            case "scalar" -> new ScalarKernel();
+            case "unrolled" -> new UnrolledKernel();
+            default -> {
+                SimilarityKernel vector = vectorKernel();
+                yield vector != null ? vector : new UnrolledKernel();
+            }
+        };
+    }
+
+    /**
+     * Loads the Vector API kernel by name, so that this class still loads when the incubator module is missing.
+     *
+     * @return the Vector API kernel, or {@code null} if it cannot be used.
+     */
+    private static SimilarityKernel vectorKernel() {
+        try {
+            SimilarityKernel kernel = (SimilarityKernel) Class.forName("ie.atu.sw.embeddings.VectorKernel")
+                    .getDeclaredConstructor().newInstance();
+
+            // Check the kernel once, as a missing module only shows up when the Vector API is first touched
+            float[] probe = {1f, 2f, 3f};
+            return kernel.dot(probe, 0, probe, 0, probe.length) == 14f ? kernel : null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
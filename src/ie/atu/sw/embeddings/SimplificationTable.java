@@ -0,0 +1,233 @@
+package ie.atu.sw.embeddings;
+
+import ie.atu.sw.metrics.Metrics;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The {@code SimplificationTable} class holds the best candidate for every word of the vocabulary and how
+ * similar it is, worked out once up front. Simplifying a word is then a single lookup rather than a similarity
+ * scan, and the minimum similarity can be changed without working the table out again.
+ */
+public class SimplificationTable {
+
+    /**
+     * Identifies a saved table ("VTTS").
+     */
+    private static final int MAGIC = 0x56545453;
+
+    /**
+     * The version of the saved layout.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The number of vocabulary rows resolved by one task.
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * The full embeddings matrix whose rows the table is indexed by.
+     */
+    private final EmbeddingMatrix embeddings;
+
+    /**
+     * The candidate set whose rows the table points to.
+     */
+    private final CandidateSet candidates;
+
+    /**
+     * For each vocabulary row, the row of its best candidate, or {@code -1} if the word is kept as it is.
+     */
+    private final int[] targets;
+
+    /**
+     * For each vocabulary row, the similarity of its best candidate.
+     */
+    private final float[] similarities;
+
+    private SimplificationTable(EmbeddingMatrix embeddings, CandidateSet candidates, int[] targets, float[] similarities) {
+        this.embeddings = embeddings;
+        this.candidates = candidates;
+        this.targets = targets;
+        this.similarities = similarities;
+    }
+
+    /**
+     * Resolves the best candidate of every vocabulary word, sharing blocks of rows between one worker per core.
+     * Each block is searched as one batch with {@link BatchSearch}. Words which are already candidates are kept as they are.
+     *
+     * @param embeddings the full embeddings matrix.
+     * @param candidates the candidate set synonyms are chosen from.
+     * @return the finished table.
+     * @throws InterruptedException if the thread is interrupted while waiting on the workers.
+     *
+     * @runtimeNotation O(n * k * m / p), where n is the vocabulary size, k the number of candidates, m the vector size and p the number of cores.
+     * @runtimeExplanation Every vocabulary row is compared once against every candidate row, with the rows split evenly between the cores.
+     */
+    public static SimplificationTable compute(EmbeddingMatrix embeddings, CandidateSet candidates) throws InterruptedException {
+        Metrics.Timer timer = Metrics.start(Metrics.Stage.PRECOMPUTE);
+        int[] targets = new int[embeddings.size()];
+        float[] similarities = new float[embeddings.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Void>> blocks = new ArrayList<>();
+            for (int from = 0; from < targets.length; from += BLOCK_SIZE) {
+                int start = from, end = Math.min(from + BLOCK_SIZE, targets.length);
+                blocks.add(executor.submit(() -> {
+
+                    // The rows of the block are searched as one batch, copied out first if they are quantized
+                    float[] queries = embeddings.isQuantized() ? new float[(end - start) * embeddings.dimensions()] : embeddings.data();
+                    int queryOffset = embeddings.isQuantized() ? 0 : embeddings.offset(start);
+                    for (int row = start; row < end && embeddings.isQuantized(); row++) {
+                        embeddings.copyVector(row, queries, (row - start) * embeddings.dimensions());
+                    }
+                    TopK[] best = BatchSearch.search(queries, queryOffset, end - start, null, candidates.getMatrix(), 1);
+                    for (int row = start; row < end; row++) {
+                        targets[row] = candidates.contains(embeddings.word(row)) ? -1 : best[row - start].best();
+                        similarities[row] = best[row - start].bestScore();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> block : blocks) {
+                block.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        timer.stop(targets.length);
+        return new SimplificationTable(embeddings, candidates, targets, similarities);
+    }
+
+    /**
+     * Returns the simplification of a word.
+     *
+     * @param word          the word to simplify.
+     * @param minSimilarity the lowest similarity the best candidate must have to replace the word.
+     * @return the best candidate for the word, or the word itself if it is a candidate, has no embedding,
+     *         or has no candidate close enough.
+     */
+    public String simplify(String word, float minSimilarity) {
+        int row = embeddings.indexOf(word);
+        String synonym = row >= 0 ? simplify(row, minSimilarity) : null;
+        return synonym != null ? synonym : word;
+    }
+
+    /**
+     * Returns the simplification of a vocabulary row, for callers which have already looked the word up.
+     *
+     * @param row           the vocabulary row.
+     * @param minSimilarity the lowest similarity the best candidate must have to replace the word.
+     * @return the best candidate for the word, or {@code null} if the word is a candidate or has no candidate close enough.
+     */
+    public String simplify(int row, float minSimilarity) {
+        if (targets[row] < 0 || similarities[row] < minSimilarity) return null;
+        return candidates.getMatrix().word(targets[row]);
+    }
+
+    /**
+     * Returns the candidate row a vocabulary row is simplified to.
+     *
+     * @param row the vocabulary row.
+     * @return the candidate row, or {@code -1} if the word is kept as it is.
+     */
+    public int target(int row) {
+        return targets[row];
+    }
+
+    /**
+     * Returns how similar a vocabulary row is to the candidate it is simplified to.
+     *
+     * @param row the vocabulary row.
+     * @return the cosine similarity of the best candidate.
+     */
+    public float similarity(int row) {
+        return similarities[row];
+    }
+
+    /**
+     * Returns the candidate set the table was computed against.
+     *
+     * @return the candidate set.
+     */
+    public CandidateSet getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Writes the table to disk, tagged with a fingerprint of the vocabulary and candidates it was computed from.
+     *
+     * @param path the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        Path temporary = path.resolveSibling("." + path.getFileName() + "." + ProcessHandle.current().pid()
+                + "." + Thread.currentThread().threadId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint(embeddings, candidates));
+            out.writeInt(targets.length);
+            for (int target : targets) {
+                out.writeInt(target);
+            }
+            for (float similarity : similarities) {
+                out.writeFloat(similarity);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a saved table, as long as it was computed from the same vocabulary and candidates.
+     *
+     * @param path       the file to read.
+     * @param embeddings the full embeddings matrix.
+     * @param candidates the candidate set synonyms are chosen from.
+     * @return the saved table, or {@code null} if it is missing or was computed from different data.
+     * @throws IOException if the file exists but cannot be read.
+     */
+    public static SimplificationTable load(Path path, EmbeddingMatrix embeddings, CandidateSet candidates) throws IOException {
+        if (!Files.exists(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long expectedSize = 4 + 4 + 8 + 4 + (long) embeddings.size() * (Integer.BYTES + Float.BYTES);
+            if (channel.size() != expectedSize) return null;
+
+            IntBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+            if (buffer.get() != MAGIC || buffer.get() != VERSION) return null;
+            long fingerprint = ((long) buffer.get() << 32) | (buffer.get() & 0xFFFFFFFFL);
+            if (fingerprint != fingerprint(embeddings, candidates) || buffer.get() != embeddings.size()) return null;
+
+            int[] targets = new int[embeddings.size()];
+            buffer.get(targets);
+            float[] similarities = new float[embeddings.size()];
+            for (int row = 0; row < similarities.length; row++) {
+                similarities[row] = Float.intBitsToFloat(buffer.get());
+            }
+            return new SimplificationTable(embeddings, candidates, targets, similarities);
+        }
+    }
+
+    /**
+     * Combines the fingerprints of the vocabulary and the candidates. A table is only reused when both match.
+     */
+    static long fingerprint(EmbeddingMatrix embeddings, CandidateSet candidates) {
+        return embeddings.fingerprint() * 31 + candidates.getMatrix().fingerprint();
+    }
+}
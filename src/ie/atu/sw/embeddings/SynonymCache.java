@@ -0,0 +1,369 @@
+package ie.atu.sw.embeddings;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * The {@code SynonymCache} class is a thread-safe, size-bounded cache of synonym lookups.
+ * Entries are keyed by the word and the version of the candidate set they were found in, so swapping
+ * the candidate set never returns a stale synonym. The cache is split into independently locked
+ * stripes so that many threads can use it at once.
+ */
+public class SynonymCache {
+
+    /**
+     * The eviction policies the cache can use.
+     */
+    public enum Policy {
+        /**
+         * Evicts the least recently used entry.
+         */
+        LRU,
+        /**
+         * Admits new entries through a small LRU window, and only moves them into the main area if they
+         * have been asked for more often than the entry they would evict (W-TinyLFU).
+         */
+        TINY_LFU
+    }
+
+    /**
+     * The key of a cached synonym.
+     *
+     * @param word    the word which was looked up.
+     * @param version the version of the candidate set the synonym was chosen from.
+     */
+    private record Key(String word, long version) {
+    }
+
+    private final Segment[] segments;
+    private final Policy policy;
+    private final int maximumSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a {@code SynonymCache}.
+     *
+     * @param maximumSize the most entries the cache will hold.
+     * @param policy      the eviction policy.
+     */
+    public SynonymCache(int maximumSize, Policy policy) {
+        this.maximumSize = maximumSize;
+        this.policy = policy;
+
+        // Use a power of two number of stripes, but never so many that a stripe holds fewer than 16 entries
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, maximumSize / 16)));
+        this.segments = new Segment[stripes];
+        int perSegment = Math.max(1, maximumSize / stripes);
+        for (int i = 0; i < stripes; i++) {
+            segments[i] = policy == Policy.LRU ? new LruSegment(perSegment) : new TinyLfuSegment(perSegment);
+        }
+    }
+
+    /**
+     * Returns the cached synonym of a word, computing and caching it on a miss. The lookup is done
+     * outside the lock, so two threads missing on the same word at once may both compute it.
+     *
+     * @param word    the word to find a synonym for.
+     * @param version the version of the candidate set in use.
+     * @param lookup  the function which finds the synonym on a miss.
+     * @return the synonym of the word.
+     */
+    public String get(String word, long version, Function<String, String> lookup) {
+        Key key = new Key(word, version);
+        Segment segment = segmentFor(key);
+
+        String synonym = segment.get(key);
+        if (synonym != null) {
+            hits.increment();
+            return synonym;
+        }
+
+        misses.increment();
+        synonym = lookup.apply(word);
+        evictions.add(segment.put(key, synonym));
+        return synonym;
+    }
+
+    /**
+     * Returns the cached synonym of a word without computing it on a miss. The hit and miss counters are
+     * not changed, but the entry is still counted as used by the eviction policy.
+     *
+     * @param word    the word to find a synonym for.
+     * @param version the version of the candidate set in use.
+     * @return the cached synonym, or {@code null} if the word is not cached.
+     */
+    public String peek(String word, long version) {
+        Key key = new Key(word, version);
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Caches a synonym found elsewhere, for example by a batch search.
+     *
+     * @param word    the word the synonym was found for.
+     * @param version the version of the candidate set in use.
+     * @param synonym the synonym of the word.
+     */
+    public void put(String word, long version, String synonym) {
+        Key key = new Key(word, version);
+        evictions.add(segmentFor(key).put(key, synonym));
+    }
+
+    /**
+     * Removes every entry. The counters are kept.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the share of lookups which were answered from the cache.
+     *
+     * @return the hit rate between 0 and 1.
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum(), total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s cache: %,d hits, %,d misses, %,d evictions (%.1f%% hit rate)",
+                policy, getHitCount(), getMissCount(), getEvictionCount(), getHitRate() * 100);
+    }
+
+    private Segment segmentFor(Key key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * One independently locked stripe of the cache.
+     */
+    private abstract static class Segment {
+
+        /**
+         * A {@code ReentrantLock} rather than {@code synchronized}, so waiting virtual threads do not pin their carrier.
+         */
+        protected final ReentrantLock lock = new ReentrantLock();
+
+        abstract String get(Key key);
+
+        /**
+         * Adds an entry.
+         *
+         * @return the number of entries evicted to make room.
+         */
+        abstract int put(Key key, String value);
+
+        abstract void clear();
+    }
+
+    /**
+     * A stripe which evicts its least recently used entry once it is full.
+     */
+    private static class LruSegment extends Segment {
+
+        private final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int capacity;
+
+        LruSegment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        String get(Key key) {
+            lock.lock();
+            try {
+                return entries.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        int put(Key key, String value) {
+            lock.lock();
+            try {
+                entries.put(key, value);
+                if (entries.size() <= capacity) return 0;
+                removeEldest(entries);
+                return 1;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void clear() {
+            lock.lock();
+            try {
+                entries.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A stripe using W-TinyLFU: new entries go into a small LRU window, and an entry leaving the window only
+     * replaces the least recently used entry of the main area if it has been asked for more often.
+     */
+    private static class TinyLfuSegment extends Segment {
+
+        private final LinkedHashMap<Key, String> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, String> main = new LinkedHashMap<>(16, 0.75f, true);
+        private final int windowCapacity;
+        private final int mainCapacity;
+        private final FrequencySketch sketch;
+
+        TinyLfuSegment(int capacity) {
+            this.windowCapacity = Math.max(1, capacity / 100);
+            this.mainCapacity = Math.max(1, capacity - windowCapacity);
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        @Override
+        String get(Key key) {
+            lock.lock();
+            try {
+                sketch.increment(key.hashCode());
+                String value = window.get(key);
+                return value != null ? value : main.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        int put(Key key, String value) {
+            lock.lock();
+            try {
+                if (main.containsKey(key)) {
+                    main.put(key, value);
+                    return 0;
+                }
+                window.put(key, value);
+                if (window.size() <= windowCapacity) return 0;
+
+                // The window is full, so its eldest entry either moves into the main area or is dropped
+                Map.Entry<Key, String> candidate = removeEldest(window);
+                if (main.size() < mainCapacity) {
+                    main.put(candidate.getKey(), candidate.getValue());
+                    return 0;
+                }
+                Key victim = main.keySet().iterator().next();
+                if (sketch.frequency(candidate.getKey().hashCode()) > sketch.frequency(victim.hashCode())) {
+                    main.remove(victim);
+                    main.put(candidate.getKey(), candidate.getValue());
+                }
+                return 1;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        void clear() {
+            lock.lock();
+            try {
+                window.clear();
+                main.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static Map.Entry<Key, String> removeEldest(LinkedHashMap<Key, String> entries) {
+        Iterator<Map.Entry<Key, String>> iterator = entries.entrySet().iterator();
+        Map.Entry<Key, String> eldest = iterator.next();
+        Map.Entry<Key, String> removed = Map.entry(eldest.getKey(), eldest.getValue());
+        iterator.remove();
+        return removed;
+    }
+
+    /**
+     * A count-min sketch of how often each key has been asked for. Counters stop at 15 and are
+     * halved once enough increments have been made, so old popularity fades away.
+     */
+    private static class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1;
+            this.counters = new byte[width * DEPTH];
+            this.mask = width - 1;
+            this.sampleSize = Math.max(16, capacity * 10);
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                if (counters[index] < MAX_COUNT) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, counters[indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            long mixed = (hash + SEEDS[row]) * SEEDS[row];
+            int column = (int) (mixed >>> 32) & mask;
+            return row * (mask + 1) + column;
+        }
+    }
+}
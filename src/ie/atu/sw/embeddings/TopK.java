@@ -0,0 +1,182 @@
+package ie.atu.sw.embeddings;
+
+import java.util.Arrays;
+
+/**
+ * The {@code TopK} class keeps the k highest scoring rows seen so far in a fixed-size min-heap of primitives.
+ * The lowest of the kept scores sits at the root, so a new row only has to beat that one score to get in,
+ * and offering a row never allocates. Rows scoring below an optional minimum are never kept at all.
+ */
+public class TopK {
+
+    private final int[] rows;
+    private final float[] scores;
+    private final float minScore;
+    private int size;
+
+    /**
+     * Constructs an empty {@code TopK}.
+     *
+     * @param k the number of rows to keep.
+     */
+    public TopK(int k) {
+        this(k, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Constructs an empty {@code TopK} which only keeps rows scoring at least a minimum.
+     *
+     * @param k        the number of rows to keep.
+     * @param minScore the lowest score a row may have to be kept.
+     */
+    public TopK(int k, float minScore) {
+        this.rows = new int[k];
+        this.scores = new float[k];
+        this.minScore = minScore;
+    }
+
+    /**
+     * Offers a row. It is kept if it scores at least the minimum and either fewer than k rows are held, or it
+     * scores higher than the lowest one held. On equal scores the row offered first is kept.
+     *
+     * @param row   the row.
+     * @param score the similarity of the row.
+     *
+     * @runtimeNotation O(log k)
+     * @runtimeExplanation A kept row replaces the root and is sifted down the heap.
+     */
+    public void offer(int row, float score) {
+        if (!(score >= minScore)) return;
+        if (size < rows.length) {
+            int i = size++;
+            rows[i] = row;
+            scores[i] = score;
+            siftUp(i);
+        } else if (score > scores[0]) {
+            rows[0] = row;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns the score a row must reach to be kept.
+     *
+     * @return the lowest score held once k rows are held, otherwise the minimum score.
+     */
+    public float threshold() {
+        return size < rows.length ? minScore : scores[0];
+    }
+
+    /**
+     * Returns the number of rows held.
+     *
+     * @return the number of rows, at most k.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the held rows, best first. Rows with equal scores are ordered by row number.
+     *
+     * @return a new array of rows.
+     */
+    public int[] rows() {
+        return sortedPositions(true);
+    }
+
+    /**
+     * Returns the scores of the held rows, in the same order as {@link #rows()}.
+     *
+     * @return a new array of scores.
+     */
+    public float[] scores() {
+        int[] order = sortedPositions(false);
+        float[] sorted = new float[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = scores[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the best row held.
+     *
+     * @return the highest scoring row, or {@code -1} if none are held.
+     */
+    public int best() {
+        int best = -1;
+        for (int i = 0; i < size; i++) {
+            if (best < 0 || scores[i] > scores[best] || scores[i] == scores[best] && rows[i] < rows[best]) best = i;
+        }
+        return best < 0 ? -1 : rows[best];
+    }
+
+    /**
+     * Returns the score of the best row held.
+     *
+     * @return the highest score, or negative infinity if no rows are held.
+     */
+    public float bestScore() {
+        float best = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            best = Math.max(best, scores[i]);
+        }
+        return best;
+    }
+
+    /**
+     * Removes every held row so the heap can be reused.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private int[] sortedPositions(boolean asRows) {
+        Integer[] positions = new Integer[size];
+        for (int i = 0; i < size; i++) positions[i] = i;
+        Arrays.sort(positions, (a, b) -> scores[a] != scores[b] ? Float.compare(scores[b], scores[a]) : Integer.compare(rows[a], rows[b]));
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = asRows ? rows[positions[i]] : positions[i];
+        }
+        return result;
+    }
+
+    /**
+     * Orders the heap by score, and by row number on equal scores, so that among equals the later row is evicted first.
+     */
+    private boolean lower(int a, int b) {
+        return scores[a] < scores[b] || scores[a] == scores[b] && rows[a] > rows[b];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!lower(i, parent)) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1, right = left + 1, lowest = i;
+            if (left < size && lower(left, lowest)) lowest = left;
+            if (right < size && lower(right, lowest)) lowest = right;
+            if (lowest == i) return;
+            swap(i, lowest);
+            i = lowest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -0,0 +1,36 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code UnrolledKernel} class is a scalar dot product unrolled four ways into four separate sums.
+ * A single sum makes every addition wait for the one before it; four independent sums let the CPU
+ * keep several multiply-adds in flight at once.
+ */
+public class UnrolledKernel implements SimilarityKernel {
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(m), where m is the vector size.
+     * @runtimeExplanation Each pair of elements is multiplied and added once, four at a time.
+     */
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum0 = 0f, sum1 = 0f, sum2 = 0f, sum3 = 0f;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    @Override
+    public String name() {
+        return "unrolled";
+    }
+}
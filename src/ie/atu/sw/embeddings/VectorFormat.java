@@ -0,0 +1,40 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code VectorFormat} enum lists the ways the rows of an {@link EmbeddingMatrix} can be stored.
+ * The smaller formats hold approximate vectors; searches over them re-rank their best few candidates
+ * against the full precision vectors.
+ */
+public enum VectorFormat {
+    /**
+     * Four bytes per element, exactly as loaded.
+     */
+    FLOAT32(Float.BYTES),
+    /**
+     * Two bytes per element, as IEEE 754 half precision floats.
+     */
+    FLOAT16(Short.BYTES),
+    /**
+     * One byte per element, with one scale per vector.
+     */
+    INT8_PER_VECTOR(Byte.BYTES),
+    /**
+     * One byte per element, with one scale per dimension shared by every vector.
+     */
+    INT8_PER_DIMENSION(Byte.BYTES);
+
+    private final int bytesPerElement;
+
+    VectorFormat(int bytesPerElement) {
+        this.bytesPerElement = bytesPerElement;
+    }
+
+    /**
+     * Returns the number of bytes used to store each element of a vector.
+     *
+     * @return the element size in bytes.
+     */
+    public int bytesPerElement() {
+        return bytesPerElement;
+    }
+}
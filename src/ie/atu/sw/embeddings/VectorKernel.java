@@ -0,0 +1,110 @@
+package ie.atu.sw.embeddings;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@code VectorKernel} class computes the dot product with the Java Vector API, multiplying and adding
+ * a whole SIMD register of floats (8 with AVX2, 16 with AVX-512) per instruction.
+ * It needs the {@code jdk.incubator.vector} module, so the JVM must be started with
+ * {@code --add-modules jdk.incubator.vector}; {@link SimilarityKernels} falls back to a scalar kernel otherwise.
+ */
+public class VectorKernel implements SimilarityKernel {
+
+    /**
+     * The widest vector shape the CPU supports.
+     */
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * The byte vector int8 codes are loaded with: as many lanes as {@link #SPECIES}, but never narrower than
+     * 64 bits, the narrowest shape there is. With 128-bit registers a load of 8 codes widens to two float registers.
+     */
+    private static final VectorSpecies<Byte> CODES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, SPECIES.length() * Byte.SIZE)));
+
+    /**
+     * The number of float registers one load of codes widens to.
+     */
+    private static final int PARTS = CODES.length() / SPECIES.length();
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(m / w), where m is the vector size and w is the number of floats per SIMD register.
+     * @runtimeExplanation Each instruction multiplies and adds w pairs of elements at once.
+     */
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int lanes = SPECIES.length();
+        FloatVector sum0 = FloatVector.zero(SPECIES);
+        FloatVector sum1 = FloatVector.zero(SPECIES);
+        int i = 0;
+
+        // Two independent sums, so one fused multiply-add does not have to wait for the other
+        for (int bound = length - 2 * lanes; i <= bound; i += 2 * lanes) {
+            sum0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), sum0);
+            sum1 = FloatVector.fromArray(SPECIES, a, aOffset + i + lanes)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + lanes), sum1);
+        }
+        for (int bound = SPECIES.loopBound(length); i < bound; i += lanes) {
+            sum0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), sum0);
+        }
+
+        float result = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(m / w), where m is the vector size and w is the number of floats per SIMD register.
+     * @runtimeExplanation Each step loads w codes (at least 8), widens them to floats part by part and fuses the multiply-add.
+     */
+    @Override
+    public float dot(float[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int lanes = SPECIES.length();
+        int step = CODES.length();
+        FloatVector sum0 = FloatVector.zero(SPECIES);
+        FloatVector sum1 = FloatVector.zero(SPECIES);
+        int i = 0;
+
+        // Two loads of codes per turn, each feeding its own sum
+        for (int bound = length - 2 * step; i <= bound; i += 2 * step) {
+            ByteVector codes0 = ByteVector.fromArray(CODES, b, bOffset + i);
+            ByteVector codes1 = ByteVector.fromArray(CODES, b, bOffset + i + step);
+            for (int part = 0; part < PARTS; part++) {
+                FloatVector widened0 = (FloatVector) codes0.convertShape(VectorOperators.B2F, SPECIES, part);
+                FloatVector widened1 = (FloatVector) codes1.convertShape(VectorOperators.B2F, SPECIES, part);
+                sum0 = FloatVector.fromArray(SPECIES, a, aOffset + i + part * lanes).fma(widened0, sum0);
+                sum1 = FloatVector.fromArray(SPECIES, a, aOffset + i + step + part * lanes).fma(widened1, sum1);
+            }
+        }
+        for (int bound = length - step; i <= bound; i += step) {
+            ByteVector codes = ByteVector.fromArray(CODES, b, bOffset + i);
+            for (int part = 0; part < PARTS; part++) {
+                FloatVector widened = (FloatVector) codes.convertShape(VectorOperators.B2F, SPECIES, part);
+                sum0 = FloatVector.fromArray(SPECIES, a, aOffset + i + part * lanes).fma(widened, sum0);
+            }
+        }
+
+        float result = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.length() * Float.SIZE + "bit";
+    }
+}
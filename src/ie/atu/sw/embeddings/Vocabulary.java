@@ -0,0 +1,180 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * The {@code Vocabulary} class maps the words of a matrix to their rows with an open-addressing hash table.
+ * The characters of every word are packed back to back into one arena, and each slot of the table holds a
+ * word's hash next to its row, so a lookup probes one array and compares characters in another, rather than
+ * following references from node to key to character array as a {@code HashMap<String, Integer>} does.
+ *
+ * <p>Words can be looked up as any {@link CharSequence}, such as a reused {@link StringBuilder}, or as a slice
+ * of a {@code char[]}, so a token can be resolved straight from the text it was read into without making a
+ * {@link String} of it. A vocabulary never changes once built and can be shared by any number of threads.</p>
+ */
+public final class Vocabulary {
+
+    /**
+     * The characters of every word, one after another.
+     */
+    private final char[] arena;
+
+    /**
+     * Where each word starts in the arena; word {@code row} ends where word {@code row + 1} starts.
+     */
+    private final int[] starts;
+
+    /**
+     * The hash table, two ints per slot: the hash of the word, then its row plus one, or zero if the slot is empty.
+     */
+    private final int[] table;
+
+    /**
+     * The number of slots less one; the number of slots is a power of two.
+     */
+    private final int mask;
+
+    /**
+     * Builds a vocabulary over a list of words. A word listed twice maps to its last row.
+     *
+     * @param words the word of every row.
+     *
+     * @runtimeNotation O(n * w), where n is the number of words and w is the average word length.
+     * @runtimeExplanation Every word is copied into the arena once and inserted with an expected constant number of probes.
+     */
+    public Vocabulary(String[] words) {
+        int length = 0;
+        for (String word : words) {
+            length += word.length();
+        }
+        this.arena = new char[length];
+        this.starts = new int[words.length + 1];
+        int slots = Integer.highestOneBit(Math.max(2, words.length * 2 - 1)) << 1;
+        this.table = new int[slots * 2];
+        this.mask = slots - 1;
+
+        int start = 0;
+        for (int row = 0; row < words.length; row++) {
+            String word = words[row];
+            word.getChars(0, word.length(), arena, start);
+            starts[row] = start;
+            start += word.length();
+            starts[row + 1] = start;
+
+            // A repeated word takes over the slot of the earlier one, as a later put does in a map
+            int hash = word.hashCode();
+            int slot = find(hash, arena, starts[row], word.length());
+            table[slot * 2] = hash;
+            table[slot * 2 + 1] = row + 1;
+        }
+    }
+
+    /**
+     * Returns the number of words.
+     *
+     * @return the number of rows.
+     */
+    public int size() {
+        return starts.length - 1;
+    }
+
+    /**
+     * Finds the row of a word.
+     *
+     * @param word the word to look up.
+     * @return the row of the word, or {@code -1} if it is not in the vocabulary.
+     *
+     * @runtimeNotation O(w) expected, where w is the length of the word.
+     * @runtimeExplanation The word is hashed once, unless it is a {@link String} which has kept its hash, and compared with the words sharing its probe sequence, usually one.
+     */
+    public int indexOf(CharSequence word) {
+        int hash;
+        if (word instanceof String s) {
+            hash = s.hashCode();
+        } else {
+            hash = 0;
+            for (int i = 0; i < word.length(); i++) {
+                hash = 31 * hash + word.charAt(i);
+            }
+        }
+
+        int length = word.length();
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int row = table[slot * 2 + 1] - 1;
+            if (row < 0) return -1;
+            if (table[slot * 2] == hash && starts[row + 1] - starts[row] == length && matches(row, word)) return row;
+        }
+    }
+
+    /**
+     * Finds the row of a word held in part of a character array.
+     *
+     * @param chars  the array holding the word.
+     * @param offset where the word starts in the array.
+     * @param length the length of the word.
+     * @return the row of the word, or {@code -1} if it is not in the vocabulary.
+     *
+     * @runtimeNotation O(w) expected, where w is the length of the word.
+     * @runtimeExplanation The slice is hashed once and compared with the words sharing its probe sequence, usually one.
+     */
+    public int indexOf(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        return table[find(hash, chars, offset, length) * 2 + 1] - 1;
+    }
+
+    /**
+     * Checks whether a word is in the vocabulary.
+     *
+     * @param word the word to look up.
+     * @return {@code true} if the word has a row.
+     */
+    public boolean contains(CharSequence word) {
+        return indexOf(word) >= 0;
+    }
+
+    /**
+     * Returns the number of bytes the arena and the table take.
+     *
+     * @return the size of the vocabulary on the heap, not counting object headers.
+     */
+    public long memoryBytes() {
+        return (long) arena.length * Character.BYTES + (long) (starts.length + table.length) * Integer.BYTES;
+    }
+
+    /**
+     * Probes for a word held in a character array, returning the slot holding it, or the empty slot where it belongs.
+     */
+    private int find(int hash, char[] chars, int offset, int length) {
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int row = table[slot * 2 + 1] - 1;
+            if (row < 0) return slot;
+            if (table[slot * 2] == hash && starts[row + 1] - starts[row] == length && matches(row, chars, offset)) return slot;
+        }
+    }
+
+    private boolean matches(int row, CharSequence word) {
+        int start = starts[row];
+        for (int i = 0; i < word.length(); i++) {
+            if (arena[start + i] != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean matches(int row, char[] chars, int offset) {
+        int start = starts[row];
+        int length = starts[row + 1] - start;
+        for (int i = 0; i < length; i++) {
+            if (arena[start + i] != chars[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mixes the bits of a {@link String#hashCode()}, whose low bits alone cluster for words sharing an ending.
+     */
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
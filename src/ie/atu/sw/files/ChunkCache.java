@@ -0,0 +1,149 @@
+package ie.atu.sw.files;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code ChunkCache} class keeps the simplified text of every segment on disk, addressed by its content.
+ * A segment's key is a SHA-256 hash of its characters together with the {@link SegmentSimplifier#signature()
+ * signature} of the simplifier, so a segment is only reused with the same model, candidates and settings.
+ * Since {@link SegmentSimplifier#readSegments} cuts the text where its content says to, re-simplifying a
+ * lightly edited file only simplifies the segments around the edits, and splices the rest in from the cache.
+ * <p>
+ * Each entry is one small file, named by its key, holding the word count and the UTF-8 text. Entries are
+ * written to a temporary file and renamed into place, so files simplified side by side can share a cache,
+ * and the directory can be deleted at any time to empty it.
+ */
+public class ChunkCache {
+
+    /**
+     * Changed whenever the simplified text of a segment would change for the same model and settings,
+     * such as a change to the tokenizer, so entries written by older code are never reused.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The number of bytes of the hash used as the key.
+     */
+    private static final int KEY_BYTES = 16;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Path directory;
+    private final byte[] signature;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Constructs a {@code ChunkCache} for segments simplified by one simplifier.
+     *
+     * @param directory  the directory the entries are kept in, created if needed.
+     * @param simplifier the simplifier the segments are simplified by.
+     * @throws IOException if the directory cannot be created.
+     */
+    public ChunkCache(Path directory, SegmentSimplifier simplifier) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.signature = (VERSION + "/" + simplifier.signature()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Looks up the simplified text of a segment.
+     *
+     * @param segment the characters of the segment.
+     * @return the simplified segment, or {@code null} if it is not cached.
+     *
+     * @runtimeNotation O(n), where n is the length of the segment.
+     * @runtimeExplanation The segment is hashed once, and the entry, about as long as the segment, is read and decoded once.
+     */
+    public SegmentSimplifier.Simplified get(char[] segment) {
+        Path entry = entry(segment);
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(entry));
+            int words = bytes.getInt();
+            CharSequence text = StandardCharsets.UTF_8.decode(bytes);
+            hits.incrementAndGet();
+            return new SegmentSimplifier.Simplified(text, words);
+        } catch (IOException | RuntimeException e) {
+            // Missing, or cut short by a crash; either way it is simplified again and rewritten
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the simplified text of a segment. The cache is only an optimization, so an entry which
+     * cannot be written is skipped rather than failing the job.
+     *
+     * @param segment    the characters of the segment.
+     * @param simplified the simplified segment.
+     */
+    public void put(char[] segment, SegmentSimplifier.Simplified simplified) {
+        Path entry = entry(segment);
+        Path temporary = entry.resolveSibling(entry.getFileName() + "." + ProcessHandle.current().pid()
+                + "." + Thread.currentThread().threadId() + ".part");
+        try {
+            ByteBuffer text = StandardCharsets.UTF_8.encode(CharBuffer.wrap(simplified.text()));
+            ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES + text.remaining()).putInt(simplified.words()).put(text);
+            Files.createDirectories(entry.getParent());
+            Files.write(temporary, bytes.array());
+            Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Nothing more can be done; a stray .part file is never read
+            }
+        }
+    }
+
+    /**
+     * Works out where the entry of a segment is kept: a directory named by the first byte of its key,
+     * so no one directory grows too large, and a file named by the rest.
+     */
+    private Path entry(char[] segment) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(signature);
+        ByteBuffer chars = ByteBuffer.allocate(segment.length * Character.BYTES);
+        chars.asCharBuffer().put(segment);
+        digest.update(chars);
+        String key = HEX.formatHex(digest.digest(), 0, KEY_BYTES);
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    /**
+     * Returns how many segments were found in the cache.
+     *
+     * @return the number of hits.
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns how many segments had to be simplified.
+     *
+     * @return the number of misses.
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        int total = hits.get() + misses.get();
+        return String.format("Chunk cache %s: reused %,d of %,d segments (%.1f%%)", directory, hits.get(), total,
+                100.0 * hits.get() / Math.max(1, total));
+    }
+}
@@ -1,45 +1,62 @@
 package ie.atu.sw.files;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import ie.atu.sw.Runner;
+import ie.atu.sw.embeddings.EmbeddingModel;
+import ie.atu.sw.embeddings.ModelRegistry;
+import ie.atu.sw.embeddings.SimilarityKernels;
+
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.*;
+import java.nio.file.Path;
 
 /**
  * The {@code EmbeddingsFile} class is a file containing word embeddings.
+ * Once processed it holds its own {@link EmbeddingModel}, which is registered by name in the
+ * {@link ModelRegistry} and made the active model.
  */
 public class EmbeddingsFile extends ProgramFile {
 
     /**
-     * A map that stores the word embeddings where the key is the word and the value is the embedding vector.
+     * The name the model is registered under.
+     */
+    private final String modelName;
+
+    /**
+     * The model loaded from the file, or {@code null} until the file is processed.
      */
-    private static Map<String, double[]> embeddings;
+    private EmbeddingModel model;
 
     /**
-     * Constructs an {@code EmbeddingsFile} object with the file path.
+     * Constructs an {@code EmbeddingsFile} object with the file path. The model is named after the file.
      *
      * @param filePath the path to the embeddings file.
      */
     public EmbeddingsFile(String filePath) {
+        this(filePath, Path.of(filePath).getFileName().toString());
+    }
+
+    /**
+     * Constructs an {@code EmbeddingsFile} object with the file path and the name to register its model under.
+     *
+     * @param filePath  the path to the embeddings file.
+     * @param modelName the name of the model.
+     */
+    public EmbeddingsFile(String filePath, String modelName) {
         super(filePath);
-        this.embeddings = new HashMap<>();
+        this.modelName = modelName;
     }
 
     /**
-     * Retrieves the embeddings map.
+     * Retrieves the model loaded from this file.
      *
-     * @return the map containing words and their corresponding embedding vectors.
+     * @return the model, or {@code null} if the file has not been processed.
      */
-    public static Map<String, double[]> getEmbeddings() {
-        return embeddings;
+    public EmbeddingModel getModel() {
+        return model;
     }
 
     /**
-     * Processes the embeddings file to load word embeddings into the {@code embeddings} variable.
+     * Processes the embeddings file into an immutable model, then registers it and makes it active in one
+     * atomic swap. Jobs already running keep the model they started with.
      *
      * @throws IOException           if an I/O error occurs while reading the file.
      * @throws InterruptedException  if the thread is interrupted while processing.
@@ -47,53 +64,13 @@ public class EmbeddingsFile extends ProgramFile {
     @Override
     public void process() throws IOException, InterruptedException {
 
-        // First we use the BufferReader to read in all the content from the EmbeddingsFile
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-
-            // Create an ExecutorService to handle all of our virtual threads
-            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
-
-            // Then we make an array for storing all the results
-            List<Future<Void>> futures = new ArrayList<>();
-            String line;
-
-            // Read each line and process embeddings asynchronously
-            while ((line = br.readLine()) != null) {
-                String finalLine = line;
-                futures.add(executor.submit(() -> {
-
-                    /** Now we must split each line of the embeddings
-                     *  into an array, where element 0 is the word and
-                     *  the rest of the array are the vectors
-                     */
-                    String[] parts = finalLine.split(",\\s*");
-                    if (parts.length > 1) {
-
-                        // Here we store all the vectors from element 1 onwards
-                        double[] values = new double[parts.length - 1];
-                        for (int i = 1, j = 0; i < parts.length; i++, j++) {
-                            values[j] = Double.parseDouble(parts[i]);
-                        }
-                        embeddings.put(parts[0], values);
-                    }
-                    return null;
-                }));
-            }
-
-            System.out.println("Embeddings loaded.");
-
-            // Wait for all asynchronous tasks to complete
-            for (Future<Void> future : futures) {
-                future.get();
-            }
+        System.out.println("Similarity kernel: " + SimilarityKernels.get().name());
 
-            // Terminate the executor once finished
-            executor.shutdown();
-            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                System.err.println("Executor did not terminate in time.");
-            }
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+        model = EmbeddingModel.load(modelName, Path.of(filePath), Runner.vectorFormat);
+        EmbeddingModel replaced = ModelRegistry.global().registerActive(model);
+        System.out.println(model.storageSummary());
+        if (replaced != null && replaced != model) {
+            System.out.println("Active model changed from " + replaced + " to " + model);
         }
     }
 }
@@ -1,51 +1,79 @@
 package ie.atu.sw.files;
 
 import ie.atu.sw.Runner;
+import ie.atu.sw.embeddings.CandidateSet;
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.EmbeddingModel;
+import ie.atu.sw.embeddings.HnswIndex;
+import ie.atu.sw.embeddings.ModelRegistry;
+import ie.atu.sw.embeddings.ProjectedSearch;
+import ie.atu.sw.embeddings.SimplificationTable;
+import ie.atu.sw.shards.ShardedSearch;
+import ie.atu.sw.utils.DebugLog;
 import ie.atu.sw.utils.Methods;
 
 import java.io.*;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The {@code Google1000File} class is a file containing a list of words.
- * It processes the file to find embeddings for each word and writes the results to the output file.
+ * It processes the file into the candidate set synonyms are chosen from, and sets up the search engine over
+ * those candidates, along with the precomputed simplification of every word if that is turned on.
+ * It writes nothing itself; simplified text is written out by an {@link OutputSink}.
  */
 public class Google1000File extends ProgramFile {
 
+    /**
+     * The extension added to the file name to name its saved simplification table.
+     */
+    public static final String TABLE_EXTENSION = ".table";
+
+    /**
+     * The extension added to the file name to name its saved HNSW index.
+     */
+    public static final String INDEX_EXTENSION = ".hnsw";
+
+    /**
+     * The extension added to the file name to name its saved candidate projection.
+     */
+    public static final String PROJECTION_EXTENSION = ".proj";
+
     /**
      * The embeddings file used to retrieve word vectors.
      */
     private EmbeddingsFile embeddingsFile;
 
     /**
-     * Hashmap for storing the words from the google file and their vectors
+     * The model the candidates were taken from, or {@code null} until the file is processed
+     */
+    private EmbeddingModel model;
+
+    /**
+     * The words from the google file and their normalized vectors, which synonyms are chosen from
      */
-    private Map<String, double[]> wordEmbeddingsMap;
+    private CandidateSet candidates;
 
     /**
-     * The output file where the results will be written.
+     * The best candidate of every vocabulary word, or {@code null} if it has not been precomputed
      */
-    private OutputFile outputFile;
+    private SimplificationTable simplifications;
 
     /**
-     * Constructs a {@code Google1000File} object with the file path, embeddings file, and output file.
+     * Constructs a {@code Google1000File} object with the file path and embeddings file.
      *
      * @param filePath       the path to the Google 1000 file.
      * @param embeddingsFile the embeddings file used for finding word vectors.
-     * @param outputFile     the output file where the results will be saved.
      */
-    public Google1000File(String filePath, EmbeddingsFile embeddingsFile, OutputFile outputFile) {
+    public Google1000File(String filePath, EmbeddingsFile embeddingsFile) {
         super(filePath);
         this.embeddingsFile = embeddingsFile;
-        this.outputFile = outputFile;
     }
 
     /**
-     * Processes the Google 1000 file by loading words into a map, retrieving their embeddings,
-     * and writing the results to the output file.
+     * Processes the Google 1000 file by reading its words, retrieving their embeddings into a
+     * compact candidate matrix, and making it the set synonyms are chosen from.
      *
      * @throws IOException           if an I/O error occurs while reading or writing files.
      * @throws InterruptedException  if the thread is interrupted while processing.
@@ -53,37 +81,167 @@ public class Google1000File extends ProgramFile {
     @Override
     public void process() throws IOException, InterruptedException {
 
-        // Load all words and their embeddings into a map
-        wordEmbeddingsMap = new HashMap<>();
+        // Load all words which have an embedding in the active model into a list
+        model = ModelRegistry.global().active();
+        EmbeddingMatrix embeddings = model.getMatrix();
+        List<String> words = new ArrayList<>();
 
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath));
-             BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile.getFilePath()))) {
+        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
 
             String word;
 
             // Read each word from the file and load its embedding
             while ((word = br.readLine()) != null) {
                 word = word.trim();
-                double[] embedding = EmbeddingsFile.getEmbeddings().get(word);
-
-                if (embedding != null) {
-                    wordEmbeddingsMap.put(word, embedding);
+                if (embeddings.contains(word)) {
+                    words.add(word);
                 } else {
                     if(Runner.isDebugging) {
-                        System.out.println("No embedding found for word: " + word);
+                        DebugLog.noEmbedding(word);
                     }
                 }
             }
+        }
+
+        // Copy the vectors of those words into their own matrix and search only that from now on
+        candidates = CandidateSet.fromWords(filePath, embeddings, words);
+        Methods.setCandidates(candidates);
+        Methods.setSearchEngine(switch (Runner.searchEngineType) {
+            case EXACT -> null;
+            case HNSW -> loadIndex();
+            case PROJECTED -> loadProjection(embeddings);
+            case SHARDED -> launchShards(embeddings);
+        });
+
+        simplifications = Runner.isPrecomputing ? loadSimplifications(embeddings) : null;
+    }
 
-            bw.flush();
+    /**
+     * Loads the simplification of every vocabulary word from disk, or works them all out in parallel
+     * and saves them for next time if the saved table is missing or out of date.
+     *
+     * @param embeddings the vocabulary to simplify.
+     * @return the simplification table.
+     * @throws IOException           if the saved table exists but cannot be read.
+     * @throws InterruptedException  if the thread is interrupted while precomputing.
+     */
+    private SimplificationTable loadSimplifications(EmbeddingMatrix embeddings) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Path tablePath = Path.of(filePath + TABLE_EXTENSION);
+        SimplificationTable table = SimplificationTable.load(tablePath, embeddings, candidates);
+        if (table != null) {
+            System.out.printf("Simplifications loaded from %s in %.0f ms%n", tablePath, (System.nanoTime() - start) / 1e6);
+            return table;
+        }
+
+        table = SimplificationTable.compute(embeddings, candidates);
+        System.out.printf("Simplifications precomputed for %,d words in %.0f ms%n",
+                embeddings.size(), (System.nanoTime() - start) / 1e6);
+        try {
+            table.save(tablePath);
+        } catch (IOException e) {
+            System.err.println("Could not save simplifications to " + tablePath + ": " + e.getMessage());
         }
+        return table;
+    }
+
+    /**
+     * Loads the HNSW index over the candidates from disk, or builds it and saves it for next time if the saved
+     * index is missing or out of date, then reports how its answers compare with an exact search.
+     * <p>
+     * Only the candidates are indexed, as they are the only rows a synonym is ever chosen from; the words of
+     * the text are looked up by row and never searched for. With the Google 1000 list that is about a thousand
+     * rows, so the index shows its worth only with a much longer candidate list.
+     *
+     * @return the index.
+     * @throws IOException           if the saved index exists but cannot be read.
+     * @throws InterruptedException  if the thread is interrupted while building.
+     */
+    private HnswIndex loadIndex() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Path indexPath = Path.of(filePath + INDEX_EXTENSION);
+        HnswIndex index = HnswIndex.load(indexPath, candidates.getMatrix());
+        if (index != null) {
+            System.out.printf("HNSW index loaded from %s in %.0f ms%n", indexPath, (System.nanoTime() - start) / 1e6);
+        } else {
+            index = HnswIndex.build(candidates.getMatrix(), HnswIndex.Parameters.fromSystemProperties());
+            System.out.printf("HNSW index built over %,d candidates in %.0f ms%n",
+                    candidates.getMatrix().size(), (System.nanoTime() - start) / 1e6);
+            try {
+                index.save(indexPath);
+            } catch (IOException e) {
+                System.err.println("Could not save the HNSW index to " + indexPath + ": " + e.getMessage());
+            }
+        }
+        System.out.println(index.recallReport(200, 10));
+        return index;
+    }
+
+    /**
+     * Loads the projection of the candidates from disk, or builds it and saves it for next time if the saved
+     * projection is missing or out of date, then reports how its answers compare with an exact search.
+     *
+     * @param embeddings the vocabulary the sample queries of the report are drawn from.
+     * @return the projected search.
+     * @throws IOException if the saved projection exists but cannot be read.
+     */
+    private ProjectedSearch loadProjection(EmbeddingMatrix embeddings) throws IOException {
+        long start = System.nanoTime();
+        Path projectionPath = Path.of(filePath + PROJECTION_EXTENSION);
+        ProjectedSearch.Parameters parameters = ProjectedSearch.Parameters.fromSystemProperties();
+        ProjectedSearch projection = ProjectedSearch.load(projectionPath, candidates.getMatrix(), parameters);
+        if (projection != null) {
+            System.out.printf("Candidate projection loaded from %s in %.0f ms%n", projectionPath, (System.nanoTime() - start) / 1e6);
+        } else {
+            projection = ProjectedSearch.build(candidates.getMatrix(), parameters);
+            System.out.printf("Candidate projection built over %,d candidates in %.0f ms%n",
+                    candidates.getMatrix().size(), (System.nanoTime() - start) / 1e6);
+            try {
+                projection.save(projectionPath);
+            } catch (IOException e) {
+                System.err.println("Could not save the candidate projection to " + projectionPath + ": " + e.getMessage());
+            }
+        }
+        System.out.println(projection.recallReport(embeddings, 1000, 1));
+        System.out.println(projection.recallReport(embeddings, 200, 10));
+        return projection;
+    }
+
+    /**
+     * Starts the worker processes of a sharded search over the candidates, each loading this file and the
+     * model's embeddings file, then reports how its answers compare with an exact search.
+     *
+     * @param embeddings the vocabulary the sample queries of the report are drawn from.
+     * @return the sharded search.
+     * @throws IOException           if a worker cannot be started or loaded different candidates.
+     * @throws InterruptedException  if the thread is interrupted while the workers start.
+     */
+    private ShardedSearch launchShards(EmbeddingMatrix embeddings) throws IOException, InterruptedException {
+        if (model.getSource() == null) throw new IOException("The shard workers need the model's embeddings file");
+        long start = System.nanoTime();
+        ShardedSearch shards = ShardedSearch.launch(model.getSource(), Path.of(filePath), model.getMatrix().format(),
+                candidates.getMatrix(), ShardedSearch.Parameters.fromSystemProperties(Runner.shardWorkers));
+        System.out.printf("%d shard workers started over %,d candidates in %.0f ms%n",
+                Runner.shardWorkers, candidates.getMatrix().size(), (System.nanoTime() - start) / 1e6);
+        System.out.println(shards.agreementReport(embeddings, 200, 10));
+        return shards;
+    }
+
+    /**
+     * Retrieves the model the candidates were taken from. A job should search this model rather than the
+     * active one, as the active model may since have been swapped for one the candidates do not belong to.
+     *
+     * @return the model, or {@code null} if the file has not been processed.
+     */
+    public EmbeddingModel getModel() {
+        return model;
     }
 
-    public Map<String,double[]> getWordEmbeddings() {
-        return wordEmbeddingsMap;
+    public SimplificationTable getSimplifications() {
+        return simplifications;
     }
 
-    public void setWordEmbeddings(Map<String,double[]> wordEmbeddingsMap) {
-        this.wordEmbeddingsMap = wordEmbeddingsMap;
+    public CandidateSet getCandidates() {
+        return candidates;
     }
 }
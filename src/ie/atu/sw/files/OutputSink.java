@@ -0,0 +1,304 @@
+package ie.atu.sw.files;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The {@code OutputSink} class writes simplified text to a file through large, reused buffers. Text is encoded
+ * to UTF-8 straight from the simplified segments into one buffer, optionally gzip-compressed on the way, and
+ * written through a direct buffer to a {@link FileChannel} whenever it fills, so no strings or byte arrays are
+ * made per segment.
+ * <p>
+ * The text is written to a temporary file beside the target, which only takes the target's name once
+ * {@link #commit()} is called, with an atomic rename where the file system allows it. Anyone watching the
+ * directory sees either no output or all of it. Closing a sink which was never committed deletes the temporary file.
+ */
+public class OutputSink implements AutoCloseable {
+
+    /**
+     * How the output is compressed.
+     */
+    public enum Compression {
+        /**
+         * Plain UTF-8 text.
+         */
+        NONE,
+        /**
+         * A gzip stream, named with a {@code .gz} extension. The level is set with {@code -Dsimplifier.output.gzipLevel}.
+         */
+        GZIP
+    }
+
+    /**
+     * The size of each buffer, set with {@code -Dsimplifier.output.buffer}.
+     */
+    private static final int BUFFER_SIZE = Integer.getInteger("simplifier.output.buffer", 256 * 1024);
+
+    /**
+     * The number of characters copied out of a {@link CharSequence} at a time.
+     */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * The gzip compression level; fast by default, since the text is streamed as it is simplified.
+     */
+    private static final int GZIP_LEVEL = Integer.getInteger("simplifier.output.gzipLevel", Deflater.BEST_SPEED);
+
+    /**
+     * The fixed gzip header: the magic number, deflate, no flags, no time, and an unknown operating system.
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Path target;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final char[] chunk = new char[CHUNK_SIZE];
+
+    /**
+     * The characters being encoded, empty between appends unless half a surrogate pair is left over.
+     */
+    private final CharBuffer chunkBuffer = CharBuffer.wrap(chunk).limit(0);
+
+    /**
+     * The encoded text waiting to be written or compressed. It is backed by an array so the encoder can take
+     * its fast path, and copied in one go into the direct buffer for the channel.
+     */
+    private final ByteBuffer encoded = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * The bytes handed to the channel, reused for every write.
+     */
+    private final ByteBuffer direct = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Deflater deflater;
+    private final CRC32 crc;
+
+    private long charsWritten;
+    private long bytesWritten;
+    private boolean committed;
+    private boolean closed;
+
+    private OutputSink(Path target, Compression compression) throws IOException {
+        this.target = target;
+        Files.createDirectories(target.toAbsolutePath().getParent());
+
+        // A hidden file beside the target, so the rename stays on one file system
+        this.temporary = target.resolveSibling("." + target.getFileName() + "." + ProcessHandle.current().pid()
+                + "." + Long.toHexString(System.nanoTime()) + ".part");
+        this.channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+
+        if (compression == Compression.GZIP) {
+            deflater = new Deflater(GZIP_LEVEL, true);
+            crc = new CRC32();
+            direct.put(GZIP_HEADER);
+        } else {
+            deflater = null;
+            crc = null;
+        }
+    }
+
+    /**
+     * Opens a sink which will write to a file once committed.
+     *
+     * @param path        the file to write; {@code .gz} is added to the name when compressing, unless already there.
+     * @param compression how to compress the output.
+     * @return the open sink.
+     * @throws IOException if the temporary file cannot be created.
+     */
+    public static OutputSink open(Path path, Compression compression) throws IOException {
+        Path target = compression == Compression.GZIP && !path.getFileName().toString().endsWith(".gz")
+                ? path.resolveSibling(path.getFileName() + ".gz")
+                : path;
+        return new OutputSink(target, compression);
+    }
+
+    /**
+     * Returns the path the output will have once committed.
+     *
+     * @return the target path.
+     */
+    public Path getPath() {
+        return target;
+    }
+
+    /**
+     * Encodes text into the buffer, writing the buffer out whenever it fills.
+     *
+     * @param text the text to write.
+     * @return this sink.
+     * @throws IOException if the file cannot be written.
+     *
+     * @runtimeNotation O(n), where n is the length of the text.
+     * @runtimeExplanation Each character is copied once into a small chunk and encoded once into the buffer.
+     */
+    public OutputSink append(CharSequence text) throws IOException {
+        int length = text.length();
+        int from = 0;
+        while (from < length) {
+            int offset = chunkBuffer.remaining();
+            int to = Math.min(length, from + CHUNK_SIZE - offset);
+            copy(text, from, to, offset);
+            chunkBuffer.clear().limit(offset + to - from);
+            encode(false);
+
+            // The high half of a surrogate pair split between chunks is left over; move it to the front
+            chunkBuffer.compact().flip();
+            from = to;
+        }
+        charsWritten += length;
+        return this;
+    }
+
+    /**
+     * Copies part of a character sequence into the chunk, avoiding a per-character call where the type allows.
+     */
+    private void copy(CharSequence text, int from, int to, int offset) {
+        if (text instanceof String s) {
+            s.getChars(from, to, chunk, offset);
+        } else if (text instanceof StringBuilder sb) {
+            sb.getChars(from, to, chunk, offset);
+        } else {
+            for (int i = from; i < to; i++) {
+                chunk[offset + i - from] = text.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * Encodes the chunk into the buffer, draining the buffer whenever it fills. Both are backed by arrays,
+     * which lets the encoder take its intrinsic ASCII path.
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        while (encoder.encode(chunkBuffer, encoded, endOfInput).isOverflow()) {
+            drain();
+        }
+    }
+
+    /**
+     * Hands the encoded bytes on: to the file, or through the compressor.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    private void drain() throws IOException {
+        byte[] bytes = encoded.array();
+        int length = encoded.position();
+        if (deflater == null) {
+            direct.put(bytes, 0, length);
+            writeDirect();
+        } else {
+            crc.update(bytes, 0, length);
+            deflater.setInput(bytes, 0, length);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+        encoded.clear();
+    }
+
+    /**
+     * Compresses what the deflater will give into the direct buffer, writing the buffer out once full.
+     */
+    private void deflate() throws IOException {
+        deflater.deflate(direct, Deflater.NO_FLUSH);
+        if (!direct.hasRemaining()) {
+            writeDirect();
+        }
+    }
+
+    /**
+     * Writes the direct buffer out and clears it.
+     */
+    private void writeDirect() throws IOException {
+        direct.flip();
+        while (direct.hasRemaining()) {
+            bytesWritten += channel.write(direct);
+        }
+        direct.clear();
+    }
+
+    /**
+     * Writes out everything still buffered, finishes the compressed stream, and renames the temporary file to
+     * its target, replacing any file already there.
+     *
+     * @return the path of the written file.
+     * @throws IOException if the file cannot be written or renamed.
+     */
+    public Path commit() throws IOException {
+        if (closed) throw new IllegalStateException("The sink is closed");
+
+        // A high surrogate left at the very end has no pair, and is written as a replacement
+        encode(true);
+        while (encoder.flush(encoded).isOverflow()) {
+            drain();
+        }
+        drain();
+
+        if (deflater != null) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+
+            // The gzip trailer holds the checksum and length of the uncompressed text, little-endian
+            if (direct.remaining() < 8) writeDirect();
+            direct.order(ByteOrder.LITTLE_ENDIAN).putInt((int) crc.getValue()).putInt((int) deflater.getBytesRead());
+        }
+        writeDirect();
+
+        channel.close();
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+        close();
+        return target;
+    }
+
+    /**
+     * Returns how many characters have been written.
+     *
+     * @return the number of characters appended.
+     */
+    public long getCharsWritten() {
+        return charsWritten;
+    }
+
+    /**
+     * Returns how many bytes have reached the file so far, after any compression.
+     *
+     * @return the number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Releases the file and the compressor. If the sink was never committed the temporary file is deleted,
+     * and the target is left as it was.
+     *
+     * @throws IOException if the temporary file cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (deflater != null) deflater.end();
+        if (!committed) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package ie.atu.sw.files;
+
+import ie.atu.sw.Runner;
+import ie.atu.sw.embeddings.CandidateSet;
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.EmbeddingModel;
+import ie.atu.sw.embeddings.SearchEngine;
+import ie.atu.sw.embeddings.SimplificationTable;
+import ie.atu.sw.metrics.Metrics;
+import ie.atu.sw.text.TextCase;
+import ie.atu.sw.text.Tokenizer;
+import ie.atu.sw.utils.DebugLog;
+import ie.atu.sw.utils.Methods;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code SegmentSimplifier} class simplifies text one segment at a time with the model, candidates,
+ * precomputed table and minimum similarity of a {@link Google1000File}, taken once when it is constructed. Swapping any of them
+ * afterwards cannot mix two of them within one job, so a job should use one {@code SegmentSimplifier} throughout.
+ */
+public class SegmentSimplifier {
+
+    /**
+     * The fewest characters of text simplified by one task, unless the text ends first.
+     */
+    public static final int MIN_SEGMENT_SIZE = 4 * 1024;
+
+    /**
+     * The most characters of text simplified by one task. A segment is only cut this long when no
+     * content-defined cut point turned up before it.
+     */
+    public static final int MAX_SEGMENT_SIZE = 64 * 1024;
+
+    /**
+     * The bits of the rolling hash which must all be zero at a whitespace character for the segment to end there.
+     * With a whitespace character every six or so, eleven bits make segments of about 16K characters.
+     * The top bits are used because they depend on the last 64 characters, where the low bits depend on only the last few.
+     */
+    private static final long CUT_MASK = -1L << (Long.SIZE - 11);
+
+    /**
+     * A random number for every byte value, fixed so that the same text is always cut in the same places.
+     */
+    private static final long[] GEAR = new SplittableRandom(0x5eed_0f_5e9e17L).longs(256).toArray();
+
+    private final EmbeddingModel model;
+    private final CandidateSet candidates;
+    private final SimplificationTable table;
+    private final float minSimilarity;
+
+    /**
+     * Constructs a {@code SegmentSimplifier} from what the Google 1000 File holds now.
+     *
+     * @param google1000File the Google 1000 file synonyms are chosen from.
+     */
+    public SegmentSimplifier(Google1000File google1000File) {
+        this.model = google1000File.getModel();
+        this.candidates = google1000File.getCandidates();
+        this.table = google1000File.getSimplifications();
+        this.minSimilarity = Methods.getMinSimilarity();
+    }
+
+    public EmbeddingModel getModel() {
+        return model;
+    }
+
+    public CandidateSet getCandidates() {
+        return candidates;
+    }
+
+    public float getMinSimilarity() {
+        return minSimilarity;
+    }
+
+    /**
+     * Reads text a buffer at a time and hands it on in segments which end at a whitespace
+     * character, so that no word is split between two segments.
+     * <p>
+     * The cut points are defined by the content rather than by position: a rolling hash of the last 64
+     * characters is kept, and a segment ends at the first whitespace character past {@link #MIN_SEGMENT_SIZE}
+     * where the hash matches {@link #CUT_MASK}. An edit therefore only moves the cut points next to it, and
+     * every other segment of an edited text is the same as before, which is what lets a {@link ChunkCache} reuse them.
+     *
+     * @param in        the text to read.
+     * @param charsRead counts the characters read so far, for a progress meter.
+     * @param consumer  receives each segment of text, in order.
+     * @throws IOException          if the text cannot be read.
+     * @throws InterruptedException if the thread is interrupted while handing on a segment.
+     *
+     * @runtimeNotation O(n), where n is the length of the text.
+     * @runtimeExplanation Each character is hashed once and copied into at most two buffers.
+     */
+    public static void readSegments(Reader in, AtomicLong charsRead, SegmentConsumer consumer) throws IOException, InterruptedException {
+        char[] buffer = new char[MAX_SEGMENT_SIZE];
+        int filled = 0;
+        int scanned = 0;
+        long hash = 0;
+        int read;
+
+        while ((read = in.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += read;
+            charsRead.addAndGet(read);
+
+            // Roll the hash over the new characters, cutting wherever the content says to
+            while (scanned < filled) {
+                char c = buffer[scanned++];
+                hash = (hash << 1) + GEAR[(c ^ (c >>> 8)) & 0xFF];
+                if (scanned >= MIN_SEGMENT_SIZE && (hash & CUT_MASK) == 0 && Character.isWhitespace(c)) {
+                    filled = cut(buffer, scanned, filled, consumer);
+                    scanned = 0;
+                }
+            }
+            if (filled < buffer.length) continue;
+
+            // No cut point in the longest segment allowed: cut after the last whitespace character instead
+            int cut = filled;
+            while (cut > 0 && !Character.isWhitespace(buffer[cut - 1])) cut--;
+            if (cut == 0) cut = filled;
+            filled = cut(buffer, cut, filled, consumer);
+            scanned = filled;
+        }
+
+        if (filled > 0) {
+            consumer.accept(Arrays.copyOf(buffer, filled));
+        }
+    }
+
+    /**
+     * Hands on the start of the buffer as a segment and moves the rest of it to the front.
+     *
+     * @return how much of the buffer is still filled.
+     */
+    private static int cut(char[] buffer, int cut, int filled, SegmentConsumer consumer) throws InterruptedException {
+        consumer.accept(Arrays.copyOf(buffer, cut));
+        System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+        return filled - cut;
+    }
+
+    /**
+     * Simplifies one segment of text. Whitespace and punctuation are copied across unchanged, and each
+     * word is looked up in lower case and replaced in the casing it was written in.
+     *
+     * @param segment the characters of the segment.
+     * @return the simplified segment.
+     *
+     * @runtimeNotation O(n) with a precomputed table, otherwise O(n + u * k * m) in the worst case.
+     * @runtimeExplanation Each of the n characters is tokenized once; each of the u distinct uncached words needs a scan of the k candidates.
+     */
+    public Simplified simplify(char[] segment) {
+        Metrics.Timer timer = Metrics.start(Metrics.Stage.SEGMENT);
+        boolean timed = Metrics.isActive();
+        CharBuffer text = CharBuffer.wrap(segment);
+        Tokenizer tokenizer = new Tokenizer(text);
+        StringBuilder out = new StringBuilder(segment.length + segment.length / 8);
+        StringBuilder folded = new StringBuilder();
+        EmbeddingMatrix matrix = model.getMatrix();
+        int words = 0, replaced = 0;
+
+        while (tokenizer.next()) {
+            int start = tokenizer.start(), end = tokenizer.end();
+            if (tokenizer.kind() != Tokenizer.Kind.WORD) {
+                out.append(segment, start, end - start);
+                continue;
+            }
+
+            words++;
+            long tokenStart = timed ? System.nanoTime() : 0L;
+
+            // Most words are written in lower case and are looked up straight from the segment;
+            // the rest are folded into a builder reused for every word. No string is made for either
+            boolean folding = !TextCase.isLowerCase(text, start, end);
+            if (folding) {
+                folded.setLength(0);
+                TextCase.appendLowerCase(text, start, end, folded);
+            }
+            int row = folding ? matrix.indexOf(folded) : matrix.indexOf(segment, start, end - start);
+            String synonym = row < 0 ? null
+                    : table != null ? table.simplify(row, minSimilarity)
+                    : search(folding ? folded.toString() : new String(segment, start, end - start));
+            if (Runner.isDebugging) {
+                String word = folding ? folded.toString() : new String(segment, start, end - start);
+                if (synonym != null) {
+                    DebugLog.swapped(word, synonym);
+                } else {
+                    DebugLog.kept(word);
+                }
+            }
+
+            if (synonym != null) {
+                TextCase.appendMatchingCase(synonym, text, start, end, out);
+                replaced++;
+            } else {
+                out.append(segment, start, end - start);
+            }
+            if (timed) Metrics.record(Metrics.Stage.TOKEN, System.nanoTime() - tokenStart, 1);
+        }
+        if (timed) Metrics.replaced(replaced);
+        timer.stop(segment.length);
+        return new Simplified(out, words);
+    }
+
+    /**
+     * Lists the distinct words of a segment that would need a similarity search to simplify: words which are
+     * not candidates, have an embedding, and are neither precomputed nor in the synonym cache. They can be
+     * searched for together, and the cache filled, before the segment is simplified.
+     *
+     * @param segment the characters of the segment.
+     * @return the words to search for, in lower case, in the order they first appear.
+     */
+    public Set<String> uncachedWords(char[] segment) {
+        Set<String> words = new LinkedHashSet<>();
+        if (table != null) return words;
+
+        CharBuffer text = CharBuffer.wrap(segment);
+        Tokenizer tokenizer = new Tokenizer(text);
+        StringBuilder folded = new StringBuilder();
+        EmbeddingMatrix matrix = model.getMatrix();
+        long version = cacheVersion();
+        while (tokenizer.next()) {
+            if (tokenizer.kind() != Tokenizer.Kind.WORD) continue;
+            folded.setLength(0);
+            TextCase.appendLowerCase(text, tokenizer.start(), tokenizer.end(), folded);
+
+            // Words without an embedding are skipped before a string is made of them
+            if (!matrix.contains(folded)) continue;
+            String word = folded.toString();
+            if (!isCandidate(word) && Methods.getSynonymCache().peek(word, version) == null) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Fills the synonym cache with the {@link #uncachedWords uncached words} of a segment in one batch, if the
+     * search engine {@link SearchEngine#prefersBatches() prefers batches}; otherwise the words are left to be
+     * searched for one at a time as the segment is simplified.
+     *
+     * @param segment the characters of the segment.
+     *
+     * @runtimeNotation O(n + u * k * m), where n is the length of the segment, u the number of uncached words, k the number of candidates and m the vector size.
+     * @runtimeExplanation The segment is tokenized once, and all u words are searched for in a single batch.
+     */
+    public void prefetch(char[] segment) {
+        EmbeddingMatrix searched = candidates != null ? candidates.getMatrix() : model.getMatrix();
+        SearchEngine engine = Methods.getSearchEngine();
+        if (table != null || engine == null || engine.getMatrix() != searched || !engine.prefersBatches()) return;
+
+        Set<String> words = uncachedWords(segment);
+        if (words.isEmpty()) return;
+        String[] batch = words.toArray(String[]::new);
+        String[][] synonyms = Methods.findBatchSynonyms(batch, 1, minSimilarity, model, candidates);
+        long version = cacheVersion();
+        for (int i = 0; i < batch.length; i++) {
+            Methods.getSynonymCache().put(batch[i], version, synonyms[i].length > 0 ? synonyms[i][0] : batch[i]);
+        }
+    }
+
+    /**
+     * Returns the version synonyms found with this model, these candidates and this minimum similarity are cached under.
+     *
+     * @return the synonym cache version.
+     */
+    public long cacheVersion() {
+        return Methods.cacheVersion(model, candidates, minSimilarity);
+    }
+
+    /**
+     * Describes everything the simplified text of a segment depends on besides the segment itself: the model,
+     * the candidates, the minimum similarity, and whether synonyms come from the table, an exact scan or an
+     * approximate index. Two simplifiers with the same signature simplify any segment the same way.
+     *
+     * @return the signature.
+     *
+     * @runtimeNotation O(n * w) the first time a model or candidate set is used, then O(1).
+     * @runtimeExplanation The fingerprints of the matrices are worked out once and kept.
+     */
+    public String signature() {
+        EmbeddingMatrix matrix = model.getMatrix();
+        EmbeddingMatrix searched = candidates != null ? candidates.getMatrix() : matrix;
+        SearchEngine engine = Methods.getSearchEngine();
+        String search = table != null ? "table"
+                : engine != null && engine.getMatrix() == searched ? engine.name() : "exact";
+        return String.format("%016x/%016x/%s/%s/%s", matrix.fingerprint(), searched.fingerprint(),
+                matrix.format(), Float.floatToIntBits(minSimilarity), search);
+    }
+
+    /**
+     * Resolves a word with an embedding but no precomputed table. Words which are already candidates are
+     * kept, any other word is swapped for its closest candidate, as long as that is similar enough.
+     *
+     * @param word the word to resolve, in lower case.
+     * @return the synonym to write out, or {@code null} to keep the original word.
+     */
+    private String search(String word) {
+        if (isCandidate(word)) return null;
+        String synonym = Methods.findCachedSynonym(word, model, candidates, minSimilarity);
+
+        // No candidate was close enough, so the word is left exactly as it was written
+        return synonym.equals(word) ? null : synonym;
+    }
+
+    private boolean isCandidate(CharSequence word) {
+        return candidates != null && candidates.contains(word);
+    }
+
+    /**
+     * A simplified segment of text.
+     *
+     * @param text  the simplified text to write out.
+     * @param words the number of words in the segment.
+     */
+    public record Simplified(CharSequence text, int words) {
+    }
+
+    /**
+     * Receives the segments of text as they are read.
+     */
+    @FunctionalInterface
+    public interface SegmentConsumer {
+        void accept(char[] segment) throws InterruptedException;
+    }
+}
@@ -1,19 +1,61 @@
 package ie.atu.sw.files;
 
 import ie.atu.sw.Runner;
+import ie.atu.sw.metrics.Metrics;
+import ie.atu.sw.utils.DebugLog;
 import ie.atu.sw.utils.Methods;
+import ie.atu.sw.utils.ProgressReporter;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static ie.atu.sw.utils.Methods.findBestSynonym;
-
+/**
+ * The {@code SelectedFile} class is the text file chosen to be simplified.
+ * It is streamed through in segments which are simplified concurrently and written out in their original order.
+ */
 public class SelectedFile extends ProgramFile {
 
+    /**
+     * The threads the segments of text can be simplified on.
+     */
+    public enum ThreadingMode {
+        /**
+         * One virtual thread per segment, with a semaphore allowing only one running segment per core.
+         */
+        VIRTUAL,
+        /**
+         * A fork/join pool of platform threads, one per core.
+         */
+        FORK_JOIN
+    }
+
+    /**
+     * Marks the end of the segments in the queue between the reader and the writer.
+     */
+    private static final Future<SimplifiedSegment> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    /**
+     * The scan is bound by the CPU, so never let more segments be simplified at once than there are cores.
+     * The permits are shared by every file being simplified in the JVM, so files simplified side by side
+     * divide the cores between them rather than each claiming all of them.
+     */
+    private static final Semaphore PERMITS = new Semaphore(Runtime.getRuntime().availableProcessors());
+
     private EmbeddingsFile embeddingsFile;
     private Google1000File google1000File;
     private OutputFile outputFile;
 
+    /**
+     * Constructs a {@code SelectedFile} object with the file path and the files it is simplified with.
+     *
+     * @param filePath       the path to the text file.
+     * @param embeddingsFile the embeddings file used for finding word vectors.
+     * @param google1000File the Google 1000 file synonyms are chosen from.
+     * @param outputFile     the output file where the simplified text will be saved.
+     */
     public SelectedFile(String filePath, EmbeddingsFile embeddingsFile, Google1000File google1000File, OutputFile outputFile) {
         super(filePath);
         this.embeddingsFile = embeddingsFile;
@@ -21,46 +63,197 @@ public class SelectedFile extends ProgramFile {
         this.outputFile = outputFile;
     }
 
+    /**
+     * Processes the text file as a stream and reports how long it took.
+     *
+     * @throws IOException           if an I/O error occurs while reading or writing files.
+     * @throws InterruptedException  if the thread is interrupted while processing.
+     */
     @Override
     public void process() throws IOException, InterruptedException {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath));
-             BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile.getFilePath()))) {
-
-            // Read the entire content of the file into a single string
-            StringBuilder contentBuilder = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                contentBuilder.append(line).append(" ");
-            }
+        Summary summary = simplify(true);
+        DebugLog.flush();
+        System.out.printf("Simplified %,d words in %.0f ms (%,.0f words/s) using %s threads%n",
+                summary.words(), summary.nanos() / 1e6, summary.wordsPerSecond(), summary.mode());
+        if (google1000File.getSimplifications() == null) {
+            System.out.println(Methods.getSynonymCache());
+        }
+        if (Runner.chunkCacheDirectory != null) {
+            System.out.printf("Reused %,d of %,d segments from the chunk cache in %s%n",
+                    summary.reused(), summary.segments(), Runner.chunkCacheDirectory);
+        }
+    }
 
-            String[] words = contentBuilder.toString().trim().split("\\s+");
-            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
-
-
-            int index = 0;
-            // Process words
-            for (String word : words) {
-                if (google1000File.getWordEmbeddings().containsKey(word)) {
-                    String synonym = findBestSynonym(word);
-                    if(Runner.isDebugging) {
-                        System.out.println("Swapping word: '" + word + "' with synonym: '" + synonym + "'");
-                    }
-                    Methods.printProgress(index++, words.length);
-                    bw.write(synonym + " ");
-                } else {
-                    if(Runner.isDebugging) {
-                        System.out.println("No synonym found for word: '" + word + "', keeping original.");
-                    }
-                    bw.write(word + " ");
-                }
+    /**
+     * Simplifies the text file as a stream. A reader thread cuts the text into segments on whitespace and hands
+     * each one to the workers, a bounded queue holds the segments in flight, and this thread writes every
+     * segment out in its original order as soon as it is simplified. Whitespace, punctuation and casing are kept.
+     * Memory use depends on the queue size rather than the size of the file, and output begins as soon as the
+     * first segment is done.
+     * <p>
+     * When {@link Runner#chunkCacheDirectory} is set, each segment is first looked up in a {@link ChunkCache},
+     * and only the segments which are not there are simplified, and then stored for the next run.
+     *
+     * @param showProgress whether to draw the progress meter, which should be off when several files run at once.
+     *                     The meter is drawn by a {@link ProgressReporter} on its own thread.
+     * @return how much was simplified and how long it took.
+     * @throws IOException           if an I/O error occurs while reading or writing files.
+     * @throws InterruptedException  if the thread is interrupted while processing.
+     */
+    public Summary simplify(boolean showProgress) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long fileSize = Math.max(1, new File(filePath).length());
+
+        // Take the model, candidates and table once, so that swapping them mid-job cannot mix two of them
+        SegmentSimplifier simplifier = new SegmentSimplifier(google1000File);
+        Path cacheDirectory = Runner.chunkCacheDirectory;
+        ChunkCache cache = cacheDirectory != null ? new ChunkCache(cacheDirectory, simplifier) : null;
+
+        ThreadingMode mode = Runner.threadingMode;
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService workers = mode == ThreadingMode.FORK_JOIN
+                ? new ForkJoinPool(cores)
+                : Executors.newVirtualThreadPerTaskExecutor();
+
+        // The segments in flight, in the order they were read. Once it is full the reader waits for the writer.
+        BlockingQueue<Future<SimplifiedSegment>> pending = new ArrayBlockingQueue<>(cores * 4);
+        AtomicLong charsRead = new AtomicLong();
+
+        // The progress meter counts bytes, as the file size does, since a character may take several bytes
+        AtomicLong bytesRead = new AtomicLong();
+
+        ExecutorService readerThread = Executors.newSingleThreadExecutor(Thread.ofVirtual().factory());
+        Future<?> reader = readerThread.submit(() -> {
+            try (Reader in = new InputStreamReader(new CountingInputStream(new FileInputStream(filePath), bytesRead), Charset.defaultCharset())) {
+                SegmentSimplifier.readSegments(in, charsRead, segment -> {
+                    long read = bytesRead.get();
+                    pending.put(workers.submit(() -> {
+
+                        // A segment seen before is read back from the cache, which needs no permit as it hardly uses the CPU
+                        SegmentSimplifier.Simplified simplified = cache != null ? cache.get(segment) : null;
+                        if (simplified != null) {
+                            return new SimplifiedSegment(simplified.text(), simplified.words(), read);
+                        }
+
+                        // An engine which prefers batches is asked for the segment's words at once, mostly waiting on other processes
+                        simplifier.prefetch(segment);
+                        PERMITS.acquire();
+                        try {
+                            simplified = simplifier.simplify(segment);
+                        } finally {
+                            PERMITS.release();
+                        }
+                        if (cache != null) cache.put(segment, simplified);
+                        return new SimplifiedSegment(simplified.text(), simplified.words(), read);
+                    }));
+                });
+                pending.put(END_OF_INPUT);
+            } catch (Exception e) {
+                pending.put(CompletableFuture.failedFuture(e));
             }
+            return null;
+        });
+
+        // The writer only updates these; the progress meter samples them from its own thread
+        AtomicLong bytesWritten = new AtomicLong();
+        AtomicLong wordsWritten = new AtomicLong();
+        ProgressReporter progress = showProgress ? new ProgressReporter(fileSize, bytesWritten::get, wordsWritten::get) : null;
 
-            executor.shutdown();
-            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+        // The output only takes its name once it is complete, so a failed run never leaves half a file behind
+        long written = 0;
+        int segments = 0;
+        Path output;
+        try (OutputSink sink = OutputSink.open(Path.of(outputFile.getFilePath()), Runner.outputCompression)) {
+
+            // Write each segment out as soon as it and every segment before it are done
+            Future<SimplifiedSegment> next;
+            while ((next = pending.take()) != END_OF_INPUT) {
+                SimplifiedSegment simplified = next.get();
+                Metrics.Timer timer = Metrics.start(Metrics.Stage.WRITE);
+                sink.append(simplified.text());
+                timer.stop(simplified.text().length());
+                written += simplified.words();
+                segments++;
+                wordsWritten.lazySet(written);
+                bytesWritten.lazySet(simplified.bytesRead());
+            }
+            output = sink.commit();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (progress != null) progress.close();
+            reader.cancel(true);
+            readerThread.shutdown();
+            workers.shutdown();
+            if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
                 System.err.println("Executor did not terminate in time.");
             }
+        }
+
+        int reused = cache != null ? cache.getHits() : 0;
+        return new Summary(filePath, output.toString(), written, charsRead.get(), System.nanoTime() - start, mode, reused, segments);
+    }
 
-            bw.flush();
+    /**
+     * How much of a file was simplified and how long it took.
+     *
+     * @param input    the path of the text file.
+     * @param output   the path of the simplified file.
+     * @param words    the number of words read.
+     * @param chars    the number of characters read.
+     * @param nanos    the time taken, in nanoseconds.
+     * @param mode     the threads the words were resolved on.
+     * @param reused   the number of segments read back from the chunk cache rather than simplified.
+     * @param segments the number of segments the text was cut into.
+     */
+    public record Summary(String input, String output, long words, long chars, long nanos, ThreadingMode mode,
+                          int reused, int segments) {
+
+        /**
+         * Returns the number of words simplified per second.
+         *
+         * @return the throughput in words per second.
+         */
+        public double wordsPerSecond() {
+            return words / Math.max(1e-9, nanos / 1e9);
         }
     }
+
+    /**
+     * A simplified segment of text.
+     *
+     * @param text      the simplified text to write out.
+     * @param words     the number of words in the segment.
+     * @param bytesRead how many bytes of the file had been read when the segment was cut.
+     */
+    private record SimplifiedSegment(CharSequence text, int words, long bytesRead) {
+    }
+
+    /**
+     * Counts the bytes read through it, so progress can be measured against the size of the file.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong read;
+
+        CountingInputStream(InputStream in, AtomicLong read) {
+            super(in);
+            this.read = read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) read.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) read.addAndGet(n);
+            return n;
+        }
+    }
+
 }
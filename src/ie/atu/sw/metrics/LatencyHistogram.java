@@ -0,0 +1,162 @@
+package ie.atu.sw.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code LatencyHistogram} class records durations in log-linear buckets, in the manner of HdrHistogram:
+ * every power of two is split into 16 equal buckets, so any recorded value is known to within about 6% while
+ * the whole range from a nanosecond to several minutes fits in a few hundred counters. Recording is a handful
+ * of bit operations and one atomic increment, and threads are spread over striped copies of the counters so
+ * that they rarely contend on the same cache line.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits below the leading bit that pick the bucket within a power of two.
+     */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The highest power of two tracked; larger values are counted in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructs an empty {@code LatencyHistogram} with one stripe per core.
+     */
+    public LatencyHistogram() {
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     *
+     * @runtimeNotation O(1)
+     * @runtimeExplanation The bucket is found from the position of the leading bit, with no search.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int stripe = (int) (Thread.currentThread().threadId() & (stripes.length - 1));
+        stripes[stripe].incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Finds the bucket a value is counted in.
+     *
+     * @param value the value, not negative.
+     * @return the bucket index.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Finds the smallest value counted in a bucket.
+     *
+     * @param bucket the bucket index.
+     * @return the lowest value of the bucket.
+     */
+    static long lowestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of every recorded duration.
+     *
+     * @return the total in nanoseconds.
+     */
+    public long getTotal() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded durations.
+     *
+     * @return the mean in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / (double) n;
+    }
+
+    /**
+     * Estimates a percentile of the recorded durations from the buckets.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the middle of the bucket the percentile falls in, in nanoseconds, or 0 if nothing was recorded.
+     *
+     * @runtimeNotation O(b * s), where b is the number of buckets and s the number of stripes.
+     * @runtimeExplanation The stripes are summed into one set of buckets, which is then walked until the percentile is reached.
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                counts[i] += c;
+                total += c;
+            }
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long low = lowestValueOf(i);
+                long high = i + 1 < BUCKETS ? lowestValueOf(i + 1) - 1 : low;
+                return Math.min(max.get(), low + (high - low) / 2);
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears every count.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,409 @@
+package ie.atu.sw.metrics;
+
+import ie.atu.sw.embeddings.SynonymCache;
+import ie.atu.sw.utils.Methods;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code Metrics} class measures where the time goes in the pipeline: a {@link LatencyHistogram} and an item
+ * counter for each {@link Stage}, plus a Flight Recorder {@link StageEvent} each time a stage finishes. It reads
+ * them back as text or JSON, periodically if asked, and through the {@link SimplifierMetricsMXBean} over JMX.
+ * <p>
+ * Everything is off until {@link #setEnabled(boolean)} is called, the {@code simplifier.metrics} system property
+ * is set, or a Flight Recorder recording starts. While off, the hot paths pay for one read of a volatile flag.
+ */
+public final class Metrics {
+
+    /**
+     * The stages of the pipeline that are timed.
+     */
+    public enum Stage {
+        /**
+         * Loading an embeddings model; the items are the words loaded.
+         */
+        LOAD,
+        /**
+         * Precomputing the simplification of every word; the items are the words simplified.
+         */
+        PRECOMPUTE,
+        /**
+         * Tokenizing and resolving one segment of text; the items are the characters of the segment.
+         */
+        SEGMENT,
+        /**
+         * Resolving one word of a segment, whether from the table, the cache or a search. Not sent to Flight Recorder.
+         */
+        TOKEN,
+        /**
+         * Searching the candidates for the synonym of a word the cache did not hold.
+         */
+        LOOKUP,
+        /**
+         * Writing one simplified segment out; the items are the characters written.
+         */
+        WRITE;
+
+        /**
+         * Whether the stage happens often enough that a Flight Recorder event per occurrence would cost too much.
+         */
+        boolean isTooFrequentToTrace() {
+            return this == TOKEN;
+        }
+    }
+
+    /**
+     * How a report is formatted.
+     */
+    public enum Format {
+        TEXT,
+        JSON
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[STAGES.length];
+    private static final LongAdder[] ITEMS = new LongAdder[STAGES.length];
+    private static final LongAdder REPLACED = new LongAdder();
+
+    static {
+        for (int i = 0; i < STAGES.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram();
+            ITEMS[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Whether metrics were switched on by hand.
+     */
+    private static volatile boolean enabled = Boolean.getBoolean("simplifier.metrics");
+
+    /**
+     * Whether a Flight Recorder recording is running.
+     */
+    private static volatile boolean recording;
+
+    /**
+     * Whether anything is recorded: {@code enabled || recording}, kept in one field for the hot paths.
+     */
+    private static volatile boolean active = enabled;
+
+    private static boolean registered;
+
+    static {
+        // Switch on while a recording runs, so a recording alone is enough to see the stage events
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                updateRecording();
+            }
+        });
+        updateRecording();
+        if (enabled) registerMBean();
+    }
+
+    /**
+     * Checks whether any recording is running. The recorder is only asked if it has been started,
+     * since asking would otherwise start it.
+     */
+    private static void updateRecording() {
+        recording = FlightRecorder.isInitialized() && FlightRecorder.getFlightRecorder().getRecordings().stream()
+                .anyMatch(r -> r.getState() == RecordingState.RUNNING);
+        active = enabled || recording;
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Times one occurrence of a stage. Stop the timer once the stage is done.
+     */
+    public static final class Timer {
+        private static final Timer NONE = new Timer(null, 0L, null);
+
+        private final Stage stage;
+        private final long start;
+        private final StageEvent event;
+
+        private Timer(Stage stage, long start, StageEvent event) {
+            this.stage = stage;
+            this.start = start;
+            this.event = event;
+        }
+
+        /**
+         * Records the time since the timer was started.
+         *
+         * @param items how many items the stage handled.
+         */
+        public void stop(long items) {
+            if (this == NONE) return;
+            HISTOGRAMS[stage.ordinal()].record(System.nanoTime() - start);
+            ITEMS[stage.ordinal()].add(items);
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stage = stage.name();
+                    event.items = items;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts timing one occurrence of a stage.
+     *
+     * @param stage the stage.
+     * @return a timer to stop once the stage is done; a shared timer that records nothing while metrics are off.
+     */
+    public static Timer start(Stage stage) {
+        if (!active) return Timer.NONE;
+        StageEvent event = null;
+        if (!stage.isTooFrequentToTrace()) {
+            event = new StageEvent();
+            if (event.isEnabled()) event.begin();
+            else event = null;
+        }
+        return new Timer(stage, System.nanoTime(), event);
+    }
+
+    /**
+     * Checks whether anything is being recorded, so a loop can check once and skip its own timing calls.
+     *
+     * @return whether metrics are on.
+     */
+    public static boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Records one occurrence of a stage timed by the caller, without a Flight Recorder event.
+     * Only call it when {@link #isActive()} said so.
+     *
+     * @param stage the stage.
+     * @param nanos how long it took.
+     * @param items how many items it handled.
+     */
+    public static void record(Stage stage, long nanos, long items) {
+        HISTOGRAMS[stage.ordinal()].record(nanos);
+        ITEMS[stage.ordinal()].add(items);
+    }
+
+    /**
+     * Counts words that were swapped for a synonym.
+     *
+     * @param words the number of words replaced.
+     */
+    public static void replaced(long words) {
+        REPLACED.add(words);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches metrics on or off. The first time they are switched on they are registered with JMX.
+     *
+     * @param on whether to record metrics.
+     */
+    public static synchronized void setEnabled(boolean on) {
+        enabled = on;
+        active = on || recording;
+        if (on) registerMBean();
+    }
+
+    /**
+     * Returns the histogram of a stage.
+     *
+     * @param stage the stage.
+     * @return its latency histogram.
+     */
+    public static LatencyHistogram histogram(Stage stage) {
+        return HISTOGRAMS[stage.ordinal()];
+    }
+
+    /**
+     * Returns how many items a stage has handled.
+     *
+     * @param stage the stage.
+     * @return the item count.
+     */
+    public static long items(Stage stage) {
+        return ITEMS[stage.ordinal()].sum();
+    }
+
+    public static long getReplaced() {
+        return REPLACED.sum();
+    }
+
+    /**
+     * Clears every histogram and counter.
+     */
+    public static void reset() {
+        for (int i = 0; i < STAGES.length; i++) {
+            HISTOGRAMS[i].reset();
+            ITEMS[i].reset();
+        }
+        REPLACED.reset();
+    }
+
+    /**
+     * Describes every stage that has run: how often, how many items and its latency percentiles,
+     * followed by the synonym cache.
+     *
+     * @param format the format of the report.
+     * @return the report.
+     */
+    public static String report(Format format) {
+        SynonymCache cache = Methods.getSynonymCache();
+        StringBuilder sb = new StringBuilder();
+        if (format == Format.JSON) {
+            sb.append("{\"stages\":{");
+            boolean first = true;
+            for (Stage stage : STAGES) {
+                LatencyHistogram h = histogram(stage);
+                if (h.getCount() == 0) continue;
+                if (!first) sb.append(',');
+                first = false;
+                sb.append(String.format(Locale.ROOT,
+                        "\"%s\":{\"count\":%d,\"items\":%d,\"totalMillis\":%.3f,\"meanMicros\":%.3f,\"p50Micros\":%.3f,\"p90Micros\":%.3f,\"p99Micros\":%.3f,\"p999Micros\":%.3f,\"maxMicros\":%.3f}",
+                        stage.name().toLowerCase(Locale.ROOT), h.getCount(), items(stage), h.getTotal() / 1e6, h.getMean() / 1e3,
+                        h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3, h.getPercentile(99.9) / 1e3, h.getMax() / 1e3));
+            }
+            sb.append(String.format(Locale.ROOT, "},\"replaced\":%d,\"cache\":{\"hits\":%d,\"misses\":%d,\"evictions\":%d,\"hitRate\":%.4f}}",
+                    getReplaced(), cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount(), cache.getHitRate()));
+            return sb.toString();
+        }
+
+        sb.append(String.format("%-10s %12s %14s %10s %10s %10s %10s %10s %10s%n",
+                "Stage", "Count", "Items", "Total ms", "Mean us", "p50 us", "p99 us", "p99.9 us", "Max us"));
+        for (Stage stage : STAGES) {
+            LatencyHistogram h = histogram(stage);
+            if (h.getCount() == 0) continue;
+            sb.append(String.format("%-10s %,12d %,14d %,10.1f %,10.2f %,10.2f %,10.2f %,10.2f %,10.1f%n",
+                    stage, h.getCount(), items(stage), h.getTotal() / 1e6, h.getMean() / 1e3,
+                    h.getPercentile(50) / 1e3, h.getPercentile(99) / 1e3, h.getPercentile(99.9) / 1e3, h.getMax() / 1e3));
+        }
+        sb.append(String.format("Words replaced: %,d%n", getReplaced()));
+        sb.append(cache).append(System.lineSeparator());
+        return sb.toString();
+    }
+
+    /**
+     * Prints a report periodically on a background thread until the returned handle is closed.
+     *
+     * @param interval the time between reports.
+     * @param out      where the reports are printed.
+     * @param format   the format of the reports.
+     * @return a handle which stops the reports when closed.
+     */
+    public static AutoCloseable startReporting(Duration interval, PrintStream out, Format format) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("metrics-reporter").factory());
+        long millis = Math.max(1, interval.toMillis());
+        scheduler.scheduleAtFixedRate(() -> out.println(report(format)), millis, millis, TimeUnit.MILLISECONDS);
+        return scheduler::shutdownNow;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, once.
+     */
+    private static synchronized void registerMBean() {
+        if (registered) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new SimplifierMetrics(),
+                    new ObjectName(SimplifierMetricsMXBean.OBJECT_NAME));
+            registered = true;
+        } catch (Exception e) {
+            System.err.println("Could not register the metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The JMX view of the metrics.
+     */
+    private static class SimplifierMetrics implements SimplifierMetricsMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean on) {
+            Metrics.setEnabled(on);
+        }
+
+        @Override
+        public long getWordsResolved() {
+            return histogram(Stage.TOKEN).getCount();
+        }
+
+        @Override
+        public long getWordsReplaced() {
+            return Metrics.getReplaced();
+        }
+
+        @Override
+        public long getCharsWritten() {
+            return items(Stage.WRITE);
+        }
+
+        @Override
+        public long getCacheHits() {
+            return Methods.getSynonymCache().getHitCount();
+        }
+
+        @Override
+        public long getCacheMisses() {
+            return Methods.getSynonymCache().getMissCount();
+        }
+
+        @Override
+        public double getCacheHitRate() {
+            return Methods.getSynonymCache().getHitRate();
+        }
+
+        @Override
+        public String getReport() {
+            return report(Format.TEXT);
+        }
+
+        @Override
+        public String getJson() {
+            return report(Format.JSON);
+        }
+
+        @Override
+        public long getCount(String stage) {
+            return histogram(stageNamed(stage)).getCount();
+        }
+
+        @Override
+        public double getPercentileMicros(String stage, double percentile) {
+            return histogram(stageNamed(stage)).getPercentile(percentile) / 1e3;
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+
+        private static Stage stageNamed(String name) {
+            return Stage.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ie.atu.sw.metrics;
+
+/**
+ * The {@code SimplifierMetricsMXBean} interface is how the {@link Metrics} appear over JMX, for example in
+ * JConsole or Mission Control, under the name {@value #OBJECT_NAME}.
+ */
+public interface SimplifierMetricsMXBean {
+
+    /**
+     * The name the metrics are registered under.
+     */
+    String OBJECT_NAME = "ie.atu.sw:type=Metrics";
+
+    boolean isEnabled();
+
+    void setEnabled(boolean on);
+
+    long getWordsResolved();
+
+    long getWordsReplaced();
+
+    long getCharsWritten();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRate();
+
+    /**
+     * Returns the metrics as a text table.
+     *
+     * @return the report.
+     */
+    String getReport();
+
+    /**
+     * Returns the metrics as JSON.
+     *
+     * @return the report.
+     */
+    String getJson();
+
+    /**
+     * Returns how often a stage has run.
+     *
+     * @param stage the name of a {@link Metrics.Stage}.
+     * @return the number of times it ran.
+     */
+    long getCount(String stage);
+
+    /**
+     * Estimates a latency percentile of a stage.
+     *
+     * @param stage      the name of a {@link Metrics.Stage}.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in microseconds.
+     */
+    double getPercentileMicros(String stage, double percentile);
+
+    /**
+     * Clears every histogram and counter.
+     */
+    void reset();
+}
@@ -0,0 +1,23 @@
+package ie.atu.sw.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * The {@code StageEvent} class is the Flight Recorder event written each time a stage of the pipeline
+ * finishes, so a recording shows the load, precompute, segment, lookup and write stages on a timeline
+ * alongside the garbage collector and the threads that ran them.
+ */
+@Name("ie.atu.sw.Stage")
+@Label("Simplifier Stage")
+@Category({"Text Simplifier"})
+@Description("A stage of the simplification pipeline")
+@StackTrace(false)
+class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Items")
+    @Description("How many words, characters or vectors the stage handled")
+    long items;
+}
@@ -0,0 +1,371 @@
+package ie.atu.sw.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ie.atu.sw.embeddings.EmbeddingModel;
+import ie.atu.sw.files.Google1000File;
+import ie.atu.sw.files.SegmentSimplifier;
+import ie.atu.sw.metrics.Metrics;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code SimplifierServer} class serves the simplifier over HTTP, using the JDK's built-in server with one
+ * virtual thread per request. The model and candidates of a {@link Google1000File} are loaded once and stay
+ * resident; each request takes them once when it starts, as a file job does.
+ * <ul>
+ *     <li>{@code POST /simplify} streams the body through in segments and streams the simplified text back.</li>
+ *     <li>{@code GET /synonym?word=&k=&min=} returns the closest candidates of a word as JSON, leaving out any
+ *     less similar than {@code min}.</li>
+ *     <li>{@code GET /health} reports the model and how many requests are in flight.</li>
+ *     <li>{@code GET /metrics?format=json|text} reports the {@link Metrics} of each stage.</li>
+ * </ul>
+ * Synonym searches of concurrent requests are shared through a {@link SynonymBatcher}. Only so many requests are
+ * served at once; the rest wait briefly for a turn and are then turned away with {@code 503}, so a burst of
+ * traffic queues in the clients rather than in the heap.
+ */
+public class SimplifierServer {
+
+    /**
+     * How long a request waits for a turn before it is turned away.
+     */
+    private static final long ADMISSION_WAIT_MILLIS = 100;
+
+    /**
+     * The most synonyms a {@code /synonym} request may ask for.
+     */
+    private static final int MAX_K = 100;
+
+    private final Google1000File google1000File;
+    private final int port;
+    private final long maxBodyBytes;
+    private final Semaphore admissions;
+    private final int maxRequests;
+    private final SynonymBatcher batcher;
+    private final AtomicLong rejected = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructs a {@code SimplifierServer}. Nothing is served until it is started.
+     *
+     * @param google1000File the processed Google 1000 file, whose model and candidates are used.
+     * @param port           the port to listen on, or 0 for any free port.
+     * @param maxRequests    the most requests served at once.
+     * @param maxBodyBytes   the largest request body accepted, in bytes.
+     */
+    public SimplifierServer(Google1000File google1000File, int port, int maxRequests, long maxBodyBytes) {
+        this.google1000File = google1000File;
+        this.port = port;
+        this.maxRequests = maxRequests;
+        this.maxBodyBytes = maxBodyBytes;
+        this.admissions = new Semaphore(maxRequests);
+        this.batcher = new SynonymBatcher(maxRequests);
+    }
+
+    /**
+     * Starts listening on localhost and every other interface.
+     *
+     * @throws IOException if the port cannot be bound.
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), maxRequests);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/simplify", exchange -> serve(exchange, "POST", this::simplify));
+        server.createContext("/synonym", exchange -> serve(exchange, "GET", this::synonym));
+        server.createContext("/health", exchange -> serve(exchange, "GET", this::health));
+        server.createContext("/metrics", exchange -> serve(exchange, "GET", this::metrics));
+        server.start();
+    }
+
+    /**
+     * Stops the server, giving requests in flight a moment to finish.
+     *
+     * @param delaySeconds the longest time to wait for requests in flight.
+     */
+    public void stop(int delaySeconds) {
+        if (server != null) server.stop(delaySeconds);
+        if (executor != null) executor.shutdownNow();
+        batcher.close();
+        stopped.countDown();
+    }
+
+    /**
+     * Blocks until the server has been stopped.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Returns the port the server is listening on, which is only known after starting when port 0 was asked for.
+     *
+     * @return the bound port.
+     */
+    public int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    /**
+     * Serves one request: checks the method, waits for a turn, and runs the handler.
+     *
+     * @param exchange the request and its response.
+     * @param method   the method the endpoint accepts.
+     * @param handler  the endpoint.
+     * @throws IOException if the response cannot be written.
+     */
+    private void serve(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                send(exchange, 405, "text/plain", "Use " + method + "\n");
+                return;
+            }
+
+            // Wait briefly for a turn, so short bursts are smoothed out but a flood is turned away
+            boolean admitted = false;
+            try {
+                admitted = admissions.tryAcquire(ADMISSION_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (!admitted) {
+                    rejected.incrementAndGet();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    send(exchange, 503, "text/plain", "Too many requests in flight, try again shortly\n");
+                    return;
+                }
+                handler.handle(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "text/plain", e.getMessage() + "\n");
+            } catch (RuntimeException e) {
+                send(exchange, 500, "text/plain", "Internal error: " + e + "\n");
+            } finally {
+                if (admitted) admissions.release();
+            }
+        } catch (IOException e) {
+            // The client went away or sent too much; there is no one left to tell
+        }
+    }
+
+    /**
+     * Simplifies the request body. The text is read in segments, the words of each segment that need a
+     * similarity search are searched for in a shared batch, and the segment is written out as soon as it
+     * is simplified. The response headers wait for the first segment, so a small oversized body can still
+     * be refused with {@code 413}; a large one is cut off mid-stream instead.
+     *
+     * @param exchange the request and its response.
+     * @throws IOException          if the body cannot be read or the response written.
+     * @throws InterruptedException if the thread is interrupted while waiting for a batch.
+     */
+    private void simplify(HttpExchange exchange) throws IOException, InterruptedException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null && Long.parseLong(length) > maxBodyBytes) {
+            send(exchange, 413, "text/plain", "The body may be at most " + maxBodyBytes + " bytes\n");
+            return;
+        }
+
+        SegmentSimplifier simplifier = new SegmentSimplifier(google1000File);
+        InputStream body = new LimitedInputStream(exchange.getRequestBody(), maxBodyBytes);
+        Writer[] out = new Writer[1];
+
+        try (Reader in = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+            SegmentSimplifier.readSegments(in, new AtomicLong(), segment -> {
+                Set<String> uncached = simplifier.uncachedWords(segment);
+                if (!uncached.isEmpty()) {
+                    batcher.prefetch(simplifier.getModel(), simplifier.getCandidates(), simplifier.getMinSimilarity(), uncached);
+                }
+                CharSequence text = simplifier.simplify(segment).text();
+                try {
+                    if (out[0] == null) out[0] = startStream(exchange);
+                    Metrics.Timer timer = Metrics.start(Metrics.Stage.WRITE);
+                    out[0].append(text);
+                    timer.stop(text.length());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (BodyTooLargeException e) {
+            if (out[0] == null) {
+                send(exchange, 413, "text/plain", e.getMessage() + "\n");
+                return;
+            }
+            throw e;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (out[0] == null) out[0] = startStream(exchange);
+        out[0].flush();
+    }
+
+    private Writer startStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Finds the closest candidates of a word.
+     *
+     * @param exchange the request and its response.
+     * @throws IOException          if the response cannot be written.
+     * @throws InterruptedException if the thread is interrupted while waiting for a batch.
+     */
+    private void synonym(HttpExchange exchange) throws IOException, InterruptedException {
+        Map<String, String> query = query(exchange);
+        String word = query.get("word");
+        if (word == null || word.isBlank()) throw new IllegalArgumentException("Give a word, as in /synonym?word=example");
+        word = word.strip().toLowerCase(Locale.ROOT);
+
+        int k;
+        try {
+            k = Integer.parseInt(query.getOrDefault("k", "1"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("k must be a number");
+        }
+        if (k < 1 || k > MAX_K) throw new IllegalArgumentException("k must be between 1 and " + MAX_K);
+
+        float minSimilarity;
+        try {
+            minSimilarity = Float.parseFloat(query.getOrDefault("min", "-1"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("min must be a number");
+        }
+        if (!(minSimilarity >= -1f && minSimilarity <= 1f)) throw new IllegalArgumentException("min must be between -1 and 1");
+
+        SegmentSimplifier simplifier = new SegmentSimplifier(google1000File);
+        if (!simplifier.getModel().getMatrix().contains(word)) {
+            send(exchange, 404, "application/json", "{\"word\":" + json(word) + ",\"error\":\"no embedding\"}\n");
+            return;
+        }
+
+        String[] synonyms = batcher.search(simplifier.getModel(), simplifier.getCandidates(), new String[]{word}, k, minSimilarity)[0];
+        StringJoiner list = new StringJoiner(",", "[", "]");
+        for (String synonym : synonyms) list.add(json(synonym));
+        send(exchange, 200, "application/json", "{\"word\":" + json(word) + ",\"synonyms\":" + list + "}\n");
+    }
+
+    /**
+     * Reports the model being served and the load on the server.
+     *
+     * @param exchange the request and its response.
+     * @throws IOException if the response cannot be written.
+     */
+    private void health(HttpExchange exchange) throws IOException {
+        EmbeddingModel model = google1000File.getModel();
+        String report = "model: " + model + "\n"
+                + "in flight: " + (maxRequests - admissions.availablePermits()) + " of " + maxRequests + "\n"
+                + "rejected: " + rejected.get() + "\n"
+                + "batching: " + batcher + "\n";
+        send(exchange, 200, "text/plain", report);
+    }
+
+    /**
+     * Reports the metrics of each stage, as JSON unless text is asked for.
+     *
+     * @param exchange the request and its response.
+     * @throws IOException if the response cannot be written.
+     */
+    private void metrics(HttpExchange exchange) throws IOException {
+        boolean text = "text".equalsIgnoreCase(query(exchange).get("format"));
+        String report = Metrics.report(text ? Metrics.Format.TEXT : Metrics.Format.JSON);
+        send(exchange, 200, text ? "text/plain" : "application/json", report + "\n");
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) return parameters;
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.putIfAbsent(name, value);
+        }
+        return parameters;
+    }
+
+    private static String json(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * One endpoint of the server.
+     */
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Thrown when a request body runs past the most bytes accepted.
+     */
+    private static class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException(long limit) {
+            super("The body may be at most " + limit + " bytes");
+        }
+    }
+
+    /**
+     * Reads a stream up to a limit, failing once the stream runs past it.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long read;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        private void count(int n) throws BodyTooLargeException {
+            read += n;
+            if (read > limit) throw new BodyTooLargeException(limit);
+        }
+    }
+}
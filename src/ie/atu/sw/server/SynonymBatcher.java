@@ -0,0 +1,221 @@
+package ie.atu.sw.server;
+
+import ie.atu.sw.embeddings.CandidateSet;
+import ie.atu.sw.embeddings.EmbeddingModel;
+import ie.atu.sw.utils.Methods;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code SynonymBatcher} class gathers the synonym searches of concurrent requests into shared batches.
+ * One dispatcher thread takes every search that has queued up, removes the duplicate words, and hands them to a
+ * pool of one worker per core, which answers them all with one tiled {@link Methods#findBatchSynonyms} call.
+ * The dispatcher only takes searches once a worker is free, so a lone request is answered straight away, while
+ * under load the batches grow by themselves as searches queue up behind busy workers, and each candidate row
+ * is read from memory once for many requests rather than once for each of them.
+ */
+public class SynonymBatcher implements AutoCloseable {
+
+    /**
+     * The most distinct words searched for in one batch.
+     */
+    private static final int MAX_BATCH_WORDS = 4096;
+
+    /**
+     * A search waiting to be batched.
+     *
+     * @param model         the model holding the words' vectors.
+     * @param candidates    the candidates the synonyms are chosen from, or {@code null} for the whole model.
+     * @param words         the words to search for, in lower case.
+     * @param k             the number of synonyms wanted per word.
+     * @param minSimilarity the lowest similarity a synonym may have.
+     * @param result        completed with the synonyms of each word, in the order of {@code words}.
+     */
+    private record Search(EmbeddingModel model, CandidateSet candidates, String[] words, int k, float minSimilarity,
+                          CompletableFuture<String[][]> result) {
+    }
+
+    /**
+     * Searches which can share a batch: the same model, candidates, number of synonyms and minimum similarity.
+     */
+    private record BatchKey(EmbeddingModel model, CandidateSet candidates, int k, float minSimilarity) {
+    }
+
+    private final BlockingQueue<Search> queue;
+    private final Thread dispatcher;
+    private final ExecutorService workers;
+
+    /**
+     * One permit for every idle worker.
+     */
+    private final Semaphore idle;
+    private final LongAdder batchesRun = new LongAdder();
+    private final LongAdder searchesAnswered = new LongAdder();
+    private final LongAdder wordsSearched = new LongAdder();
+
+    /**
+     * Constructs a {@code SynonymBatcher} and starts its dispatcher, with one worker per core.
+     *
+     * @param capacity the most searches that may wait for a batch before {@link #search} blocks.
+     */
+    public SynonymBatcher(int capacity) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.idle = new Semaphore(threads);
+        this.workers = Executors.newFixedThreadPool(threads, Thread.ofPlatform().daemon().name("synonym-batch-", 0).factory());
+        this.dispatcher = Thread.ofPlatform().daemon().name("synonym-batcher").start(this::dispatch);
+    }
+
+    /**
+     * Finds the top synonyms of some words, sharing the search with any other words queued at the same time.
+     *
+     * @param model         the model holding the words' vectors.
+     * @param candidates    the candidates the synonyms are chosen from, or {@code null} for the whole model.
+     * @param words         the words to search for, in lower case.
+     * @param k             the number of synonyms wanted per word.
+     * @param minSimilarity the lowest similarity a synonym may have.
+     * @return for each word, its best synonyms in order, or an empty array if the word has no embedding or no
+     *         candidate is close enough.
+     * @throws InterruptedException if the thread is interrupted while waiting for the batch.
+     */
+    public String[][] search(EmbeddingModel model, CandidateSet candidates, String[] words, int k, float minSimilarity) throws InterruptedException {
+        if (words.length == 0) return new String[0][];
+        Search search = new Search(model, candidates, words, k, minSimilarity, new CompletableFuture<>());
+        queue.put(search);
+        try {
+            return search.result().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Finds the best synonym of each word and puts it in the synonym cache, so that simplifying the
+     * words afterwards with the same minimum similarity is answered by the cache. Words with no candidate
+     * that similar are cached as themselves.
+     *
+     * @param model         the model holding the words' vectors.
+     * @param candidates    the candidates the synonyms are chosen from, or {@code null} for the whole model.
+     * @param minSimilarity the lowest similarity a synonym may have.
+     * @param words         the words to search for, in lower case.
+     * @throws InterruptedException if the thread is interrupted while waiting for the batch.
+     */
+    public void prefetch(EmbeddingModel model, CandidateSet candidates, float minSimilarity, Collection<String> words) throws InterruptedException {
+        String[] batch = words.toArray(String[]::new);
+        String[][] synonyms = search(model, candidates, batch, 1, minSimilarity);
+        long version = Methods.cacheVersion(model, candidates, minSimilarity);
+        for (int i = 0; i < batch.length; i++) {
+            Methods.getSynonymCache().put(batch[i], version, synonyms[i].length > 0 ? synonyms[i][0] : batch[i]);
+        }
+    }
+
+    private void dispatch() {
+        List<Search> pending = new ArrayList<>();
+        Map<BatchKey, List<Search>> groups = new LinkedHashMap<>();
+        try {
+            while (true) {
+                // Wait for a free worker and one search, then take everything that queued up behind it
+                idle.acquire();
+                pending.add(queue.take());
+                queue.drainTo(pending);
+                for (Search search : pending) {
+                    groups.computeIfAbsent(new BatchKey(search.model(), search.candidates(), search.k(), search.minSimilarity()), key -> new ArrayList<>()).add(search);
+                }
+                pending.clear();
+
+                // The first group takes the worker already waited for, any others wait for one of their own
+                boolean waited = true;
+                for (Iterator<Map.Entry<BatchKey, List<Search>>> next = groups.entrySet().iterator(); next.hasNext(); ) {
+                    if (!waited) idle.acquire();
+                    waited = false;
+                    Map.Entry<BatchKey, List<Search>> group = next.next();
+                    BatchKey key = group.getKey();
+                    List<Search> searches = group.getValue();
+                    workers.execute(() -> {
+                        try {
+                            run(key, searches);
+                        } finally {
+                            idle.release();
+                        }
+                    });
+                    next.remove();
+                }
+            }
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // The batcher was closed
+        }
+
+        // Anything taken but not handed to a worker, or still queued, will never be answered
+        groups.values().forEach(pending::addAll);
+        pending.addAll(queue);
+        for (Search search : pending) {
+            search.result().completeExceptionally(new CancellationException("The batcher was closed"));
+        }
+    }
+
+    /**
+     * Answers a group of searches that share a model, candidates, k and minimum, in batches of distinct words.
+     *
+     * @param key      what the searches share.
+     * @param searches the searches to answer.
+     */
+    private void run(BatchKey key, List<Search> searches) {
+        int start = 0;
+        while (start < searches.size()) {
+
+            // Give every distinct word a slot, stopping once the batch is full
+            Map<String, Integer> slots = new LinkedHashMap<>();
+            int end = start;
+            while (end < searches.size() && (slots.isEmpty() || slots.size() + searches.get(end).words().length <= MAX_BATCH_WORDS)) {
+                for (String word : searches.get(end).words()) {
+                    slots.putIfAbsent(word, slots.size());
+                }
+                end++;
+            }
+
+            List<Search> batch = searches.subList(start, end);
+            try {
+                String[][] found = Methods.findBatchSynonyms(slots.keySet().toArray(String[]::new), key.k(), key.minSimilarity(), key.model(), key.candidates());
+                for (Search search : batch) {
+                    String[][] synonyms = new String[search.words().length][];
+                    for (int i = 0; i < synonyms.length; i++) {
+                        synonyms[i] = found[slots.get(search.words()[i])];
+                    }
+                    search.result().complete(synonyms);
+                }
+            } catch (RuntimeException e) {
+                batch.forEach(search -> search.result().completeExceptionally(e));
+            }
+
+            batchesRun.increment();
+            searchesAnswered.add(batch.size());
+            wordsSearched.add(slots.size());
+            start = end;
+        }
+    }
+
+    /**
+     * Describes how well searches have been shared.
+     *
+     * @return a one line summary.
+     */
+    @Override
+    public String toString() {
+        long batches = batchesRun.sum(), searches = searchesAnswered.sum();
+        return String.format("%,d batches answering %,d searches (%.1f searches and %.1f words per batch)",
+                batches, searches, searches / (double) Math.max(1, batches), wordsSearched.sum() / (double) Math.max(1, batches));
+    }
+
+    /**
+     * Stops the dispatcher. Batches already handed to a worker are finished; searches still waiting fail
+     * with a {@link CancellationException}.
+     */
+    @Override
+    public void close() {
+        dispatcher.interrupt();
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,117 @@
+package ie.atu.sw.shards;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * The {@code ShardConnection} class is one open connection from a coordinator to a {@link ShardWorker}.
+ * A connection carries one request at a time, and is handed back to its worker's pool once the reply has
+ * been read in full. A connection whose request failed, timed out or was abandoned is closed instead, as
+ * a late reply could otherwise be read as the answer to the next request.
+ */
+class ShardConnection implements Closeable {
+
+    /**
+     * The rows found in one shard for each query of a batch, numbered as in the whole matrix.
+     *
+     * @param rows   the rows of each query, best first.
+     * @param scores the similarities of those rows.
+     */
+    record Reply(int[][] rows, float[][] scores) {
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final long fingerprint;
+    private final int dimensions;
+    private final int shards;
+    private final int[] held;
+
+    /**
+     * Connects to a worker and reads its greeting.
+     *
+     * @param address       where the worker listens.
+     * @param timeoutMillis how long to wait for the connection, and for any one read from it.
+     * @throws IOException if the worker cannot be reached or does not greet it as a shard worker.
+     */
+    ShardConnection(InetSocketAddress address, int timeoutMillis) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.connect(address, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+            if (in.readInt() != ShardWorker.MAGIC || in.readInt() != ShardWorker.VERSION) {
+                throw new IOException(address + " is not a shard worker of this version");
+            }
+            this.fingerprint = in.readLong();
+            this.dimensions = in.readInt();
+            this.shards = in.readInt();
+            this.held = new int[in.readInt()];
+            for (int i = 0; i < held.length; i++) held[i] = in.readInt();
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    int shards() {
+        return shards;
+    }
+
+    int[] held() {
+        return held.clone();
+    }
+
+    /**
+     * Sends a request for one shard and waits for the reply.
+     *
+     * @param shard the shard to search.
+     * @param body  the request body from {@link ShardWorker#encodeRequest}.
+     * @param count the number of queries in the body.
+     * @return the rows found for each query.
+     * @throws IOException if the request cannot be sent, the reply does not come in time, or the worker
+     *                     does not hold the shard.
+     */
+    Reply search(int shard, byte[] body, int count) throws IOException {
+        out.writeInt(shard);
+        out.write(body);
+        out.flush();
+
+        int status = in.readInt();
+        if (status != ShardWorker.OK) throw new IOException("Worker does not hold shard " + shard);
+        int[][] rows = new int[count][];
+        float[][] scores = new float[count][];
+        for (int q = 0; q < count; q++) {
+            int found = in.readInt();
+            rows[q] = new int[found];
+            scores[q] = new float[found];
+            for (int i = 0; i < found; i++) {
+                rows[q][i] = in.readInt();
+                scores[q][i] = in.readFloat();
+            }
+        }
+        return new Reply(rows, scores);
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // The connection is being dropped either way
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package ie.atu.sw.shards;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.ExactSearch;
+import ie.atu.sw.embeddings.TopK;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@code ShardWorker} class is the worker process of a {@link ShardedSearch}. The candidate matrix is cut
+ * into shards of consecutive rows, and a worker keeps only the shards it was given, each behind its own
+ * {@link ExactSearch}. It listens on a loopback port and answers batches of queries against one shard at a
+ * time, one virtual thread per connection, returning the best rows of the shard numbered as in the whole matrix.
+ * <p>
+ * On every new connection the worker first sends a greeting: the fingerprint of the whole candidate matrix,
+ * the number of shards it was cut into and the shards held here, so a coordinator never merges answers from
+ * a worker which loaded different candidates. A request is a shard number followed by a body encoded by
+ * {@link #encodeRequest}; the reply is a status followed by the rows and similarities found for each query.
+ */
+public class ShardWorker {
+
+    /**
+     * Written first in every greeting: {@code VTSH} in ASCII.
+     */
+    static final int MAGIC = 0x56545348;
+
+    /**
+     * Changed whenever the requests or replies change.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * A reply status: the request was answered.
+     */
+    static final int OK = 0;
+
+    /**
+     * A reply status: the shard asked for is not held by this worker.
+     */
+    static final int NOT_HELD = 1;
+
+    /**
+     * The line a worker prints, followed by its port, once it is ready for connections.
+     */
+    static final String READY = "Shard worker listening on port ";
+
+    private final long fingerprint;
+    private final int dimensions;
+    private final int shards;
+    private final int[] held;
+
+    /**
+     * The search over each shard held, by shard number, or {@code null} for shards held elsewhere.
+     */
+    private final ExactSearch[] searches;
+
+    /**
+     * The first row of each shard in the whole matrix, and the total number of rows last.
+     */
+    private final int[] starts;
+
+    /**
+     * Constructs a {@code ShardWorker} holding some of the shards of a candidate matrix. Only the rows of
+     * those shards are copied, so the whole matrix may be dropped once this returns.
+     *
+     * @param matrix the whole candidate matrix.
+     * @param shards the number of shards the matrix is cut into.
+     * @param held   the shards this worker holds.
+     *
+     * @runtimeNotation O(r * m), where r is the number of rows held and m is the vector size.
+     * @runtimeExplanation Each row of a held shard is copied once.
+     */
+    public ShardWorker(EmbeddingMatrix matrix, int shards, int[] held) {
+        this.fingerprint = matrix.fingerprint();
+        this.dimensions = matrix.dimensions();
+        this.shards = shards;
+        this.held = held.clone();
+        this.starts = boundaries(matrix.size(), shards);
+        this.searches = new ExactSearch[shards];
+        for (int shard : held) {
+            if (shard < 0 || shard >= shards) throw new IllegalArgumentException("No shard " + shard + " of " + shards);
+            searches[shard] = new ExactSearch(matrix.rows(starts[shard], starts[shard + 1]));
+        }
+    }
+
+    /**
+     * Works out where each shard starts when a matrix is cut into shards of as near equal size as possible.
+     *
+     * @param rows   the number of rows of the matrix.
+     * @param shards the number of shards.
+     * @return the first row of every shard, followed by the number of rows.
+     */
+    static int[] boundaries(int rows, int shards) {
+        int[] starts = new int[shards + 1];
+        for (int shard = 0; shard <= shards; shard++) {
+            starts[shard] = (int) ((long) rows * shard / shards);
+        }
+        return starts;
+    }
+
+    /**
+     * Listens on a free loopback port, announces it on standard output, and serves connections until
+     * standard input is closed, which happens when the coordinator that started the worker exits.
+     *
+     * @throws IOException if the port cannot be bound.
+     */
+    public void serve() throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().name("shard-worker-exit").start(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                    // Nothing is sent on standard input; it is only watched for the end
+                }
+            } catch (IOException ignored) {
+                // Treated the same as the end of the input
+            }
+            System.exit(0);
+        });
+
+        System.out.println(READY + server.getLocalPort());
+        System.out.flush();
+        try (ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (true) {
+                Socket socket = server.accept();
+                connections.submit(() -> handle(socket));
+            }
+        }
+    }
+
+    /**
+     * Greets a coordinator, then answers its requests one after another until it hangs up.
+     */
+    private void handle(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(dimensions);
+            out.writeInt(shards);
+            out.writeInt(held.length);
+            for (int shard : held) out.writeInt(shard);
+            out.flush();
+
+            while (true) {
+                int shard;
+                try {
+                    shard = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                byte[] reply = answer(shard, in);
+                out.write(reply);
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // The coordinator gave up on the request and closed the connection
+        } catch (IOException e) {
+            System.err.println("Shard worker connection failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the body of a request and searches the shard for every query in it.
+     */
+    private byte[] answer(int shard, DataInputStream in) throws IOException {
+        int k = in.readInt();
+        float minSimilarity = in.readFloat();
+        int count = in.readInt();
+        byte[] body = new byte[Math.multiplyExact(count, Integer.BYTES + dimensions * Float.BYTES)];
+        in.readFully(body);
+        if (shard < 0 || shard >= shards || searches[shard] == null) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(NOT_HELD).array();
+        }
+
+        ByteBuffer request = ByteBuffer.wrap(body);
+        int[] excluded = new int[count];
+        request.asIntBuffer().get(excluded);
+        request.position(count * Integer.BYTES);
+        float[] queries = new float[count * dimensions];
+        request.asFloatBuffer().get(queries);
+
+        // Rows are numbered within the shard here, and in the whole matrix on the wire
+        int start = starts[shard], end = starts[shard + 1];
+        TopK[] results = new TopK[count];
+        int found = 0;
+        for (int q = 0; q < count; q++) {
+            int local = excluded[q] >= start && excluded[q] < end ? excluded[q] - start : -1;
+            results[q] = searches[shard].search(queries, q * dimensions, k, local, minSimilarity);
+            found += results[q].size();
+        }
+
+        ByteBuffer reply = ByteBuffer.allocate(Integer.BYTES * (1 + count) + found * (Integer.BYTES + Float.BYTES));
+        reply.putInt(OK);
+        for (TopK result : results) {
+            int[] rows = result.rows();
+            float[] scores = result.scores();
+            reply.putInt(rows.length);
+            for (int i = 0; i < rows.length; i++) {
+                reply.putInt(start + rows[i]).putFloat(scores[i]);
+            }
+        }
+        return reply.array();
+    }
+
+    /**
+     * Encodes the body of a request, which is the same for every shard a batch is sent to.
+     *
+     * @param queries       the array holding the normalized query vectors, one after another.
+     * @param queryOffset   the offset of the first query vector in that array.
+     * @param count         the number of queries.
+     * @param dimensions    the number of dimensions of each query.
+     * @param excludedRows  for each query, a row of the whole matrix which may not be returned, or {@code -1}.
+     * @param k             the number of rows to return per query.
+     * @param minSimilarity the lowest similarity a row may have to be returned.
+     * @return the encoded body.
+     */
+    static byte[] encodeRequest(float[] queries, int queryOffset, int count, int dimensions, int[] excludedRows,
+                                int k, float minSimilarity) {
+        ByteBuffer body = ByteBuffer.allocate(3 * Integer.BYTES + count * (Integer.BYTES + dimensions * Float.BYTES));
+        body.putInt(k).putFloat(minSimilarity).putInt(count);
+        body.asIntBuffer().put(excludedRows, 0, count);
+        body.position(body.position() + count * Integer.BYTES);
+        body.asFloatBuffer().put(queries, queryOffset, count * dimensions);
+        return body.array();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Shard worker holding shards %s of %d", Arrays.toString(held), shards);
+    }
+}
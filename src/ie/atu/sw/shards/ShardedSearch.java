@@ -0,0 +1,628 @@
+package ie.atu.sw.shards;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.ExactSearch;
+import ie.atu.sw.embeddings.SearchEngine;
+import ie.atu.sw.embeddings.TopK;
+import ie.atu.sw.embeddings.VectorFormat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code ShardedSearch} class is a {@link SearchEngine} which scatters each batch of queries over
+ * {@link ShardWorker} processes and gathers their answers. The candidate matrix is cut into one shard of
+ * consecutive rows per worker, and each shard is held by several workers in a ring: with two replicas,
+ * worker {@code w} holds shards {@code w} and {@code w - 1}. A batch is encoded once and sent to one holder
+ * of every shard at the same time, and the best rows of every shard are merged into the top k of each query,
+ * which is exactly what a scan over the whole matrix finds.
+ * <p>
+ * Slow and dead workers are handled per shard. If a holder has not answered when a reply is overdue, going by
+ * how long it has recently taken per query, the request is hedged: sent to the next holder as well, and the
+ * first answer wins. A holder which fails is passed over for a while and the next one is asked at once. If no
+ * holder answers within the timeout, the shard is scanned here instead, so a search is never lost, only slower.
+ */
+public class ShardedSearch implements SearchEngine, AutoCloseable {
+
+    /**
+     * The settings of a sharded search.
+     *
+     * @param workers       the number of worker processes, which is also the number of shards.
+     * @param replicas      the number of workers holding each shard.
+     * @param timeoutMillis how long a shard may take to answer before it is scanned locally.
+     * @param hedgeAfter    how many times its recent time per query a shard may take before the request is
+     *                      hedged, or 0 to never hedge.
+     */
+    public record Parameters(int workers, int replicas, int timeoutMillis, double hedgeAfter) {
+
+        /**
+         * Reads the settings from the {@code simplifier.shard.replicas}, {@code simplifier.shard.timeout} and
+         * {@code simplifier.shard.hedge} system properties, defaulting to two replicas (or one with a single
+         * worker), 5000 ms and 3.
+         *
+         * @param workers the number of worker processes.
+         * @return the settings.
+         */
+        public static Parameters fromSystemProperties(int workers) {
+            workers = Math.max(1, workers);
+            return new Parameters(workers,
+                    Math.clamp(Integer.getInteger("simplifier.shard.replicas", 2), 1, workers),
+                    Math.max(1, Integer.getInteger("simplifier.shard.timeout", 5000)),
+                    Math.max(0, Double.parseDouble(System.getProperty("simplifier.shard.hedge", "3"))));
+        }
+    }
+
+    /**
+     * The shortest time a request waits before it is hedged, which is well above a loopback round trip.
+     */
+    private static final long MIN_HEDGE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * How long a worker which failed, timed out or lost a hedge is asked last.
+     */
+    private static final long PASS_OVER_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * How long the workers have to load the model and start listening.
+     */
+    private static final long STARTUP_MINUTES = 10;
+
+    /**
+     * The number of times the agreement report times each search.
+     */
+    private static final int TIMING_ROUNDS = 3;
+
+    /**
+     * The weight of the newest sample in the time per query of a worker.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * A worker process and the connections open to it.
+     */
+    private static final class Worker {
+        final int number;
+        final InetSocketAddress address;
+        final Process process;
+        final Queue<ShardConnection> idle = new ConcurrentLinkedQueue<>();
+        volatile long passOverUntil;
+        volatile double nanosPerQuery;
+
+        Worker(int number, InetSocketAddress address, Process process) {
+            this.number = number;
+            this.address = address;
+            this.process = process;
+        }
+
+        boolean isDead() {
+            return process != null && !process.isAlive();
+        }
+    }
+
+    private final EmbeddingMatrix matrix;
+    private final Parameters parameters;
+    private final Worker[] workers;
+
+    /**
+     * The workers holding each shard, in ring order starting with the one it was first given to.
+     */
+    private final Worker[][] holders;
+
+    /**
+     * The first row of each shard, and the number of rows last.
+     */
+    private final int[] starts;
+
+    /**
+     * A scan over each shard kept here, built the first time a shard has to be scanned locally.
+     */
+    private final AtomicReferenceArray<ExactSearch> local;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final Thread shutdownHook;
+    private volatile boolean closed;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder failedOver = new LongAdder();
+    private final LongAdder scannedLocally = new LongAdder();
+
+    private ShardedSearch(EmbeddingMatrix matrix, Parameters parameters, Worker[] workers, Worker[][] holders) {
+        this.matrix = matrix;
+        this.parameters = parameters;
+        this.workers = workers;
+        this.holders = holders;
+        this.starts = ShardWorker.boundaries(matrix.size(), workers.length);
+        this.local = new AtomicReferenceArray<>(workers.length);
+        this.shutdownHook = new Thread(this::destroyWorkers, "shard-workers-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Starts worker processes on this machine, each loading the same embeddings and Google 1000 File and
+     * keeping its share of the candidates, then connects to them all.
+     *
+     * @param embeddings the embeddings file the workers load.
+     * @param google     the Google 1000 file the workers take their candidates from.
+     * @param format     the format the workers store the vectors in.
+     * @param matrix     the candidate matrix, which every worker must have loaded exactly.
+     * @param parameters the settings of the search.
+     * @return the sharded search.
+     * @throws IOException          if a worker cannot be started, exits before it is ready, or loaded different candidates.
+     * @throws InterruptedException if the thread is interrupted while the workers start.
+     *
+     * @runtimeNotation O(n * m), where n is the number of embedding words and m is the vector size.
+     * @runtimeExplanation The workers load the model side by side, each in its own process; each then copies only the rows of the shards it holds.
+     */
+    public static ShardedSearch launch(Path embeddings, Path google, VectorFormat format, EmbeddingMatrix matrix,
+                                       Parameters parameters) throws IOException, InterruptedException {
+        int count = parameters.workers();
+        Process[] processes = new Process[count];
+        List<CompletableFuture<Integer>> ports = new ArrayList<>();
+        try {
+            for (int w = 0; w < count; w++) {
+                processes[w] = startWorker(w, count, parameters.replicas(), embeddings, google, format);
+                ports.add(awaitPort(w, processes[w]));
+            }
+
+            Worker[] workers = new Worker[count];
+            for (int w = 0; w < count; w++) {
+                int port = ports.get(w).get(STARTUP_MINUTES, TimeUnit.MINUTES);
+                workers[w] = new Worker(w, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), processes[w]);
+            }
+
+            // Shard s is held by workers s, s + 1 and so on round the ring
+            Worker[][] holders = new Worker[count][parameters.replicas()];
+            for (int shard = 0; shard < count; shard++) {
+                for (int r = 0; r < parameters.replicas(); r++) {
+                    holders[shard][r] = workers[(shard + r) % count];
+                }
+            }
+
+            ShardedSearch search = new ShardedSearch(matrix, parameters, workers, holders);
+            for (Worker worker : workers) {
+                worker.idle.offer(search.connect(worker));
+            }
+            return search;
+        } catch (ExecutionException | TimeoutException | IOException e) {
+            for (Process process : processes) {
+                if (process != null) process.destroyForcibly();
+            }
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            throw cause instanceof IOException io ? io : new IOException("Shard workers did not start: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            for (Process process : processes) {
+                if (process != null) process.destroyForcibly();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts one worker process with the same Java, class path, modules and system properties as this one.
+     */
+    private static Process startWorker(int number, int count, int replicas, Path embeddings, Path google,
+                                       VectorFormat format) throws IOException {
+        StringJoiner held = new StringJoiner(",");
+        for (int r = 0; r < replicas; r++) {
+            held.add(Integer.toString(Math.floorMod(number - r, count)));
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("--add-modules") || argument.startsWith("-D") || argument.startsWith("-Xm")) {
+                command.add(argument);
+            }
+        }
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), "ie.atu.sw.Runner",
+                "--shard-worker", held + "/" + count, "--embeddings", embeddings.toString(),
+                "--google", google.toString(), "--format", format.name()));
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /**
+     * Watches the output of a worker for the port it listens on, and keeps draining it afterwards so the
+     * worker never blocks on a full pipe.
+     */
+    private static CompletableFuture<Integer> awaitPort(int number, Process process) {
+        CompletableFuture<Integer> port = new CompletableFuture<>();
+        Thread.ofVirtual().name("shard-worker-" + number + "-output").start(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!port.isDone() && line.startsWith(ShardWorker.READY)) {
+                        port.complete(Integer.parseInt(line.substring(ShardWorker.READY.length()).trim()));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                port.completeExceptionally(e);
+            }
+            port.completeExceptionally(new IOException("Shard worker " + number + " exited before it was ready"
+                    + (process.isAlive() ? "" : " (status " + process.exitValue() + ")")));
+        });
+        return port;
+    }
+
+    /**
+     * Opens a connection to a worker and checks that it holds the shards it was given of this very matrix.
+     */
+    private ShardConnection connect(Worker worker) throws IOException {
+        ShardConnection connection = new ShardConnection(worker.address, parameters.timeoutMillis());
+        if (connection.fingerprint() != matrix.fingerprint() || connection.dimensions() != matrix.dimensions()
+                || connection.shards() != workers.length) {
+            connection.close();
+            throw new IOException("Shard worker " + worker.number + " loaded different candidates");
+        }
+
+        // A worker started with the wrong shards would otherwise turn down every request it is sent
+        int[] held = connection.held();
+        Arrays.sort(held);
+        int[] expected = shardsOf(worker);
+        if (!Arrays.equals(held, expected)) {
+            connection.close();
+            throw new IOException("Shard worker " + worker.number + " holds shards " + Arrays.toString(held)
+                    + " rather than " + Arrays.toString(expected));
+        }
+        return connection;
+    }
+
+    /**
+     * Lists the shards a worker was given, in order.
+     */
+    private int[] shardsOf(Worker worker) {
+        List<Integer> shards = new ArrayList<>();
+        for (int shard = 0; shard < holders.length; shard++) {
+            for (Worker holder : holders[shard]) {
+                if (holder == worker) {
+                    shards.add(shard);
+                    break;
+                }
+            }
+        }
+        return shards.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(n * m / w) per worker, where n is the number of candidates, m is the vector size and w is the number of workers.
+     * @runtimeExplanation Every shard is scanned by one of its holders at the same time, and the replies are merged in O(w * k).
+     */
+    @Override
+    public TopK search(float[] query, int queryOffset, int k, int excludedRow, float minSimilarity) {
+        return searchBatch(query, queryOffset, 1, new int[]{excludedRow}, k, minSimilarity)[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @runtimeNotation O(q * n * m / w) per worker, where q is the number of queries, n is the number of candidates, m is the vector size and w is the number of workers.
+     * @runtimeExplanation The batch is encoded once and every shard scans all of it at the same time; the replies are merged in O(q * w * k).
+     */
+    @Override
+    public TopK[] searchBatch(float[] queries, int queryOffset, int count, int[] excludedRows, int k, float minSimilarity) {
+        batches.increment();
+        byte[] body = ShardWorker.encodeRequest(queries, queryOffset, count, matrix.dimensions(), excludedRows, k, minSimilarity);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(parameters.timeoutMillis());
+
+        // Scatter: every shard is searched at once, each by the first of its holders to answer
+        List<Future<ShardConnection.Reply>> replies = new ArrayList<>(workers.length);
+        for (int shard = 0; shard < workers.length; shard++) {
+            int s = shard;
+            replies.add(executor.submit(() -> searchShard(s, body, count, deadline)));
+        }
+
+        // Gather: rows are offered in shard order, so equal scores are settled by row number as in one scan
+        TopK[] results = new TopK[count];
+        for (int q = 0; q < count; q++) {
+            results[q] = new TopK(k, minSimilarity);
+        }
+        try {
+            for (int shard = 0; shard < workers.length; shard++) {
+                ShardConnection.Reply reply = replies.get(shard).get();
+                if (reply == null) {
+                    scannedLocally.increment();
+                    reply = scanLocally(shard, queries, queryOffset, count, excludedRows, k, minSimilarity);
+                }
+                for (int q = 0; q < count; q++) {
+                    int[] rows = reply.rows()[q];
+                    float[] scores = reply.scores()[q];
+                    for (int i = 0; i < rows.length; i++) {
+                        results[q].offer(rows[i], scores[i]);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            replies.forEach(reply -> reply.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while searching the shards", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Searching the shards failed", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Asks the holders of a shard for its best rows, hedging when the first is slow and failing over when one
+     * fails, until one answers or the deadline passes.
+     *
+     * @return the reply, or {@code null} if no holder answered in time.
+     */
+    private ShardConnection.Reply searchShard(int shard, byte[] body, int count, long deadline) throws InterruptedException {
+        requests.increment();
+        List<Worker> order = order(shard);
+        if (order.isEmpty()) return null;
+
+        CompletionService<ShardConnection.Reply> race = new ExecutorCompletionService<>(executor);
+        Map<Future<ShardConnection.Reply>, Worker> attempts = new HashMap<>();
+        Set<Future<ShardConnection.Reply>> hedges = new HashSet<>();
+        int next = 0, running = 0;
+        long hedgeAt = Long.MAX_VALUE;
+        try {
+            while (running > 0 || next < order.size()) {
+                long now = System.nanoTime();
+                if (running == 0) {
+                    if (next > 0) failedOver.increment();
+                    Worker worker = order.get(next++);
+                    attempts.put(race.submit(() -> attempt(worker, shard, body, count)), worker);
+                    running++;
+                    hedgeAt = hedgeAt(worker, count, now);
+                    continue;
+                }
+                if (now >= deadline) {
+                    attempts.forEach((attempt, worker) -> {
+                        if (!attempt.isDone()) passOver(worker);
+                    });
+                    return null;
+                }
+
+                long wait = (next < order.size() ? Math.min(deadline, hedgeAt) : deadline) - now;
+                Future<ShardConnection.Reply> done = race.poll(wait, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (System.nanoTime() >= deadline || next >= order.size()) continue;
+
+                    // The answer is overdue, so the next holder is asked as well and the first to answer wins
+                    hedged.increment();
+                    Worker worker = order.get(next++);
+                    Future<ShardConnection.Reply> hedge = race.submit(() -> attempt(worker, shard, body, count));
+                    attempts.put(hedge, worker);
+                    hedges.add(hedge);
+                    running++;
+                    hedgeAt = hedgeAt(worker, count, System.nanoTime());
+                    continue;
+                }
+
+                running--;
+                try {
+                    ShardConnection.Reply reply = done.get();
+
+                    // A hedge which answered first outran the holders still working; a plain failover did not
+                    if (hedges.contains(done)) {
+                        hedgesWon.increment();
+                        attempts.forEach((attempt, worker) -> {
+                            if (!attempt.isDone()) passOver(worker);
+                        });
+                    }
+                    return reply;
+                } catch (ExecutionException e) {
+                    passOver(attempts.get(done));
+                }
+            }
+            return null;
+        } finally {
+            attempts.keySet().forEach(attempt -> attempt.cancel(true));
+        }
+    }
+
+    /**
+     * Sends one request to one worker, over an idle connection if it has one.
+     */
+    private ShardConnection.Reply attempt(Worker worker, int shard, byte[] body, int count) throws IOException {
+        long start = System.nanoTime();
+        ShardConnection connection = worker.idle.poll();
+        if (connection == null) connection = connect(worker);
+        try {
+            ShardConnection.Reply reply = connection.search(shard, body, count);
+            worker.idle.offer(connection);
+
+            double sample = (double) (System.nanoTime() - start) / count;
+            double previous = worker.nanosPerQuery;
+            worker.nanosPerQuery = previous == 0 ? sample : previous + SMOOTHING * (sample - previous);
+            return reply;
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lists the live holders of a shard in the order to ask them: the ones in good standing first, taking
+     * turns to go first so the load is shared, then any which were passed over recently. If every holder was
+     * passed over none are listed, so the shard is scanned locally rather than waiting on them again.
+     */
+    private List<Worker> order(int shard) {
+        if (closed) return List.of();
+        Worker[] ring = holders[shard];
+        int first = Math.floorMod(rotation.getAndIncrement(), ring.length);
+        long now = System.nanoTime();
+        List<Worker> ready = new ArrayList<>(ring.length), passedOver = new ArrayList<>();
+        for (int r = 0; r < ring.length; r++) {
+            Worker worker = ring[(first + r) % ring.length];
+            if (worker.isDead()) continue;
+            (now < worker.passOverUntil ? passedOver : ready).add(worker);
+        }
+        if (ready.isEmpty()) return ready;
+        ready.addAll(passedOver);
+        return ready;
+    }
+
+    /**
+     * Works out when to stop waiting for a worker alone and hedge: after a multiple of its recent time per
+     * query, or a quarter of the timeout until it has answered once.
+     */
+    private long hedgeAt(Worker worker, int count, long now) {
+        if (parameters.hedgeAfter() <= 0) return Long.MAX_VALUE;
+        double nanosPerQuery = worker.nanosPerQuery;
+        if (nanosPerQuery == 0) return now + TimeUnit.MILLISECONDS.toNanos(parameters.timeoutMillis()) / 4;
+        return now + Math.max(MIN_HEDGE_NANOS, (long) Math.min(parameters.hedgeAfter() * nanosPerQuery * count, Long.MAX_VALUE / 2));
+    }
+
+    /**
+     * Has a worker asked last for a while, and drops its idle connections, which may be broken.
+     */
+    private void passOver(Worker worker) {
+        worker.passOverUntil = System.nanoTime() + PASS_OVER_NANOS;
+        ShardConnection connection;
+        while ((connection = worker.idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Scans the rows of a shard here, when none of its holders answered in time.
+     */
+    private ShardConnection.Reply scanLocally(int shard, float[] queries, int queryOffset, int count, int[] excludedRows,
+                                              int k, float minSimilarity) {
+        int start = starts[shard], end = starts[shard + 1];
+        ExactSearch search = local.get(shard);
+        if (search == null) {
+            local.compareAndSet(shard, null, new ExactSearch(matrix.rows(start, end)));
+            search = local.get(shard);
+        }
+
+        int[][] rows = new int[count][];
+        float[][] scores = new float[count][];
+        for (int q = 0; q < count; q++) {
+            int excluded = excludedRows[q] >= start && excludedRows[q] < end ? excludedRows[q] - start : -1;
+            TopK top = search.search(queries, queryOffset + q * matrix.dimensions(), k, excluded, minSimilarity);
+            rows[q] = top.rows();
+            scores[q] = top.scores();
+            for (int i = 0; i < rows[q].length; i++) rows[q][i] += start;
+        }
+        return new ShardConnection.Reply(rows, scores);
+    }
+
+    /**
+     * {@inheritDoc} Every search is a round trip to each shard, so a batch costs about as much as one query.
+     */
+    @Override
+    public boolean prefersBatches() {
+        return true;
+    }
+
+    @Override
+    public EmbeddingMatrix getMatrix() {
+        return matrix;
+    }
+
+    @Override
+    public String name() {
+        return "sharded(workers=" + workers.length + ", replicas=" + parameters.replicas() + ")";
+    }
+
+    /**
+     * Compares the search with an exact scan on a sample of vocabulary words, searched as one batch with each
+     * word excluded, as a batch of synonym searches would be.
+     *
+     * @param queries the vocabulary the sample queries are drawn from.
+     * @param samples the number of sample queries.
+     * @param k       the number of neighbours compared per query.
+     * @return a one line summary of how many answers agree and how long the batch took both ways.
+     */
+    public String agreementReport(EmbeddingMatrix queries, int samples, int k) {
+        ExactSearch exact = new ExactSearch(matrix);
+        Random random = new Random(7);
+        samples = Math.min(samples, queries.size());
+        int m = queries.dimensions();
+        float[] vectors = new float[samples * m];
+        int[] excluded = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            int row = random.nextInt(queries.size());
+            queries.copyVector(row, vectors, i * m);
+            excluded[i] = matrix.indexOf(queries.word(row));
+        }
+
+        // First compare the answers, which also opens the connections and warms up both searches
+        TopK[] sharded = searchBatch(vectors, 0, samples, excluded, k, Float.NEGATIVE_INFINITY);
+        int agree = 0;
+        for (int i = 0; i < samples; i++) {
+            if (Arrays.equals(exact.search(vectors, i * m, k, excluded[i]).rows(), sharded[i].rows())) agree++;
+        }
+
+        // Then time the batch both ways, taking the fastest of a few rounds
+        long shardedNanos = Long.MAX_VALUE, exactNanos = Long.MAX_VALUE;
+        for (int round = 0; round < TIMING_ROUNDS; round++) {
+            long start = System.nanoTime();
+            searchBatch(vectors, 0, samples, excluded, k, Float.NEGATIVE_INFINITY);
+            shardedNanos = Math.min(shardedNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            exact.searchBatch(vectors, 0, samples, excluded, k, Float.NEGATIVE_INFINITY);
+            exactNanos = Math.min(exactNanos, System.nanoTime() - start);
+        }
+        return String.format("%s top %d agrees with the exact scan on %d of %d queries, %.1f ms per batch vs %.1f ms exact",
+                name(), k, agree, samples, shardedNanos / 1e6, exactNanos / 1e6);
+    }
+
+    /**
+     * Stops the worker processes and closes their connections. Searches still running are answered by
+     * scanning locally.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        destroyWorkers();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down, and the hook has done the same
+        }
+    }
+
+    /**
+     * Asks every worker to exit, and kills any which have not a second later, such as one which is hung or stopped.
+     */
+    private void destroyWorkers() {
+        for (Worker worker : workers) {
+            ShardConnection connection;
+            while ((connection = worker.idle.poll()) != null) {
+                connection.close();
+            }
+            if (worker.process != null) worker.process.destroy();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        for (Worker worker : workers) {
+            if (worker.process == null) continue;
+            try {
+                if (!worker.process.waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    worker.process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                worker.process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long alive = Arrays.stream(workers).filter(worker -> !worker.isDead()).count();
+        return String.format("%s: %d of %d workers alive; %,d batches, %,d shard requests, %,d hedged (%,d won by the hedge), %,d failed over, %,d scanned locally",
+                name(), alive, workers.length, batches.sum(), requests.sum(), hedged.sum(), hedgesWon.sum(),
+                failedOver.sum(), scannedLocally.sum());
+    }
+}
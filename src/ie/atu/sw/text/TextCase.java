@@ -0,0 +1,69 @@
+package ie.atu.sw.text;
+
+import java.util.Locale;
+
+/**
+ * The {@code TextCase} class folds words to lower case for lookups and puts the original casing back on their replacements.
+ */
+public class TextCase {
+
+    /**
+     * Checks whether a span of text is already in lower case, so it can be looked up without folding it first.
+     *
+     * @param text  the text.
+     * @param start the start of the span.
+     * @param end   the end of the span.
+     * @return {@code true} if folding the span to lower case would leave it as it is.
+     */
+    public static boolean isLowerCase(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.toLowerCase(c) != c) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Appends a span of text folded to lower case.
+     *
+     * @param text  the text.
+     * @param start the start of the span.
+     * @param end   the end of the span.
+     * @param out   where the folded characters are appended.
+     */
+    public static void appendLowerCase(CharSequence text, int start, int end, StringBuilder out) {
+        for (int i = start; i < end; i++) {
+            out.append(Character.toLowerCase(text.charAt(i)));
+        }
+    }
+
+    /**
+     * Appends a replacement word in the casing of the word it replaces: upper case if the original was
+     * all capitals (and longer than one letter), capitalized if the original started with a capital,
+     * and unchanged otherwise.
+     *
+     * @param replacement the replacement word, in lower case.
+     * @param original    the text holding the original word.
+     * @param start       the start of the original word.
+     * @param end         the end of the original word.
+     * @param out         where the replacement is appended.
+     */
+    public static void appendMatchingCase(String replacement, CharSequence original, int start, int end, StringBuilder out) {
+        if (replacement.isEmpty() || !Character.isUpperCase(original.charAt(start)) && !Character.isTitleCase(original.charAt(start))) {
+            out.append(replacement);
+            return;
+        }
+
+        boolean allCapitals = end - start > 1;
+        for (int i = start; i < end && allCapitals; i++) {
+            char c = original.charAt(i);
+            if (Character.isLetter(c) && !Character.isUpperCase(c)) allCapitals = false;
+        }
+
+        if (allCapitals) {
+            out.append(replacement.toUpperCase(Locale.ROOT));
+        } else {
+            out.append(Character.toTitleCase(replacement.charAt(0))).append(replacement, 1, replacement.length());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package ie.atu.sw.text;
+
+import java.nio.CharBuffer;
+
+/**
+ * The {@code Tokenizer} class walks through a {@code CharBuffer} and reports each token as a span of it:
+ * where the token starts, how long it is and what kind of token it is. No substring is created for a token,
+ * so whitespace and punctuation cost nothing beyond the scan, and words are only copied when they are looked up.
+ *
+ * <p>A word is a run of letters and digits, which may contain single apostrophes or hyphens between
+ * letters ("don't", "well-known"). Whitespace and punctuation are each runs of those characters.</p>
+ */
+public class Tokenizer {
+
+    /**
+     * The kinds of token the text is split into.
+     */
+    public enum Kind {
+        WORD,
+        PUNCTUATION,
+        WHITESPACE
+    }
+
+    /**
+     * The text being tokenized.
+     */
+    private final CharBuffer text;
+
+    /**
+     * The index just after the current token, which is where the next token begins.
+     */
+    private int position;
+
+    private int start;
+    private int end;
+    private Kind kind;
+
+    /**
+     * Constructs a {@code Tokenizer} over the remaining characters of a buffer.
+     *
+     * @param text the text to split into tokens.
+     */
+    public Tokenizer(CharBuffer text) {
+        this.text = text;
+    }
+
+    /**
+     * Moves on to the next token.
+     *
+     * @return {@code true} if there was another token, or {@code false} at the end of the text.
+     *
+     * @runtimeNotation O(t), where t is the length of the token.
+     * @runtimeExplanation Each character is looked at once, apart from the one after an apostrophe or hyphen.
+     */
+    public boolean next() {
+        int limit = text.length();
+        if (position >= limit) return false;
+
+        start = position;
+        char first = text.get(position);
+        if (Character.isLetterOrDigit(first)) {
+            kind = Kind.WORD;
+            position++;
+            while (position < limit) {
+                char c = text.get(position);
+                if (Character.isLetterOrDigit(c)) {
+                    position++;
+                } else if ((c == '\'' || c == '-' || c == '’') && position + 1 < limit
+                        && Character.isLetterOrDigit(text.get(position + 1))) {
+                    position += 2;
+                } else {
+                    break;
+                }
+            }
+        } else if (Character.isWhitespace(first)) {
+            kind = Kind.WHITESPACE;
+            do {
+                position++;
+            } while (position < limit && Character.isWhitespace(text.get(position)));
+        } else {
+            kind = Kind.PUNCTUATION;
+            do {
+                position++;
+            } while (position < limit && !Character.isWhitespace(text.get(position)) && !Character.isLetterOrDigit(text.get(position)));
+        }
+        end = position;
+        return true;
+    }
+
+    /**
+     * Returns the kind of the current token.
+     *
+     * @return the token kind.
+     */
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * Returns where the current token starts, relative to the buffer's position.
+     *
+     * @return the start offset of the token.
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * Returns the offset just after the current token, relative to the buffer's position.
+     *
+     * @return the end offset of the token.
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * Returns the length of the current token.
+     *
+     * @return the number of characters in the token.
+     */
+    public int length() {
+        return end - start;
+    }
+}
@@ -0,0 +1,125 @@
+package ie.atu.sw.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code DebugLog} class prints the debugging lines of {@code Runner.isDebugging} without slowing the
+ * simplification down to the speed of the terminal. The hot loop only drops a small event into a lock-free
+ * {@link RingBuffer}; a background thread formats and prints whatever has collected a few dozen times a second.
+ * If the terminal cannot keep up the buffer fills and further lines are dropped, and counted, rather than
+ * making the workers wait.
+ */
+public final class DebugLog {
+
+    /**
+     * The most lines waiting to be printed, set with {@code -Dsimplifier.debug.buffer}.
+     */
+    private static final int CAPACITY = Integer.getInteger("simplifier.debug.buffer", 64 * 1024);
+
+    /**
+     * How long the printer sleeps when there is nothing to print.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * What happened to a word.
+     */
+    private enum Kind {
+        SWAPPED,
+        KEPT,
+        NO_EMBEDDING
+    }
+
+    /**
+     * One line of debugging output, formatted only when it is printed.
+     */
+    private record Event(Kind kind, String word, String synonym) {
+        String format() {
+            return switch (kind) {
+                case SWAPPED -> "Swapping word: '" + word + "' with synonym: '" + synonym + "'";
+                case KEPT -> "No synonym found for word: '" + word + "', keeping original.";
+                case NO_EMBEDDING -> "No embedding found for word: " + word;
+            };
+        }
+    }
+
+    private static final RingBuffer<Event> EVENTS = new RingBuffer<>(CAPACITY);
+
+    /**
+     * How many lines have been printed so far.
+     */
+    private static volatile long printed;
+
+    static {
+        Thread.ofPlatform().daemon().name("debug-log").start(DebugLog::print);
+    }
+
+    private DebugLog() {
+    }
+
+    /**
+     * Logs a word being swapped for a synonym.
+     *
+     * @param word    the word.
+     * @param synonym its synonym.
+     */
+    public static void swapped(String word, String synonym) {
+        EVENTS.offer(new Event(Kind.SWAPPED, word, synonym));
+    }
+
+    /**
+     * Logs a word being kept as it was.
+     *
+     * @param word the word.
+     */
+    public static void kept(String word) {
+        EVENTS.offer(new Event(Kind.KEPT, word, null));
+    }
+
+    /**
+     * Logs a word that has no embedding.
+     *
+     * @param word the word.
+     */
+    public static void noEmbedding(String word) {
+        EVENTS.offer(new Event(Kind.NO_EMBEDDING, word, null));
+    }
+
+    /**
+     * Waits until every line logged so far has been printed, so that what is printed next comes after them.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public static void flush() throws InterruptedException {
+        long logged = EVENTS.getAdded();
+        while (printed < logged) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Prints the waiting lines in batches, for the life of the JVM.
+     */
+    private static void print() {
+        StringBuilder batch = new StringBuilder();
+        long reportedDrops = 0;
+        while (true) {
+            batch.setLength(0);
+            int lines = EVENTS.drain(event -> batch.append(event.format()).append(System.lineSeparator()), CAPACITY);
+
+            long dropped = EVENTS.getDropped();
+            if (dropped > reportedDrops) {
+                batch.append(String.format("... %,d debug lines dropped, the terminal could not keep up%n", dropped - reportedDrops));
+                reportedDrops = dropped;
+            }
+
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            } else {
+                System.out.print(batch);
+            }
+            printed += lines;
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package ie.atu.sw.utils;
 
-import ie.atu.sw.files.EmbeddingsFile;
-import java.util.Map;
+import ie.atu.sw.embeddings.BatchSearch;
+import ie.atu.sw.embeddings.CandidateSet;
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.EmbeddingModel;
+import ie.atu.sw.embeddings.ExactSearch;
+import ie.atu.sw.embeddings.ModelRegistry;
+import ie.atu.sw.embeddings.SearchEngine;
+import ie.atu.sw.embeddings.SynonymCache;
+import ie.atu.sw.embeddings.TopK;
+import ie.atu.sw.metrics.Metrics;
 
 /**
  * The {Methods} class provides methods for the project
@@ -9,46 +17,418 @@ import java.util.Map;
 public class Methods {
 
     /**
-     * Finds the best synonym for a given word based on cosine similarity.
+     * The words synonyms are chosen from. When none have been loaded the whole vocabulary is searched.
+     */
+    private static volatile CandidateSet candidates;
+
+    /**
+     * Retrieves the candidate set that synonyms are chosen from.
+     *
+     * @return the current candidate set, or {@code null} if the whole vocabulary is searched.
+     */
+    public static CandidateSet getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Changes the candidate set that synonyms are chosen from. This can be done at any time,
+     * and searches which are already running finish against the set they started with.
+     *
+     * @param candidateSet the new candidate set, or {@code null} to search the whole vocabulary.
+     */
+    public static void setCandidates(CandidateSet candidateSet) {
+        candidates = candidateSet;
+    }
+
+    /**
+     * An index over the candidate matrix that answers synonym searches, or {@code null} to scan every candidate.
+     */
+    private static volatile SearchEngine searchEngine;
+
+    /**
+     * Retrieves the search engine synonym searches are answered with.
+     *
+     * @return the current search engine, or {@code null} if every candidate is scanned.
+     */
+    public static SearchEngine getSearchEngine() {
+        return searchEngine;
+    }
+
+    /**
+     * Changes the search engine synonym searches are answered with. The engine is only used for searches
+     * against the matrix it was built over. The synonym cache is cleared, as its answers may differ.
+     * An engine holding resources, such as worker processes, is closed once it is replaced.
+     *
+     * @param engine the new search engine, or {@code null} to scan every candidate.
+     */
+    public static void setSearchEngine(SearchEngine engine) {
+        SearchEngine previous = searchEngine;
+        searchEngine = engine;
+        synonymCache.clear();
+        if (previous != engine && previous instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                System.err.println("Could not close the " + previous.name() + " search engine: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A bounded cache of synonym lookups, used when the simplifications have not been precomputed.
+     */
+    private static volatile SynonymCache synonymCache = new SynonymCache(65_536, SynonymCache.Policy.TINY_LFU);
+
+    /**
+     * Retrieves the synonym cache.
+     *
+     * @return the cache used by {@link #findCachedSynonym(String)}.
+     */
+    public static SynonymCache getSynonymCache() {
+        return synonymCache;
+    }
+
+    /**
+     * Replaces the synonym cache, for example to change its size or eviction policy.
+     *
+     * @param cache the new cache.
+     */
+    public static void setSynonymCache(SynonymCache cache) {
+        synonymCache = cache;
+    }
+
+    /**
+     * The lowest similarity a synonym must have to replace a word. Words with no candidate this close are kept.
+     */
+    private static volatile float minSimilarity = -1f;
+
+    /**
+     * Retrieves the lowest similarity a synonym must have to replace a word.
+     *
+     * @return the minimum cosine similarity, where {@code -1} lets any candidate replace a word.
+     */
+    public static float getMinSimilarity() {
+        return minSimilarity;
+    }
+
+    /**
+     * Changes the lowest similarity a synonym must have to replace a word. Jobs already running keep the
+     * minimum they started with. The synonym cache is cleared, as answers cached under the old minimum
+     * would only be asked for again by those jobs.
+     *
+     * @param similarity the new minimum cosine similarity, between {@code -1} and {@code 1}.
+     */
+    public static void setMinSimilarity(float similarity) {
+        if (!(similarity >= -1f && similarity <= 1f)) {
+            throw new IllegalArgumentException("The minimum similarity must be between -1 and 1, not " + similarity);
+        }
+        minSimilarity = similarity;
+        synonymCache.clear();
+    }
+
+    /**
+     * A synonym and how similar it is to the word it was found for.
+     *
+     * @param word       the synonym.
+     * @param similarity the cosine similarity between the synonym and the word.
+     */
+    public record Synonym(String word, float similarity) {
+    }
+
+    /**
+     * Finds the best synonym for a given word, answering repeated words from the synonym cache.
+     * Cached synonyms are tied to the versions of the model and candidate set they were found in.
+     * The word is kept if no candidate reaches the {@linkplain #getMinSimilarity() minimum similarity}.
+     *
+     * @param word the word to find the best synonym for.
+     * @return the best synonym for the word, or the word itself.
+     *
+     * @runtimeNotation O(1) on a cache hit, otherwise O(k * m) as for {@link #findBestSynonym(String)}.
+     * @runtimeExplanation A hit is a single hash lookup; a miss scans the candidates once and caches the result.
+     */
+    public static String findCachedSynonym(String word) {
+        return findCachedSynonym(word, ModelRegistry.global().active(), candidates, minSimilarity);
+    }
+
+    /**
+     * Finds the best synonym for a given word in a given model, answering repeated words from the synonym cache.
+     * A job which takes the model, candidates and minimum similarity once and passes them in keeps using them
+     * even if others are swapped in meanwhile.
+     *
+     * @param word          the word to find the best synonym for.
+     * @param model         the model holding the word's vector.
+     * @param candidateSet  the candidates the synonym is chosen from, or {@code null} to search the whole model.
+     * @param minSimilarity the lowest cosine similarity the synonym may have.
+     * @return the best synonym for the word, or the word itself if no candidate reaches the minimum similarity.
+     *
+     * @runtimeNotation O(1) on a cache hit, otherwise O(k * m) as for {@link #findBestSynonym(String)}.
+     * @runtimeExplanation A hit is a single hash lookup; a miss scans the candidates once and caches the result.
+     */
+    public static String findCachedSynonym(String word, EmbeddingModel model, CandidateSet candidateSet, float minSimilarity) {
+        return synonymCache.get(word, cacheVersion(model, candidateSet, minSimilarity), w -> {
+            Metrics.Timer timer = Metrics.start(Metrics.Stage.LOOKUP);
+            Synonym[] best = findTopSynonyms(w, 1, minSimilarity, model, candidateSet);
+            timer.stop(1);
+            return best.length > 0 ? best[0].word() : w;
+        });
+    }
+
+    /**
+     * Returns the version synonyms are cached under, which changes whenever the model, the candidates or the
+     * minimum similarity do, so that jobs running with different minimums never answer each other's words.
+     *
+     * @param model         the model holding the words' vectors.
+     * @param candidateSet  the candidates the synonyms are chosen from, or {@code null} if the whole model is searched.
+     * @param minSimilarity the lowest cosine similarity the synonyms may have.
+     * @return the synonym cache version.
+     */
+    public static long cacheVersion(EmbeddingModel model, CandidateSet candidateSet, float minSimilarity) {
+        long version = model.getVersion() << 32 | (candidateSet != null ? candidateSet.getVersion() : 0);
+
+        // The minimum is spread over all 64 bits so that it cannot cancel out a change of version
+        return version ^ Float.floatToIntBits(minSimilarity) * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Finds the k closest synonyms of a word in the current candidate set, leaving out any less similar than
+     * a minimum. The candidates are scanned once into a fixed-size heap of primitives, where a candidate which
+     * cannot beat the k-th best found so far is turned away with one comparison, so nothing is sorted but the k results.
+     *
+     * @param word          the word to find synonyms for.
+     * @param k             the most synonyms to return.
+     * @param minSimilarity the lowest cosine similarity a synonym may have.
+     * @return the synonyms, best first, which is empty if the word has no embedding or no candidate is close enough.
+     *
+     * @runtimeNotation O(n * m + n * log k), where n is the number of candidates and m is the vector size.
+     * @runtimeExplanation Each candidate is compared with the word once, and kept ones are sifted into a heap of k.
+     */
+    public static Synonym[] findTopSynonyms(String word, int k, float minSimilarity) {
+        return findTopSynonyms(word, k, minSimilarity, ModelRegistry.global().active(), candidates);
+    }
+
+    /**
+     * Finds the k closest synonyms of a word in a given model, leaving out any less similar than a minimum.
+     * If an index was built over the candidates it answers instead of a scan.
+     *
+     * @param word          the word to find synonyms for.
+     * @param k             the most synonyms to return.
+     * @param minSimilarity the lowest cosine similarity a synonym may have.
+     * @param model         the model holding the word's vector.
+     * @param candidateSet  the candidates the synonyms are chosen from, or {@code null} to search the whole model.
+     * @return the synonyms, best first, which is empty if the word has no embedding or no candidate is close enough.
+     *
+     * @runtimeNotation O(n * m + n * log k), where n is the number of candidates and m is the vector size.
+     * @runtimeExplanation Each candidate is compared with the word once, and kept ones are sifted into a heap of k.
+     */
+    public static Synonym[] findTopSynonyms(String word, int k, float minSimilarity, EmbeddingModel model, CandidateSet candidateSet) {
+        EmbeddingMatrix embeddings = model.getMatrix();
+        EmbeddingMatrix searched = candidateSet != null ? candidateSet.getMatrix() : embeddings;
+        int wordRow = embeddings.indexOf(word);
+        if (wordRow < 0) return new Synonym[0];
+
+        // The word itself is never its own synonym
+        float[] query = embeddings.vector(wordRow);
+        SearchEngine engine = searchEngine;
+        TopK top = (engine != null && engine.getMatrix() == searched ? engine : new ExactSearch(searched))
+                .search(query, 0, k, searched.indexOf(word), minSimilarity);
+
+        int[] rows = top.rows();
+        float[] scores = top.scores();
+        Synonym[] synonyms = new Synonym[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            synonyms[i] = new Synonym(searched.word(rows[i]), scores[i]);
+        }
+        return synonyms;
+    }
+
+    /**
+     * Finds the best synonym for a given word based on cosine similarity, searching only the current candidate set.
+     * The word is kept if no candidate reaches the {@linkplain #getMinSimilarity() minimum similarity}.
      *
      * @param word the word to find the best synonym for.
-     * @return the best synonym for the word.
+     * @return the best synonym for the word, or the word itself.
      *
-     * @runtimeNotation O(n * m), where n is the number of embeddings and m is the length of each embedding vector.
-     * @runtimeExplanation For each word in the embeddings map, we compute the cosine similarity which requires iterating over the vector.
+     * @runtimeNotation O(k * m), where k is the number of candidates and m is the length of each embedding vector.
+     * @runtimeExplanation For each candidate row we compute a dot product, which requires iterating over the vector.
      */
     public static String findBestSynonym(String word) {
+        CandidateSet candidateSet = candidates;
+        EmbeddingMatrix embeddings = ModelRegistry.global().active().getMatrix();
+        return findBestSynonym(word, embeddings, candidateSet != null ? candidateSet.getMatrix() : embeddings, minSimilarity);
+    }
 
-        // First we will get all of our embeddings
-        Map<String, double[]> embeddings = EmbeddingsFile.getEmbeddings();
+    /**
+     * Finds the best synonym for a given word based on cosine similarity, searching the rows of the given matrix.
+     * The word is kept if no candidate reaches the {@linkplain #getMinSimilarity() minimum similarity}.
+     *
+     * @param word       the word to find the best synonym for.
+     * @param candidates the matrix of words the synonym is chosen from.
+     * @return the best synonym for the word, or the word itself.
+     *
+     * @runtimeNotation O(k * m), where k is the number of candidates and m is the length of each embedding vector.
+     * @runtimeExplanation For each candidate row we compute a dot product, which requires iterating over the vector.
+     */
+    public static String findBestSynonym(String word, EmbeddingMatrix candidates) {
+        return findBestSynonym(word, ModelRegistry.global().active().getMatrix(), candidates, minSimilarity);
+    }
 
-        // Depending on the word chosen we will now store all the vectors of that word
-        double[] wordEmbedding = embeddings.get(word);
+    /**
+     * Finds the best synonym for a given word based on cosine similarity, taking its vector from the given
+     * embeddings and searching the rows of the given candidate matrix.
+     * The word is kept if no candidate reaches the {@linkplain #getMinSimilarity() minimum similarity}.
+     *
+     * @param word       the word to find the best synonym for.
+     * @param embeddings the matrix holding the word's vector.
+     * @param candidates the matrix of words the synonym is chosen from.
+     * @return the best synonym for the word, or the word itself.
+     *
+     * @runtimeNotation O(k * m), where k is the number of candidates and m is the length of each embedding vector.
+     * @runtimeExplanation For each candidate row we compute a dot product, which requires iterating over the vector.
+     */
+    public static String findBestSynonym(String word, EmbeddingMatrix embeddings, EmbeddingMatrix candidates) {
+        return findBestSynonym(word, embeddings, candidates, minSimilarity);
+    }
+
+    /**
+     * Finds the best synonym for a given word based on cosine similarity, taking its vector from the given
+     * embeddings and searching the rows of the given candidate matrix, leaving out any less similar than a minimum.
+     *
+     * @param word          the word to find the best synonym for.
+     * @param embeddings    the matrix holding the word's vector.
+     * @param candidates    the matrix of words the synonym is chosen from.
+     * @param minSimilarity the lowest cosine similarity the synonym may have.
+     * @return the best synonym for the word, or the word itself if no candidate reaches the minimum similarity.
+     *
+     * @runtimeNotation O(k * m), where k is the number of candidates and m is the length of each embedding vector.
+     * @runtimeExplanation For each candidate row we compute a dot product, which requires iterating over the vector.
+     */
+    public static String findBestSynonym(String word, EmbeddingMatrix embeddings, EmbeddingMatrix candidates, float minSimilarity) {
+
+        // Depending on the word chosen we will first find the row holding its vector
+        int wordRow = embeddings.indexOf(word);
 
         // If none are found just return the same word
-        if (wordEmbedding == null) return word;
+        if (wordRow < 0) return word;
+
+        float[] query = embeddings.vector(wordRow);
+
+        // If an index was built over these candidates let it answer, otherwise scan them all
+        SearchEngine engine = searchEngine;
+        int bestRow = engine != null && engine.getMatrix() == candidates
+                ? engine.search(query, 0, 1, candidates.indexOf(word), minSimilarity).best()
+                : findBestRow(query, 0, word, candidates, minSimilarity);
+        return bestRow >= 0 ? candidates.word(bestRow) : word;
+    }
 
-        // Default value if none are found
-        String bestMatch = null;
-        double maxSimilarity = -1;
+    /**
+     * Finds the top synonyms of a whole batch of words at once, searching the current candidate set.
+     * All the query vectors are gathered into one block and compared against the candidates as a tiled
+     * matrix product, which is much faster than searching for each word on its own.
+     *
+     * @param words the words to find synonyms for.
+     * @param k     the number of synonyms to return per word.
+     * @return for each word, its best synonyms in order, or an empty array if the word has no embedding.
+     *
+     * @runtimeNotation O(q * k' * m), where q is the number of words, k' the number of candidates and m the vector size.
+     * @runtimeExplanation Every query is compared with every candidate once, through {@link BatchSearch}.
+     */
+    public static String[][] findBatchSynonyms(String[] words, int k) {
+        return findBatchSynonyms(words, k, ModelRegistry.global().active(), candidates);
+    }
 
-        // Now we will iterate through the embeddings to find the best match
-        for (Map.Entry<String, double[]> entry : embeddings.entrySet()) {
+    /**
+     * Finds the top synonyms of a whole batch of words at once in a given model. If an index was built over
+     * the candidates it answers each word instead, so the results agree with {@link #findBestSynonym(String)}.
+     *
+     * @param words        the words to find synonyms for.
+     * @param k            the number of synonyms to return per word.
+     * @param model        the model holding the words' vectors.
+     * @param candidateSet the candidates the synonyms are chosen from, or {@code null} to search the whole model.
+     * @return for each word, its best synonyms in order, or an empty array if the word has no embedding.
+     *
+     * @runtimeNotation O(q * k' * m), where q is the number of words, k' the number of candidates and m the vector size.
+     * @runtimeExplanation Every query is compared with every candidate once, through {@link BatchSearch}.
+     */
+    public static String[][] findBatchSynonyms(String[] words, int k, EmbeddingModel model, CandidateSet candidateSet) {
+        return findBatchSynonyms(words, k, Float.NEGATIVE_INFINITY, model, candidateSet);
+    }
 
-            // If the word entered is the same best chosen synonym as the word entered, we skip
-            if (!word.equals(entry.getKey())) {
+    /**
+     * Finds the top synonyms of a whole batch of words at once in a given model, leaving out any less similar
+     * than a minimum.
+     *
+     * @param words         the words to find synonyms for.
+     * @param k             the most synonyms to return per word.
+     * @param minSimilarity the lowest cosine similarity a synonym may have.
+     * @param model         the model holding the words' vectors.
+     * @param candidateSet  the candidates the synonyms are chosen from, or {@code null} to search the whole model.
+     * @return for each word, its best synonyms in order, or an empty array if the word has no embedding or no
+     *         candidate is close enough.
+     *
+     * @runtimeNotation O(q * k' * m), where q is the number of words, k' the number of candidates and m the vector size.
+     * @runtimeExplanation Every query is compared with every candidate once, through {@link BatchSearch}.
+     */
+    public static String[][] findBatchSynonyms(String[] words, int k, float minSimilarity, EmbeddingModel model, CandidateSet candidateSet) {
+        EmbeddingMatrix embeddings = model.getMatrix();
+        EmbeddingMatrix searched = candidateSet != null ? candidateSet.getMatrix() : embeddings;
+        int dimensions = embeddings.dimensions();
 
-                // Now we simply calculate the cosine similarity of the word and each of its vectors
-                double similarity = computeCosineSimilarity(wordEmbedding, entry.getValue());
+        // Gather the vectors of the words that have one into a single block of queries
+        int[] queryOf = new int[words.length];
+        float[] queries = new float[words.length * dimensions];
+        int[] excludedRows = new int[words.length];
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            int row = embeddings.indexOf(words[i]);
+            queryOf[i] = row < 0 ? -1 : count;
+            if (row < 0) continue;
+            embeddings.copyVector(row, queries, count * dimensions);
+            excludedRows[count++] = searched.indexOf(words[i]);
+        }
 
-                // If the current vector is even more similar than the previous, swap it out
-                if (similarity > maxSimilarity) {
-                    maxSimilarity = similarity;
-                    bestMatch = entry.getKey();
-                }
+        SearchEngine engine = searchEngine;
+        TopK[] results;
+        if (engine != null && engine.getMatrix() == searched) {
+            results = engine.searchBatch(queries, 0, count, excludedRows, k, minSimilarity);
+        } else {
+            results = BatchSearch.search(queries, 0, count, excludedRows, searched, k);
+        }
+        String[][] synonyms = new String[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            int[] rows = queryOf[i] < 0 ? new int[0] : results[queryOf[i]].rows();
+            float[] scores = queryOf[i] < 0 ? new float[0] : results[queryOf[i]].scores();
+
+            // The rows are best first, so stop at the first one below the minimum
+            int kept = 0;
+            while (kept < rows.length && scores[kept] >= minSimilarity) kept++;
+            synonyms[i] = new String[kept];
+            for (int j = 0; j < kept; j++) {
+                synonyms[i][j] = searched.word(rows[j]);
             }
         }
-        return bestMatch != null ? bestMatch : word;
+        return synonyms;
+    }
+
+    /**
+     * Finds the candidate row most similar to a normalized query vector, as long as it is similar enough.
+     *
+     * @param query         the array holding the normalized query vector.
+     * @param queryOffset   the offset of the query vector in that array.
+     * @param exclude       a word which may not be chosen, normally the query word itself, or {@code null}.
+     * @param candidates    the matrix of words the synonym is chosen from.
+     * @param minSimilarity the lowest cosine similarity the row may have.
+     * @return the best candidate row, or {@code -1} if no candidate reaches the minimum similarity.
+     *
+     * @runtimeNotation O(k * m), where k is the number of candidates and m is the length of each embedding vector.
+     * @runtimeExplanation For each candidate row we compute a dot product, which requires iterating over the vector.
+     */
+    public static int findBestRow(float[] query, int queryOffset, String exclude, EmbeddingMatrix candidates, float minSimilarity) {
+
+        // If the word entered is itself a candidate, find its row once so it can be skipped
+        int excludedRow = exclude != null ? candidates.indexOf(exclude) : -1;
+
+        // Quantized candidates are scanned approximately and their shortlist re-ranked at full precision
+        return new ExactSearch(candidates).search(query, queryOffset, 1, excludedRow, minSimilarity).best();
     }
 
     /**
@@ -73,48 +453,4 @@ public class Methods {
         double calcualtion = dotProduct / (Math.sqrt(magnitude1) * Math.sqrt(magnitude2));
         return calcualtion;
     }
-
-    /**
-     * Prints a progress bar to the console to indicate the progress of a task.
-     *
-     * @param index the current progress index (e.g., the number of completed tasks).
-     * @param total the total number of tasks to complete.
-     *
-     **/
-
-    public static void printProgress(int index, int total) {
-        if (index > total) return;	//Out of range
-        int size = 50; 				//Must be less than console width
-        char done = '█';			//Change to whatever you like.
-        char todo = '░';			//Change to whatever you like.
-
-        //Compute basic metrics for the meter
-        int complete = (100 * index) / total;
-        int completeLen = size * complete / 100;
-
-        /*
-         * A StringBuilder should be used for string concatenation inside a
-         * loop. However, as the number of loop iterations is small, using
-         * the "+" operator may be more efficient as the instructions can
-         * be optimized by the compiler. Either way, the performance overhead
-         * will be marginal.
-         */
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < size; i++) {
-            sb.append((i < completeLen) ? done : todo);
-        }
-
-        /*
-         * The line feed escape character "\r" returns the cursor to the
-         * start of the current line. Calling print(...) overwrites the
-         * existing line and creates the illusion of an animation.
-         */
-        System.out.print("\r" + sb + "] " + complete + "%");
-
-        //Once the meter reaches its max, move to a new line.
-        if (done == total) System.out.println("\n");
-    }
-
-
 }
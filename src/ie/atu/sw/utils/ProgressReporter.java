@@ -0,0 +1,90 @@
+package ie.atu.sw.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The {@code ProgressReporter} class draws a progress meter from its own thread. The workers only bump
+ * counters; the reporter samples them at a fixed rate and redraws one line with the percentage done,
+ * the words per second and the time left, so the cost of the terminal no longer grows with the text.
+ */
+public class ProgressReporter implements AutoCloseable {
+
+    /**
+     * How many times a second the meter is redrawn, set with {@code -Dsimplifier.progress.hz}.
+     */
+    private static final int REDRAWS_PER_SECOND = Math.max(1, Integer.getInteger("simplifier.progress.hz", 10));
+
+    /**
+     * The width of the bar, which must be less than the console width.
+     */
+    private static final int BAR_WIDTH = 50;
+
+    private final long total;
+    private final LongSupplier done;
+    private final LongSupplier words;
+    private final long start = System.nanoTime();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a {@code ProgressReporter} and starts redrawing the meter.
+     *
+     * @param total the amount of work, for example the bytes of the file.
+     * @param done  reads how much of the work is done, in the same unit.
+     * @param words reads how many words have been simplified.
+     */
+    public ProgressReporter(long total, LongSupplier done, LongSupplier words) {
+        this.total = Math.max(1, total);
+        this.done = done;
+        this.words = words;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("progress").factory());
+        long period = TimeUnit.SECONDS.toMillis(1) / REDRAWS_PER_SECOND;
+        scheduler.scheduleAtFixedRate(this::draw, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Redraws the meter over the current line.
+     */
+    private void draw() {
+        System.out.print(line(Math.min(done.getAsLong(), total)));
+    }
+
+    private String line(long current) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        int complete = (int) (100 * current / total);
+        int completeLen = BAR_WIDTH * complete / 100;
+
+        StringBuilder sb = new StringBuilder(BAR_WIDTH + 64);
+        sb.append("\r[");
+        for (int i = 0; i < BAR_WIDTH; i++) {
+            sb.append(i < completeLen ? '█' : '░');
+        }
+        sb.append("] ").append(complete).append('%');
+        sb.append(String.format("  %,.0f words/s", words.getAsLong() / seconds));
+
+        // Estimate the time left from the rate so far
+        if (current > 0 && current < total) {
+            long left = (long) (seconds * (total - current) / current);
+            sb.append(String.format("  ETA %d:%02d", left / 60, left % 60));
+        } else {
+            sb.append("          ");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops redrawing, draws the meter a last time as complete and moves to a new line.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(line(total));
+    }
+}
@@ -0,0 +1,142 @@
+package ie.atu.sw.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * The {@code RingBuffer} class is a bounded, lock-free queue for many producers and one consumer.
+ * Producers claim a slot with a single compare-and-set and never wait: when the buffer is full the
+ * item is dropped and counted instead, so a hot loop can hand off work without ever blocking on
+ * whoever drains it. Each slot carries a sequence number which tells producers and the consumer
+ * whose turn it is, as in Dmitry Vyukov's bounded queue.
+ *
+ * @param <T> the type of the items.
+ */
+public class RingBuffer<T> {
+
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The next slot to read. Only the single consumer changes it.
+     */
+    private volatile long head;
+
+    /**
+     * Constructs an empty {@code RingBuffer}.
+     *
+     * @param capacity the most items held at once, rounded up to a power of two.
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an item unless the buffer is full. Safe to call from any number of threads.
+     *
+     * @param item the item to add.
+     * @return {@code true} if it was added, {@code false} if it was dropped.
+     *
+     * @runtimeNotation O(1)
+     * @runtimeExplanation One compare-and-set claims the slot; it is only retried when another producer claimed it first.
+     */
+    public boolean offer(T item) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+
+                // The slot is free for this position; claim it, then publish the item by advancing its sequence
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.lazySet(slot, item);
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+
+                // The consumer has not yet freed the slot a full lap ago, so the buffer is full
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest item. Only one thread may call it.
+     *
+     * @return the item, or {@code null} if the buffer is empty.
+     */
+    public T poll() {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1) return null;
+        T item = items.get(slot);
+        items.lazySet(slot, null);
+        sequences.set(slot, head + mask + 1);
+        head++;
+        return item;
+    }
+
+    /**
+     * Removes the items available now, oldest first, up to a limit so that busy producers cannot
+     * keep the consumer draining forever. Only one thread may call it.
+     *
+     * @param consumer receives each item.
+     * @param limit    the most items to remove.
+     * @return the number of items removed.
+     */
+    public int drain(Consumer<? super T> consumer, int limit) {
+        int count = 0;
+        T item;
+        while (count < limit && (item = poll()) != null) {
+            consumer.accept(item);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns how many items have been dropped because the buffer was full.
+     *
+     * @return the number of dropped items.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns how many items have ever been added.
+     *
+     * @return the number of items added, whether or not they have been removed since.
+     */
+    public long getAdded() {
+        return tail.get();
+    }
+
+    /**
+     * Returns roughly how many items are waiting, which may be out of date as soon as it is read.
+     *
+     * @return the number of items waiting.
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(mask + 1, tail.get() - head));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}